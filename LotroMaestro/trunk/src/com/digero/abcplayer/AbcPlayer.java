@@ -35,6 +35,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -86,6 +87,8 @@ import com.digero.common.abctomidi.FileAndData;
 import com.digero.common.icons.IconLoader;
 import com.digero.common.midi.IMidiConstants;
 import com.digero.common.midi.LotroSequencerWrapper;
+import com.digero.common.midi.PanGenerator;
+import com.digero.common.midi.SequenceTimeline;
 import com.digero.common.midi.SequencerEvent;
 import com.digero.common.midi.SequencerEvent.SequencerProperty;
 import com.digero.common.midi.SequencerWrapper;
@@ -131,6 +134,11 @@ public class AbcPlayer extends JFrame implements TableLayoutConstants, IMidiCons
 
 		System.setProperty("sun.sound.useNewAudioEngine", "true");
 
+		// Load the instruments and set up the regular expressions while the window is being created.
+		// Playing waits for the synthesizer if it isn't ready yet.
+		LotroSequencerWrapper.startLoadingLotroSynth();
+		Util.initializeClassesInBackground(AbcToMidi.class, AbcInfo.class, PanGenerator.class);
+
 		try
 		{
 			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -142,6 +150,7 @@ public class AbcPlayer extends JFrame implements TableLayoutConstants, IMidiCons
 		mainWindow = new AbcPlayer();
 		mainWindow.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		mainWindow.setVisible(true);
+		Util.logStartupTime(APP_NAME + " window shown");
 		mainWindow.openSongFromCommandLine(args);
 		try
 		{
@@ -302,48 +311,6 @@ public class AbcPlayer extends JFrame implements TableLayoutConstants, IMidiCons
 			if (useLotroInstruments)
 			{
 				sequencer = new LotroSequencerWrapper();
-
-				if (LotroSequencerWrapper.getLoadLotroSynthError() != null)
-				{
-					Version requredJavaVersion = new Version(1, 7, 0, 0);
-					Version recommendedJavaVersion = new Version(1, 7, 0, 25);
-
-					JPanel errorMessage = new JPanel(new BorderLayout(0, 12));
-					errorMessage.add(new JLabel(
-							"<html><b>There was an error loading the LOTRO instrument sounds</b><br>"
-									+ "Playback will use standard MIDI instruments instead<br>"
-									+ "(drums do not sound good in this mode).</html>"), BorderLayout.NORTH);
-
-					final String JAVA_URL = "http://www.java.com";
-					if (requredJavaVersion.compareTo(Version.parseVersion(System.getProperty("java.version"))) > 0)
-					{
-						JLabel update = new JLabel("<html>It is recommended that you install Java "
-								+ recommendedJavaVersion.getMinor() + " update " + recommendedJavaVersion.getRevision()
-								+ " or later.<br>" + "Get the latest version from <a href='" + JAVA_URL + "'>"
-								+ JAVA_URL + "</a>.</html>");
-						update.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
-						update.addMouseListener(new MouseAdapter()
-						{
-							@Override public void mouseClicked(MouseEvent e)
-							{
-								if (e.getButton() == MouseEvent.BUTTON1)
-								{
-									Util.openURL(JAVA_URL);
-								}
-							}
-						});
-						errorMessage.add(update, BorderLayout.CENTER);
-					}
-
-					errorMessage.add(
-							new JLabel("<html>Error details:<br>" + LotroSequencerWrapper.getLoadLotroSynthError()
-									+ "</html>"), BorderLayout.SOUTH);
-
-					JOptionPane.showMessageDialog(this, errorMessage, APP_NAME + " failed to load LOTRO instruments",
-							JOptionPane.ERROR_MESSAGE);
-
-					useLotroInstruments = false;
-				}
 			}
 			else
 			{
@@ -462,6 +429,104 @@ public class AbcPlayer extends JFrame implements TableLayoutConstants, IMidiCons
 
 		updateButtonStates();
 		initializeWindowBounds();
+
+		waitForSequencerInBackground();
+	}
+
+	/**
+	 * The sequencer's synthesizer is opened on a background thread, so that the window can be shown
+	 * without waiting for the soundbank to load. This reports any errors once it's done.
+	 */
+	private void waitForSequencerInBackground()
+	{
+		final SequencerWrapper sequencer = this.sequencer;
+		Thread thread = new Thread(new Runnable()
+		{
+			@Override public void run()
+			{
+				try
+				{
+					sequencer.waitUntilReady();
+				}
+				catch (final MidiUnavailableException e)
+				{
+					SwingUtilities.invokeLater(new Runnable()
+					{
+						@Override public void run()
+						{
+							JOptionPane.showMessageDialog(AbcPlayer.this, e.getMessage(), "MIDI error",
+									JOptionPane.ERROR_MESSAGE);
+							System.exit(1);
+						}
+					});
+					return;
+				}
+
+				Util.logStartupTime(APP_NAME + " synthesizer ready");
+
+				if (sequencer instanceof LotroSequencerWrapper)
+				{
+					final String error = LotroSequencerWrapper.getLoadLotroSynthError();
+					if (error != null)
+					{
+						SwingUtilities.invokeLater(new Runnable()
+						{
+							@Override public void run()
+							{
+								onLoadLotroSynthFailed(error);
+							}
+						});
+					}
+				}
+			}
+		}, "Wait for synthesizer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void onLoadLotroSynthFailed(String error)
+	{
+		Version requredJavaVersion = new Version(1, 7, 0, 0);
+		Version recommendedJavaVersion = new Version(1, 7, 0, 25);
+
+		JPanel errorMessage = new JPanel(new BorderLayout(0, 12));
+		errorMessage.add(new JLabel(
+				"<html><b>There was an error loading the LOTRO instrument sounds</b><br>"
+						+ "Playback will use standard MIDI instruments instead<br>"
+						+ "(drums do not sound good in this mode).</html>"), BorderLayout.NORTH);
+
+		final String JAVA_URL = "http://www.java.com";
+		if (requredJavaVersion.compareTo(Version.parseVersion(System.getProperty("java.version"))) > 0)
+		{
+			JLabel update = new JLabel("<html>It is recommended that you install Java "
+					+ recommendedJavaVersion.getMinor() + " update " + recommendedJavaVersion.getRevision()
+					+ " or later.<br>" + "Get the latest version from <a href='" + JAVA_URL + "'>"
+					+ JAVA_URL + "</a>.</html>");
+			update.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+			update.addMouseListener(new MouseAdapter()
+			{
+				@Override public void mouseClicked(MouseEvent e)
+				{
+					if (e.getButton() == MouseEvent.BUTTON1)
+					{
+						Util.openURL(JAVA_URL);
+					}
+				}
+			});
+			errorMessage.add(update, BorderLayout.CENTER);
+		}
+
+		errorMessage.add(new JLabel("<html>Error details:<br>" + error + "</html>"), BorderLayout.SOUTH);
+
+		JOptionPane.showMessageDialog(this, errorMessage, APP_NAME + " failed to load LOTRO instruments",
+				JOptionPane.ERROR_MESSAGE);
+
+		useLotroInstruments = false;
+		if (abcData != null && abcData.size() > 0)
+		{
+			// The song was converted for the LOTRO instruments
+			refreshSequence();
+		}
 	}
 
 	private void updateTitleLabel()
@@ -1137,7 +1202,7 @@ public class AbcPlayer extends JFrame implements TableLayoutConstants, IMidiCons
 		}
 
 		sequencer.setTempoFactor(1.0f);
-		for (int i = 0; i < CHANNEL_COUNT; i++)
+		for (int i = 0; i < song.getTracks().length; i++)
 		{
 			sequencer.setTrackMute(i, false);
 			sequencer.setTrackSolo(i, false);
@@ -1236,7 +1301,7 @@ public class AbcPlayer extends JFrame implements TableLayoutConstants, IMidiCons
 		}
 
 		// Make sure the new tracks are unmuted
-		for (int i = oldTrackCount; i < CHANNEL_COUNT; i++)
+		for (int i = oldTrackCount; i < song.getTracks().length; i++)
 		{
 			sequencer.setTrackMute(i, false);
 			sequencer.setTrackSolo(i, false);
@@ -1377,6 +1442,12 @@ public class AbcPlayer extends JFrame implements TableLayoutConstants, IMidiCons
 
 		exportFileDialog.setFileFilter(new ExtensionFileFilter("WAV Files", "wav"));
 
+		BarRangePanel barRange = new BarRangePanel(getBarCount());
+		JPanel accessory = new JPanel(new BorderLayout());
+		accessory.setBorder(BorderFactory.createEmptyBorder(0, 8, 0, 0));
+		accessory.add(barRange, BorderLayout.NORTH);
+		exportFileDialog.setAccessory(accessory);
+
 		int result = exportFileDialog.showSaveDialog(this);
 		if (result == JFileChooser.APPROVE_OPTION)
 		{
@@ -1391,19 +1462,30 @@ public class AbcPlayer extends JFrame implements TableLayoutConstants, IMidiCons
 
 			JDialog waitFrame = new WaitDialog(this, saveFile);
 			waitFrame.setVisible(true);
-			new Thread(new ExportWavTask(sequencer.getSequence(), saveFile, waitFrame)).start();
+			new Thread(new ExportWavTask(sequencer.getSequence(), barRange.getStartTick(abcInfo),
+					barRange.getEndTick(abcInfo), saveFile, waitFrame)).start();
 		}
 	}
 
+	/** The number of bars in the song, as shown next to the song position */
+	private int getBarCount()
+	{
+		return abcInfo.tickToBarNumber(sequencer.getTickLength()) + 1;
+	}
+
 	private class ExportWavTask implements Runnable
 	{
 		private Sequence sequence;
+		private long startTick;
+		private long endTick;
 		private File file;
 		private JDialog waitFrame;
 
-		public ExportWavTask(Sequence sequence, File file, JDialog waitFrame)
+		public ExportWavTask(Sequence sequence, long startTick, long endTick, File file, JDialog waitFrame)
 		{
 			this.sequence = sequence;
+			this.startTick = startTick;
+			this.endTick = endTick;
 			this.file = file;
 			this.waitFrame = waitFrame;
 		}
@@ -1417,7 +1499,7 @@ public class AbcPlayer extends JFrame implements TableLayoutConstants, IMidiCons
 				FileOutputStream fos = new FileOutputStream(file);
 				try
 				{
-					MidiToWav.render(sequence, fos);
+					MidiToWav.render(new SequenceTimeline(sequence, startTick, endTick), fos);
 				}
 				finally
 				{
@@ -1630,7 +1712,7 @@ public class AbcPlayer extends JFrame implements TableLayoutConstants, IMidiCons
 		}
 
 		ExportMp3Dialog mp3Dialog = new ExportMp3Dialog(this, lameExe, mp3Prefs, openedFile, abcInfo.getTitle(),
-				abcInfo.getComposer());
+				abcInfo.getComposer(), getBarCount());
 		mp3Dialog.setIconImages(AbcPlayer.this.getIconImages());
 		mp3Dialog.addActionListener(new ActionListener()
 		{
@@ -1639,7 +1721,9 @@ public class AbcPlayer extends JFrame implements TableLayoutConstants, IMidiCons
 				ExportMp3Dialog dialog = (ExportMp3Dialog) e.getSource();
 				JDialog waitFrame = new WaitDialog(AbcPlayer.this, dialog.getSaveFile());
 				waitFrame.setVisible(true);
-				new Thread(new ExportMp3Task(sequencer.getSequence(), dialog, waitFrame)).start();
+				BarRangePanel barRange = dialog.getBarRange();
+				new Thread(new ExportMp3Task(sequencer.getSequence(), barRange.getStartTick(abcInfo),
+						barRange.getEndTick(abcInfo), dialog, waitFrame)).start();
 			}
 		});
 		mp3Dialog.setVisible(true);
@@ -1648,12 +1732,17 @@ public class AbcPlayer extends JFrame implements TableLayoutConstants, IMidiCons
 	private class ExportMp3Task implements Runnable
 	{
 		private Sequence sequence;
+		private long startTick;
+		private long endTick;
 		private ExportMp3Dialog mp3Dialog;
 		private JDialog waitFrame;
 
-		public ExportMp3Task(Sequence sequence, ExportMp3Dialog mp3Dialog, JDialog waitFrame)
+		public ExportMp3Task(Sequence sequence, long startTick, long endTick, ExportMp3Dialog mp3Dialog,
+				JDialog waitFrame)
 		{
 			this.sequence = sequence;
+			this.startTick = startTick;
+			this.endTick = endTick;
 			this.mp3Dialog = mp3Dialog;
 			this.waitFrame = waitFrame;
 		}
@@ -1668,21 +1757,14 @@ public class AbcPlayer extends JFrame implements TableLayoutConstants, IMidiCons
 			{
 				lameExeSav = mp3Prefs.get("lameExe", null);
 				mp3Prefs.put("lameExe", "");
-				File wavFile = File.createTempFile("AbcPlayer-", ".wav");
-				FileOutputStream fos = new FileOutputStream(wavFile);
-				try
-				{
-					MidiToWav.render(sequence, fos);
-					fos.close();
-					Process p = Runtime.getRuntime().exec(mp3Dialog.getCommandLine(wavFile));
-					if (p.waitFor() != 0)
-						throw new Exception("LAME failed");
-				}
-				finally
+
+				LameEncoder.encode(mp3Dialog.getCommandLine(), mp3Dialog.getSaveFile(), new LameEncoder.WavSource()
 				{
-					fos.close();
-					wavFile.delete();
-				}
+					@Override public void writeTo(OutputStream out) throws Exception
+					{
+						MidiToWav.render(new SequenceTimeline(sequence, startTick, endTick), out);
+					}
+				});
 			}
 			catch (Exception e)
 			{
@@ -0,0 +1,102 @@
+package com.digero.abcplayer;
+
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import com.digero.common.abctomidi.AbcInfo;
+
+/**
+ * Lets the user choose to export only a range of bars from the song, instead of the whole thing.
+ */
+class BarRangePanel extends JPanel
+{
+	private JCheckBox rangeCheckBox;
+	private JSpinner startSpinner;
+	private JSpinner endSpinner;
+
+	public BarRangePanel(int barCount)
+	{
+		super(new FlowLayout(FlowLayout.LEFT, 0, 0));
+
+		barCount = Math.max(barCount, 1);
+		rangeCheckBox = new JCheckBox("Only bars ");
+		rangeCheckBox.setEnabled(barCount > 1);
+		startSpinner = new JSpinner(new SpinnerNumberModel(1, 1, barCount, 1));
+		endSpinner = new JSpinner(new SpinnerNumberModel(barCount, 1, barCount, 1));
+
+		rangeCheckBox.addActionListener(new ActionListener()
+		{
+			@Override public void actionPerformed(ActionEvent e)
+			{
+				updateEnabled();
+			}
+		});
+
+		// Keep the start at or before the end
+		startSpinner.addChangeListener(new ChangeListener()
+		{
+			@Override public void stateChanged(ChangeEvent e)
+			{
+				if (getStartBar() > getEndBar())
+					endSpinner.setValue(getStartBar());
+			}
+		});
+		endSpinner.addChangeListener(new ChangeListener()
+		{
+			@Override public void stateChanged(ChangeEvent e)
+			{
+				if (getEndBar() < getStartBar())
+					startSpinner.setValue(getEndBar());
+			}
+		});
+
+		add(rangeCheckBox);
+		add(startSpinner);
+		add(new JLabel(" to "));
+		add(endSpinner);
+		updateEnabled();
+	}
+
+	private void updateEnabled()
+	{
+		startSpinner.setEnabled(rangeCheckBox.isSelected());
+		endSpinner.setEnabled(rangeCheckBox.isSelected());
+	}
+
+	public boolean isRangeSelected()
+	{
+		return rangeCheckBox.isSelected();
+	}
+
+	public int getStartBar()
+	{
+		return (Integer) startSpinner.getValue();
+	}
+
+	/** The last bar to export, inclusive */
+	public int getEndBar()
+	{
+		return (Integer) endSpinner.getValue();
+	}
+
+	/** The first tick to export */
+	public long getStartTick(AbcInfo abcInfo)
+	{
+		return isRangeSelected() ? abcInfo.getBarStartTick(getStartBar()) : 0;
+	}
+
+	/** The tick after the last one to export, or Long.MAX_VALUE to export to the end of the song */
+	public long getEndTick(AbcInfo abcInfo)
+	{
+		return isRangeSelected() ? abcInfo.getBarStartTick(getEndBar() + 1) : Long.MAX_VALUE;
+	}
+}
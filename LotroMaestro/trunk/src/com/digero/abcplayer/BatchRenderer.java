@@ -0,0 +1,344 @@
+package com.digero.abcplayer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sound.midi.Sequence;
+
+import com.digero.common.abctomidi.AbcInfo;
+import com.digero.common.abctomidi.AbcToMidi;
+import com.digero.common.midi.SequenceTimeline;
+import com.digero.common.midi.SynthesizerFactory;
+import com.digero.common.util.ParseException;
+import com.digero.common.util.Util;
+
+/**
+ * Renders ABC files to WAV or MP3 files from the command line, without showing any UI. The files
+ * are converted and rendered concurrently, and the time that each one took is printed as it
+ * finishes. The process exits with a non-zero status if any of the files couldn't be rendered.
+ */
+public class BatchRenderer
+{
+	private static final String USAGE = "Usage: BatchRenderer [options] (file.abc | directory)...\n"
+			+ "Renders each ABC file, or each .abc file in a directory, to a WAV or MP3 file.\n\n"
+			+ "Options:\n"
+			+ "  -list <file>       Also render the files listed in a text file, one per line\n"
+			+ "  -out <directory>   Where to save the rendered files (default: next to each ABC file)\n"
+			+ "  -mp3               Encode MP3 files with LAME instead of saving WAV files\n"
+			+ "  -lame <path>       The LAME executable (default: lame)\n"
+			+ "  -quality <preset>  The LAME preset: medium, standard or extreme (default: standard)\n"
+			+ "  -threads <count>   How many files to render at once (default: one per processor)\n"
+			+ "  -splitparts        Render each part of a song on its own synthesizer, in parallel. This is\n"
+			+ "                     faster when rendering one file at a time, but the mix can differ slightly\n"
+			+ "  -soundfont <file>  The LOTRO instruments soundfont (default: LotroInstruments.sf2)\n"
+			+ "  -mono              Don't pan the parts of multi-part songs\n"
+			+ "  -lotroerrors       Fail files that have errors that would stop them playing in LOTRO";
+
+	private List<File> abcFiles = new ArrayList<File>();
+	private File outputDirectory = null;
+	private boolean mp3 = false;
+	private String lameExe = "lame";
+	private String quality = "standard";
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	private boolean splitParts = false;
+	private File soundFontFile = new File("LotroInstruments.sf2");
+	private boolean stereo = true;
+	private boolean enableLotroErrors = false;
+
+	public static void main(String[] args)
+	{
+		System.setProperty("java.awt.headless", "true");
+		System.setProperty("sun.sound.useNewAudioEngine", "true");
+
+		BatchRenderer renderer = new BatchRenderer();
+		try
+		{
+			if (!renderer.parseArgs(args))
+			{
+				System.err.println(USAGE);
+				System.exit(2);
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println(e.getMessage());
+			System.exit(2);
+		}
+
+		System.exit(renderer.renderAll() ? 0 : 1);
+	}
+
+	private boolean parseArgs(String[] args) throws IOException
+	{
+		for (int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			if (!arg.startsWith("-"))
+			{
+				addInput(new File(arg));
+				continue;
+			}
+
+			String option = arg.toLowerCase();
+			if (option.equals("-mp3"))
+				mp3 = true;
+			else if (option.equals("-mono"))
+				stereo = false;
+			else if (option.equals("-lotroerrors"))
+				enableLotroErrors = true;
+			else if (option.equals("-splitparts"))
+				splitParts = true;
+			else if (i + 1 >= args.length)
+				return false;
+			else if (option.equals("-list"))
+			{
+				for (String line : AbcToMidi.readLines(new File(args[++i])))
+				{
+					if (line.trim().length() > 0)
+						addInput(new File(line.trim()));
+				}
+			}
+			else if (option.equals("-out"))
+				outputDirectory = new File(args[++i]);
+			else if (option.equals("-lame"))
+				lameExe = args[++i];
+			else if (option.equals("-quality"))
+				quality = args[++i].toLowerCase();
+			else if (option.equals("-soundfont"))
+				soundFontFile = new File(args[++i]);
+			else if (option.equals("-threads"))
+			{
+				try
+				{
+					threadCount = Integer.parseInt(args[++i]);
+				}
+				catch (NumberFormatException e)
+				{
+					return false;
+				}
+				if (threadCount < 1)
+					return false;
+			}
+			else
+				return false;
+		}
+
+		return abcFiles.size() > 0;
+	}
+
+	private void addInput(File file)
+	{
+		if (file.isDirectory())
+		{
+			File[] children = file.listFiles();
+			if (children != null)
+			{
+				Arrays.sort(children);
+				for (File child : children)
+				{
+					if (child.isFile() && Util.stringEndsWithIgnoreCase(child.getName(), ".abc"))
+						abcFiles.add(child);
+				}
+			}
+		}
+		else
+		{
+			abcFiles.add(file);
+		}
+	}
+
+	private boolean renderAll()
+	{
+		// Songs with the same name in different folders would overwrite each other in the output folder,
+		// possibly while both are being rendered
+		Map<File, File> saveFiles = new HashMap<File, File>();
+		for (File abcFile : abcFiles)
+		{
+			File saveFile = getSaveFile(abcFile);
+			File other = saveFiles.put(saveFile, abcFile);
+			if (other != null)
+			{
+				System.err.println("Both " + other + " and " + abcFile + " would be saved to " + saveFile);
+				return false;
+			}
+		}
+
+		// Load the soundbank up front, so that every synthesizer shares it and a missing file is
+		// reported once instead of for every song
+		try
+		{
+			SynthesizerFactory.setSoundFontLocation(soundFontFile);
+			SynthesizerFactory.getLotroSoundbank();
+		}
+		catch (Exception e)
+		{
+			System.err.println("Failed to load " + soundFontFile + ": " + e.getMessage());
+			return false;
+		}
+
+		if (outputDirectory != null && !outputDirectory.isDirectory() && !outputDirectory.mkdirs())
+		{
+			System.err.println("Failed to create " + outputDirectory);
+			return false;
+		}
+
+		long startNanos = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(abcFiles.size());
+		for (File abcFile : abcFiles)
+			results.add(pool.submit(new RenderTask(abcFile, getSaveFile(abcFile))));
+		pool.shutdown();
+
+		int failed = 0;
+		for (Future<Boolean> result : results)
+		{
+			try
+			{
+				if (!result.get())
+					failed++;
+			}
+			catch (InterruptedException | ExecutionException e)
+			{
+				failed++;
+			}
+		}
+
+		long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+		System.out.println("Rendered " + (abcFiles.size() - failed) + " of " + abcFiles.size() + " files in "
+				+ formatSeconds(elapsedMillis));
+		return failed == 0;
+	}
+
+	private File getSaveFile(File abcFile)
+	{
+		File directory = (outputDirectory != null) ? outputDirectory : abcFile.getAbsoluteFile().getParentFile();
+		String extension = mp3 ? ".mp3" : ".wav";
+		return new File(directory, Util.fileNameWithoutExtension(abcFile) + extension).getAbsoluteFile();
+	}
+
+	private static String formatSeconds(long millis)
+	{
+		return String.format("%.1f s", millis / 1000.0);
+	}
+
+	private class RenderTask implements Callable<Boolean>
+	{
+		private File abcFile;
+		private File saveFile;
+
+		public RenderTask(File abcFile, File saveFile)
+		{
+			this.abcFile = abcFile;
+			this.saveFile = saveFile;
+		}
+
+		@Override public Boolean call()
+		{
+			String name = abcFile.getName();
+			try
+			{
+				long startNanos = System.nanoTime();
+
+				AbcToMidi.Params params = new AbcToMidi.Params(abcFile);
+				params.abcInfo = new AbcInfo();
+				params.enableLotroErrors = enableLotroErrors;
+				params.stereo = stereo;
+				Sequence song = AbcToMidi.convert(params);
+
+				long convertedNanos = System.nanoTime();
+
+				if (mp3)
+					encodeMp3(song, params.abcInfo, saveFile);
+				else
+					saveWav(song, saveFile);
+
+				long convertMillis = (convertedNanos - startNanos) / 1000000;
+				long renderMillis = (System.nanoTime() - convertedNanos) / 1000000;
+				System.out.println(name + ": converted in " + convertMillis + " ms, rendered "
+						+ Util.formatDuration(song.getMicrosecondLength()) + " in " + formatSeconds(renderMillis)
+						+ " to " + saveFile.getName());
+				return true;
+			}
+			catch (ParseException e)
+			{
+				System.out.println(name + ": FAILED: " + e.getMessage());
+				return false;
+			}
+			catch (Exception e)
+			{
+				System.out.println(name + ": FAILED: " + e);
+				return false;
+			}
+		}
+
+		private void saveWav(Sequence song, File saveFile) throws Exception
+		{
+			FileOutputStream fos = new FileOutputStream(saveFile);
+			boolean saved = false;
+			try
+			{
+				render(song, fos);
+				saved = true;
+			}
+			finally
+			{
+				try
+				{
+					fos.close();
+				}
+				finally
+				{
+					// Don't leave a partial file that looks like it was rendered
+					if (!saved && !saveFile.delete())
+						System.out.println(abcFile.getName() + ": Failed to delete partial file " + saveFile);
+				}
+			}
+		}
+
+		private void encodeMp3(final Sequence song, AbcInfo abcInfo, File saveFile) throws Exception
+		{
+			List<String> command = new ArrayList<String>();
+			command.add(lameExe);
+			command.add("--silent");
+			command.add("--preset");
+			command.add(quality);
+			if (abcInfo.getTitle().length() > 0)
+			{
+				command.add("--tt");
+				command.add(abcInfo.getTitle());
+			}
+			if (abcInfo.getComposer().length() > 0)
+			{
+				command.add("--ta");
+				command.add(abcInfo.getComposer());
+			}
+			command.add("-");
+			command.add(saveFile.getAbsolutePath());
+
+			LameEncoder.encode(command.toArray(new String[command.size()]), saveFile, new LameEncoder.WavSource()
+			{
+				@Override public void writeTo(OutputStream out) throws Exception
+				{
+					render(song, out);
+				}
+			});
+		}
+
+		private void render(Sequence song, OutputStream out) throws Exception
+		{
+			MidiToWav.render(new SequenceTimeline(song), out, splitParts);
+		}
+	}
+}
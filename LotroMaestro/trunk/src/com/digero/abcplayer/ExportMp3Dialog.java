@@ -50,6 +50,7 @@ public class ExportMp3Dialog extends JDialog implements TableLayoutConstants
 	private JTextField albumField;
 	private ButtonGroup qualityButtonGroup;
 	private JRadioButton[] qualityButtons;
+	private BarRangePanel barRangePanel;
 
 	private Preferences prefs;
 	private TableLayout layout;
@@ -58,7 +59,7 @@ public class ExportMp3Dialog extends JDialog implements TableLayoutConstants
 	private List<ActionListener> actionListeners;
 
 	public ExportMp3Dialog(JFrame parent, File lameExe, Preferences prefs, File abcFile, String songTitle,
-			String songArtist)
+			String songArtist, int barCount)
 	{
 		super(parent, AbcPlayer.APP_NAME + " - Export to MP3", false);
 
@@ -121,7 +122,10 @@ public class ExportMp3Dialog extends JDialog implements TableLayoutConstants
 		addRow("Title", titleField, addLotroCheckbox);
 		addRow("Artist", artistField, null);
 		addRow("Album", albumField, null);
+		barRangePanel = new BarRangePanel(barCount);
+
 		addRow("Quality", qualityPanel, qualityPanel);
+		addRow("Bars", barRangePanel, barRangePanel);
 		addRow("Save As", saveAsField, browseButton);
 		for (int r = 0; r < layout.getNumRow(); r++)
 		{
@@ -247,7 +251,13 @@ public class ExportMp3Dialog extends JDialog implements TableLayoutConstants
 		return new File(saveAsField.getText());
 	}
 
-	public String getCommandLine(File wav)
+	public BarRangePanel getBarRange()
+	{
+		return barRangePanel;
+	}
+
+	/** Gets the command line to encode WAV data that's written to LAME's standard input */
+	public String getCommandLine()
 	{
 		String args = " --silent";
 		args += " --preset " + getQuality();
@@ -257,7 +267,7 @@ public class ExportMp3Dialog extends JDialog implements TableLayoutConstants
 			args += " --ta " + Util.quote(getArtist());
 		if (getAlbum().length() > 0)
 			args += " --tl " + Util.quote(getAlbum());
-		args += " " + Util.quote(wav.getAbsolutePath());
+		args += " -";
 		args += " " + Util.quote(getSaveFile().getAbsolutePath());
 		return Util.quote(lameExe.getAbsolutePath()) + args;
 	}
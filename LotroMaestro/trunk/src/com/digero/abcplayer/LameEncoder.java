@@ -0,0 +1,119 @@
+package com.digero.abcplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes MP3 files with LAME. The WAV data is piped straight into LAME's standard input, so the
+ * song is encoded while it's being rendered instead of going through a temporary file. Rendering
+ * blocks whenever the pipe is full.
+ */
+class LameEncoder
+{
+	private LameEncoder()
+	{
+		// Can't instantiate class
+	}
+
+	/** Writes the WAV data to encode */
+	public interface WavSource
+	{
+		public void writeTo(OutputStream out) throws Exception;
+	}
+
+	/**
+	 * Runs LAME with the given command line, which must read the WAV data from standard input and
+	 * write to <code>mp3File</code>. See {@link #encode(String[], File, WavSource)}.
+	 */
+	public static void encode(String commandLine, File mp3File, WavSource wav) throws Exception
+	{
+		encode(Runtime.getRuntime().exec(commandLine), mp3File, wav);
+	}
+
+	/**
+	 * Runs LAME with the given command, which must read the WAV data from standard input and write
+	 * to <code>mp3File</code>. If rendering fails or LAME fails, LAME is stopped, the partial MP3
+	 * file is deleted, and the exception says which of them failed. If it was LAME, the message
+	 * includes its exit code and the end of its error output.
+	 */
+	public static void encode(String[] command, File mp3File, WavSource wav) throws Exception
+	{
+		encode(Runtime.getRuntime().exec(command), mp3File, wav);
+	}
+
+	private static void encode(Process lame, File mp3File, WavSource wav) throws Exception
+	{
+		// Keep reading LAME's output, so it can't stall on a full pipe while we're blocked writing to it
+		new StreamDrainer(lame.getInputStream()).start();
+		StreamDrainer lameErrors = new StreamDrainer(lame.getErrorStream(), true);
+		lameErrors.start();
+
+		Exception renderError = null;
+		OutputStream lameIn = lame.getOutputStream();
+		try
+		{
+			wav.writeTo(lameIn);
+		}
+		catch (Exception e)
+		{
+			renderError = e;
+		}
+		finally
+		{
+			try
+			{
+				lameIn.close();
+			}
+			catch (IOException e)
+			{
+				// LAME has already exited; its exit code says whether it failed
+			}
+		}
+
+		// Writing to the pipe fails when LAME stops reading, so let LAME exit by itself to find out
+		// why. Otherwise, if rendering failed while LAME was still running, LAME isn't to blame.
+		boolean destroyed = false;
+		if (renderError != null && !(renderError instanceof IOException) && !hasExited(lame))
+		{
+			lame.destroy();
+			destroyed = true;
+		}
+
+		int exitCode = lame.waitFor();
+		boolean lameFailed = !destroyed && exitCode != 0;
+		if (renderError == null && !lameFailed)
+			return;
+
+		String message;
+		if (lameFailed)
+		{
+			message = "LAME failed (exit code " + exitCode + ")";
+			String lameOutput = lameErrors.getCapturedOutput();
+			if (lameOutput.length() > 0)
+				message += ":\n" + lameOutput;
+		}
+		else
+		{
+			message = (renderError.getMessage() != null) ? renderError.getMessage() : renderError.toString();
+		}
+
+		if (mp3File.exists() && !mp3File.delete())
+			message += "\n\nThe partial MP3 file could not be deleted:\n" + mp3File.getAbsolutePath();
+
+		throw new IOException(message, renderError);
+	}
+
+	private static boolean hasExited(Process p)
+	{
+		try
+		{
+			p.exitValue();
+			return true;
+		}
+		catch (IllegalThreadStateException e)
+		{
+			return false;
+		}
+	}
+}
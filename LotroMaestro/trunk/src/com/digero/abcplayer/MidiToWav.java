@@ -1,124 +1,499 @@
 package com.digero.abcplayer;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
-import javax.sound.midi.MetaMessage;
-import javax.sound.midi.MidiEvent;
-import javax.sound.midi.MidiMessage;
+import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Receiver;
 import javax.sound.midi.Sequence;
-import javax.sound.midi.Track;
+import javax.sound.midi.ShortMessage;
 import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 
+import com.digero.common.midi.IMidiConstants;
+import com.digero.common.midi.SequenceTimeline;
 import com.digero.common.midi.SynthesizerFactory;
 import com.sun.media.sound.AudioSynthesizer;
 
 public class MidiToWav
 {
+	/**
+	 * The synthesizer's default control rate. Its auto gain control adjusts the gain once for each
+	 * block of (sample rate / control rate) frames, and the mixdown does the same.
+	 */
+	private static final float CONTROL_RATE = 147f;
+
+	/** The number of gain control blocks that each part renders at a time when mixing them down */
+	private static final int MIXDOWN_BLOCKS = 64;
+
+	/** The longest that the notes and reverb are given to fade out after the end of the song */
+	private static final long MAX_TAIL_MICROS = 10000000;
+
+	/** How long before the end of the song to start rendering when measuring how long it takes to fade out */
+	private static final long TAIL_LOOKBACK_MICROS = 3000000;
+
+	/** The level (about -66 dB) that 16-bit samples have to stay at or below to count as silence */
+	private static final int SILENCE_LEVEL = 16;
+
+	/** How long the output has to stay silent before the song is considered to have faded out */
+	private static final long SILENCE_MICROS = 250000;
+
 	/**
 	 * Render sequence using selected or default soundbank into wave audio file.
 	 */
-	public static void render(Sequence sequence, OutputStream out) throws MidiUnavailableException
+	public static void render(Sequence sequence, OutputStream out) throws MidiUnavailableException,
+			InvalidMidiDataException, IOException
 	{
-		try
+		render(new SequenceTimeline(sequence), out);
+	}
+
+	/**
+	 * Render timeline, which may be just part of a sequence, into wave audio file.
+	 */
+	public static void render(SequenceTimeline timeline, OutputStream out) throws MidiUnavailableException,
+			InvalidMidiDataException, IOException
+	{
+		render(timeline, out, false);
+	}
+
+	/**
+	 * Render timeline into wave audio file. If renderPartsInParallel is true and the timeline uses
+	 * more than one channel, each channel is rendered on its own synthesizer, concurrently. Each of
+	 * those synthesizers runs its own reverb and chorus, so this takes about twice as much work in
+	 * total and the mix can differ slightly from rendering all of the channels together. It's only
+	 * faster with enough idle cores to share the work.
+	 * <p>
+	 * The file continues past the end of the timeline for as long as it takes for the last notes and
+	 * the reverb to fade out.
+	 */
+	public static void render(SequenceTimeline timeline, OutputStream out, boolean renderPartsInParallel)
+			throws MidiUnavailableException, InvalidMidiDataException, IOException
+	{
+		BitSet programs = getUsedPrograms(timeline);
+		BitSet channels = getUsedChannels(timeline);
+		// Songs with more parts than a MIDI port has channels need a synthesizer with more channels
+		Map<String, Object> info = SynthesizerFactory.getPortsInfo(getPortCount(channels));
+		double total = (timeline.getEndMicros() + measureTailMicros(timeline, info, programs)) / 1000000.0;
+
+		if (renderPartsInParallel && channels.cardinality() > 1)
 		{
-			// Find available AudioSynthesizer.
-			AudioSynthesizer synth = SynthesizerFactory.findAudioSynthesizer();
-			if (synth == null)
-			{
-				throw new MidiUnavailableException("Failed to find appropriate synthesizer");
-			}
+			renderParts(timeline, channels, programs, total, out);
+			return;
+		}
+
+		// Find available AudioSynthesizer.
+		AudioSynthesizer synth = SynthesizerFactory.findAudioSynthesizer();
+		if (synth == null)
+		{
+			throw new MidiUnavailableException("Failed to find appropriate synthesizer");
+		}
 
-			// Open AudioStream from AudioSynthesizer.
-			boolean opened = synth.isOpen();
-			if (opened)
-				synth.close();
+		// Open AudioStream from AudioSynthesizer.
+		boolean opened = synth.isOpen();
+		if (opened)
+			synth.close();
 
-			AudioInputStream stream = synth.openStream(null, null);
-			SynthesizerFactory.initLotroSynthesizer(synth);
+		try
+		{
+			AudioInputStream stream = SynthesizerFactory.openLotroStream(synth, null, info, programs);
 
 			// Play Sequence into AudioSynthesizer Receiver.
-			double total = send(sequence, synth.getReceiver());
+			timeline.send(synth.getReceiver(), -1);
 
 			// Calculate how long the WAVE file needs to be.
-			long len = (long) (stream.getFormat().getFrameRate() * (total + 4));
+			long len = (long) (stream.getFormat().getFrameRate() * total);
 			stream = new AudioInputStream(stream, stream.getFormat(), len);
 
 			// Write WAVE file to disk.
 			AudioSystem.write(stream, AudioFileFormat.Type.WAVE, out);
-
+		}
+		finally
+		{
 			// We are finished, close synthesizer.
 			synth.close();
+		}
 
-			if (opened)
-				synth.open();
+		if (opened)
+			synth.open();
+	}
+
+	/**
+	 * Renders each MIDI channel on its own synthesizer, concurrently, and mixes them together into
+	 * the wave audio file. The pan settings are part of each channel's events, so the parts only
+	 * need to be added together.
+	 */
+	private static void renderParts(SequenceTimeline timeline, BitSet channels, BitSet programs, double total,
+			OutputStream out) throws MidiUnavailableException, InvalidMidiDataException, IOException
+	{
+		List<PartRenderer> parts = new ArrayList<PartRenderer>(channels.cardinality());
+		try
+		{
+			for (int channel = channels.nextSetBit(0); channel >= 0; channel = channels.nextSetBit(channel + 1))
+			{
+				AudioSynthesizer synth = SynthesizerFactory.findAudioSynthesizer();
+				if (synth == null)
+				{
+					throw new MidiUnavailableException("Failed to find appropriate synthesizer");
+				}
+
+				PartRenderer part = new PartRenderer(synth, channel, programs);
+				parts.add(part);
+				timeline.send(synth.getReceiver(), channel);
+			}
+
+			AudioFormat format = new AudioFormat(parts.get(0).format.getSampleRate(), 16, 2, true, false);
+			long len = (long) (format.getFrameRate() * total);
+			AudioInputStream stream = new AudioInputStream(new MixdownInputStream(parts), format, len);
+
+			AudioSystem.write(stream, AudioFileFormat.Type.WAVE, out);
 		}
-		catch (Exception e)
+		finally
 		{
-			e.printStackTrace();
+			for (PartRenderer part : parts)
+				part.synth.close();
 		}
 	}
 
 	/**
-	 * Send entiry MIDI Sequence into Receiver using timestamps.
+	 * Measures how long it takes for the notes that are still sounding at the end of the timeline,
+	 * and their reverb, to fade out. This renders just the last few seconds of the timeline on a
+	 * separate synthesizer, and listens for when it goes silent.
 	 */
-	public static double send(Sequence seq, Receiver recv)
+	private static long measureTailMicros(SequenceTimeline timeline, Map<String, Object> info, BitSet programs)
+			throws MidiUnavailableException, InvalidMidiDataException, IOException
 	{
-		float divtype = seq.getDivisionType();
-		assert (seq.getDivisionType() == Sequence.PPQ);
-		Track[] tracks = seq.getTracks();
-		int[] trackspos = new int[tracks.length];
-		int mpq = 500000;
-		int seqres = seq.getResolution();
-		long lasttick = 0;
-		long curtime = 0;
-		while (true)
-		{
-			MidiEvent selevent = null;
-			int seltrack = -1;
-			for (int i = 0; i < tracks.length; i++)
+		AudioSynthesizer synth = SynthesizerFactory.findAudioSynthesizer();
+		if (synth == null)
+		{
+			throw new MidiUnavailableException("Failed to find appropriate synthesizer");
+		}
+
+		try
+		{
+			float sampleRate = synth.getFormat().getSampleRate();
+			AudioFormat format = new AudioFormat(sampleRate, 16, 2, true, false);
+			AudioInputStream stream = SynthesizerFactory.openLotroStream(synth, format, info, programs);
+
+			long fromMicros = Math.max(0, timeline.getEndMicros() - TAIL_LOOKBACK_MICROS);
+			timeline.send(synth.getReceiver(), -1, fromMicros);
+
+			long endFrame = microsToFrames(timeline.getEndMicros() - fromMicros, sampleRate);
+			long maxFrame = endFrame + microsToFrames(MAX_TAIL_MICROS, sampleRate);
+			long silentFrames = microsToFrames(SILENCE_MICROS, sampleRate);
+
+			byte[] buffer = new byte[4096 * format.getFrameSize()];
+			long frame = 0;
+			long lastSoundFrame = endFrame;
+			while (frame < maxFrame && frame - lastSoundFrame < silentFrames)
 			{
-				int trackpos = trackspos[i];
-				Track track = tracks[i];
-				if (trackpos < track.size())
+				int length = (int) Math.min(buffer.length, (maxFrame - frame) * format.getFrameSize());
+				int count = 0;
+				while (count < length)
+				{
+					int read = stream.read(buffer, count, length - count);
+					if (read < 0)
+						return MAX_TAIL_MICROS;
+					count += read;
+				}
+
+				for (int i = 0; i < count; i += 2)
 				{
-					MidiEvent event = track.get(trackpos);
-					if (selevent == null || event.getTick() < selevent.getTick())
-					{
-						selevent = event;
-						seltrack = i;
-					}
+					int sample = (short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8));
+					if (sample > SILENCE_LEVEL || sample < -SILENCE_LEVEL)
+						lastSoundFrame = Math.max(lastSoundFrame, frame + i / format.getFrameSize() + 1);
 				}
+				frame += count / format.getFrameSize();
 			}
-			if (seltrack == -1)
+
+			return (long) ((lastSoundFrame - endFrame) * 1000000.0 / sampleRate);
+		}
+		finally
+		{
+			synth.close();
+		}
+	}
+
+	private static long microsToFrames(long micros, float sampleRate)
+	{
+		return (long) (micros * (double) sampleRate / 1000000.0);
+	}
+
+	private static BitSet getUsedChannels(SequenceTimeline timeline)
+	{
+		BitSet channels = new BitSet(16);
+		for (int i = 0; i < timeline.size(); i++)
+		{
+			if (timeline.getChannel(i) >= 0)
+				channels.set(timeline.getChannel(i));
+		}
+		return channels;
+	}
+
+	/** The number of MIDI ports that the channels are on */
+	private static int getPortCount(BitSet channels)
+	{
+		return Math.max(1, (channels.length() + IMidiConstants.CHANNEL_COUNT - 1) / IMidiConstants.CHANNEL_COUNT);
+	}
+
+	/**
+	 * Finds the programs that play notes in the timeline, so that only those instruments need to be
+	 * loaded. Returns null if the timeline selects other banks or plays percussion, in which case
+	 * all of the instruments are loaded.
+	 */
+	private static BitSet getUsedPrograms(SequenceTimeline timeline)
+	{
+		BitSet programs = new BitSet(128);
+		int[] channelPrograms = new int[IMidiConstants.MAX_CHANNEL_COUNT];
+		for (int i = 0; i < timeline.size(); i++)
+		{
+			int channel = timeline.getChannel(i);
+			if (channel < 0)
+				continue;
+
+			ShortMessage m = (ShortMessage) timeline.getMessage(i);
+			switch (m.getCommand())
+			{
+			case ShortMessage.PROGRAM_CHANGE:
+				channelPrograms[channel] = m.getData1();
+				break;
+
+			case ShortMessage.NOTE_ON:
+				if (channel % IMidiConstants.CHANNEL_COUNT == IMidiConstants.DRUM_CHANNEL)
+					return null;
+				programs.set(channelPrograms[channel]);
+				break;
+
+			case ShortMessage.CONTROL_CHANGE:
+				// Bank select
+				if (m.getData1() == 0 || m.getData1() == 32)
+					return null;
 				break;
-			trackspos[seltrack]++;
-			long tick = selevent.getTick();
-			if (divtype == Sequence.PPQ)
-				curtime += ((tick - lasttick) * mpq) / seqres;
-			else
-				curtime = (long) ((tick * 1000000.0 * divtype) / seqres);
-			lasttick = tick;
-			MidiMessage msg = selevent.getMessage();
-			if (msg instanceof MetaMessage)
+			}
+		}
+		return programs;
+	}
+
+	private static class RenderPoolHolder
+	{
+		public static final ExecutorService POOL = Executors.newFixedThreadPool(Runtime.getRuntime()
+				.availableProcessors(), new ThreadFactory()
+		{
+			@Override public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "MidiToWav-render");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Renders one channel of the sequence, {@link #MIXDOWN_BLOCKS} gain control blocks at a time. The
+	 * synthesizer renders stereo 32-bit float samples with its auto gain control turned off, so that
+	 * the parts can be added together without clipping first.
+	 */
+	private static class PartRenderer implements Callable<Void>
+	{
+		public final AudioSynthesizer synth;
+		public final AudioFormat format;
+		private final AudioInputStream stream;
+		private final byte[] bytes;
+		public final float[] samples;
+
+		public PartRenderer(AudioSynthesizer synth, int channel, BitSet programs) throws MidiUnavailableException,
+				InvalidMidiDataException, IOException
+		{
+			this.synth = synth;
+
+			float sampleRate = synth.getFormat().getSampleRate();
+			format = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, sampleRate, 32, 2, 8, sampleRate, false);
+
+			Map<String, Object> info = SynthesizerFactory.getPortsInfo(channel / IMidiConstants.CHANNEL_COUNT + 1);
+			info.put("auto gain control", false);
+
+			stream = SynthesizerFactory.openLotroStream(synth, format, info, programs);
+
+			int frames = (int) (sampleRate / CONTROL_RATE) * MIXDOWN_BLOCKS;
+			bytes = new byte[frames * format.getFrameSize()];
+			samples = new float[frames * format.getChannels()];
+		}
+
+		/** Renders the next block of samples */
+		@Override public Void call() throws IOException
+		{
+			int count = 0;
+			while (count < bytes.length)
+			{
+				int read = stream.read(bytes, count, bytes.length - count);
+				if (read < 0)
+					break;
+				count += read;
+			}
+			ByteBuffer.wrap(bytes, 0, count).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(samples, 0, count / 4);
+			if (count < bytes.length)
+				Arrays.fill(samples, count / 4, samples.length, 0);
+			return null;
+		}
+	}
+
+	/**
+	 * Adds the parts together as 16-bit stereo PCM data, rendering the next block of every part
+	 * concurrently whenever the previous block has been read.
+	 */
+	private static class MixdownInputStream extends InputStream
+	{
+		private final List<PartRenderer> parts;
+		private final float[] mix;
+		private final byte[] mixBytes;
+		private int position;
+
+		// Auto gain control state. Each block is delayed until the next block has been mixed, so
+		// that the gain can start coming down before a peak arrives.
+		private final float[] delayed;
+		private float lastPeak = 0;
+		private float gain = 1;
+
+		public MixdownInputStream(List<PartRenderer> parts)
+		{
+			this.parts = parts;
+			PartRenderer first = parts.get(0);
+			mix = new float[first.samples.length];
+			mixBytes = new byte[mix.length * 2];
+			position = mixBytes.length;
+			delayed = new float[(int) (first.format.getSampleRate() / CONTROL_RATE) * 2];
+		}
+
+		@Override public int read() throws IOException
+		{
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+		}
+
+		@Override public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (position == mixBytes.length)
+				mixNextBlock();
+
+			len = Math.min(len, mixBytes.length - position);
+			System.arraycopy(mixBytes, position, b, off, len);
+			position += len;
+			return len;
+		}
+
+		private void mixNextBlock() throws IOException
+		{
+			List<Future<Void>> futures = new ArrayList<Future<Void>>(parts.size());
+			try
+			{
+				for (PartRenderer part : parts)
+					futures.add(RenderPoolHolder.POOL.submit(part));
+
+				for (Future<Void> future : futures)
+					future.get();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Rendering was interrupted");
+			}
+			catch (ExecutionException e)
+			{
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new IOException(cause);
+			}
+			finally
+			{
+				for (Future<Void> future : futures)
+					future.cancel(true);
+			}
+
+			Arrays.fill(mix, 0);
+			for (PartRenderer part : parts)
+			{
+				float[] samples = part.samples;
+				for (int i = 0; i < mix.length; i++)
+					mix[i] += samples[i];
+			}
+
+			limit();
+
+			for (int i = 0, j = 0; i < mix.length; i++, j += 2)
 			{
-				if (divtype == Sequence.PPQ)
-					if (((MetaMessage) msg).getType() == 0x51)
-					{
-						byte[] data = ((MetaMessage) msg).getData();
-						mpq = ((data[0] & 0xff) << 16) | ((data[1] & 0xff) << 8) | (data[2] & 0xff);
-					}
+				int sample = Math.round(Math.max(-1f, Math.min(1f, mix[i])) * 32767f);
+				mixBytes[j] = (byte) sample;
+				mixBytes[j + 1] = (byte) (sample >> 8);
 			}
-			else
+			position = 0;
+		}
+
+		/**
+		 * Turns down parts of the mix that would clip. This is the same auto gain control that the
+		 * synthesizer applies to its output when all of the channels are rendered together.
+		 */
+		private void limit()
+		{
+			for (int start = 0; start < mix.length; start += delayed.length)
 			{
-				if (recv != null)
-					recv.send(msg, curtime);
+				float peak = 0;
+				for (int i = 0; i < delayed.length; i++)
+					peak = Math.max(peak, Math.abs(mix[start + i]));
+
+				float maxPeak = Math.max(peak, lastPeak);
+				lastPeak = peak;
+
+				float newGain = (maxPeak > 0.99f) ? (0.99f / maxPeak) : 1f;
+				if (newGain > gain)
+					newGain = (newGain + gain * 9) / 10f;
+
+				float gainDelta = (newGain - gain) / (delayed.length / 2);
+				for (int i = 0; i < delayed.length; i += 2)
+				{
+					gain += gainDelta;
+					float left = delayed[i];
+					float right = delayed[i + 1];
+					delayed[i] = mix[start + i];
+					delayed[i + 1] = mix[start + i + 1];
+					mix[start + i] = left * gain;
+					mix[start + i + 1] = right * gain;
+				}
+				gain = newGain;
 			}
 		}
-		return curtime / 1000000.0;
+	}
+
+	/**
+	 * Send entiry MIDI Sequence into Receiver using timestamps.
+	 */
+	public static double send(Sequence seq, Receiver recv)
+	{
+		SequenceTimeline timeline = new SequenceTimeline(seq);
+		if (recv != null)
+			timeline.send(recv, -1);
+		return timeline.getEndMicros() / 1000000.0;
 	}
 
 }
@@ -0,0 +1,82 @@
+package com.digero.abcplayer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a process's output, so the process doesn't block when the pipe fills up. The output is
+ * discarded, except for the last few KB when capturing is turned on.
+ */
+class StreamDrainer extends Thread
+{
+	private static final int MAX_CAPTURED_BYTES = 4096;
+
+	private InputStream stream;
+	private ByteArrayOutputStream captured;
+
+	public StreamDrainer(InputStream stream)
+	{
+		this(stream, false);
+	}
+
+	public StreamDrainer(InputStream stream, boolean capture)
+	{
+		this.stream = stream;
+		this.captured = capture ? new ByteArrayOutputStream() : null;
+		setDaemon(true);
+	}
+
+	@Override public void run()
+	{
+		try
+		{
+			byte[] buffer = new byte[1024];
+			int count;
+			while ((count = stream.read(buffer)) >= 0)
+			{
+				if (captured != null)
+				{
+					synchronized (captured)
+					{
+						if (captured.size() + count > MAX_CAPTURED_BYTES)
+						{
+							// Keep the end of the output, which is where the errors usually are
+							byte[] old = captured.toByteArray();
+							int keep = MAX_CAPTURED_BYTES - count;
+							captured.reset();
+							captured.write(old, old.length - keep, keep);
+						}
+						captured.write(buffer, 0, count);
+					}
+				}
+			}
+		}
+		catch (IOException e)
+		{
+		}
+	}
+
+	/**
+	 * Gets the end of the output that was captured, waiting briefly for the rest of it to be read if
+	 * the process has exited. Returns an empty string if capturing isn't turned on.
+	 */
+	public String getCapturedOutput()
+	{
+		if (captured == null)
+			return "";
+
+		try
+		{
+			join(1000);
+		}
+		catch (InterruptedException e)
+		{
+		}
+
+		synchronized (captured)
+		{
+			return captured.toString().trim();
+		}
+	}
+}
@@ -114,6 +114,24 @@ public class AbcInfo implements AbcConstants, IBarNumberCache
 		return bars.size();
 	}
 
+	/**
+	 * Gets the tick that a bar starts at. Bars are numbered from 1 the way they're shown in the
+	 * player, which is one more than {@link #tickToBarNumber}. Returns Long.MAX_VALUE for bars past
+	 * the end of the song.
+	 */
+	public long getBarStartTick(int barNumber)
+	{
+		if (barNumber <= 1)
+			return 0;
+
+		for (Entry<Long, Integer> e : bars.entrySet())
+		{
+			if (e.getValue() == barNumber - 1)
+				return e.getKey();
+		}
+		return Long.MAX_VALUE;
+	}
+
 	public int getPrimaryTempoBPM()
 	{
 		return primaryTempoBPM;
@@ -281,6 +299,18 @@ public class AbcInfo implements AbcConstants, IBarNumberCache
 		}
 	}
 
+	/**
+	 * Adds the bars and triplets found while parsing the notes of a part separately. The parts must
+	 * be added in order.
+	 */
+	void addNoteInfo(AbcInfo part)
+	{
+		for (long barTick : part.bars.keySet())
+			addBar(barTick);
+		if (part.hasTriplets)
+			hasTriplets = true;
+	}
+
 	void setPrimaryTempoBPM(int tempoBPM)
 	{
 		this.primaryTempoBPM = tempoBPM;
@@ -6,12 +6,17 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiEvent;
@@ -24,6 +29,7 @@ import com.digero.common.abc.AbcField;
 import com.digero.common.abc.LotroInstrument;
 import com.digero.common.midi.MidiConstants;
 import com.digero.common.midi.MidiFactory;
+import com.digero.common.midi.MidiPorts;
 import com.digero.common.midi.Note;
 import com.digero.common.midi.PanGenerator;
 import com.digero.common.util.LotroParseException;
@@ -59,25 +65,6 @@ public class AbcToMidi
 		}
 	}
 
-	private static final Pattern INFO_PATTERN = Pattern.compile("^([A-Z]):\\s*(.*)\\s*$");
-	private static final int INFO_TYPE = 1;
-	private static final int INFO_VALUE = 2;
-
-	private static final Pattern XINFO_PATTERN = Pattern.compile("^\\s*%%([A-Za-z\\-]+)((:?)|\\s)\\s*(.*)\\s*$");
-	private static final int XINFO_FIELD = 1;
-	private static final int XINFO_COLON = 3;
-	private static final int XINFO_VALUE = 4;
-
-	private static final Pattern NOTE_PATTERN = Pattern.compile("(_{1,2}|=|\\^{1,2})?" + "([xzA-Ga-g])"
-			+ "(,{1,5}|'{1,5})?" + "(\\d+)?" + "(//?\\d*)?" + "(>{1,3}|<{1,3})?" + "(-)?");
-	private static final int NOTE_ACCIDENTAL = 1;
-	private static final int NOTE_LETTER = 2;
-	private static final int NOTE_OCTAVE = 3;
-	private static final int NOTE_LEN_NUMER = 4;
-	private static final int NOTE_LEN_DENOM = 5;
-	private static final int NOTE_BROKEN_RHYTHM = 6;
-	private static final int NOTE_TIE = 7;
-
 	/**
 	 * Maps a note name (a, b, c, etc.) to the number of semitones it is above the beginning of the
 	 * octave (c)
@@ -132,172 +119,435 @@ public class AbcToMidi
 		else
 			abcInfo.reset();
 
+		// Read through the song once without parsing the notes. This fills in the song info, and 
+		// finds where each part starts and the state (key, meter, etc.) that it starts with.
+		PartConverter headers = new PartConverter(filesData, useLotroInstruments, instrumentOverrideMap,
+				enableLotroErrors, abcInfo);
+		List<PartConverter> parts = headers.splitParts();
+
+		// Then parse the notes of each part independently, into the tracks created by the headers pass
+		convertParts(parts);
+
+		Sequence seq = headers.seq;
+		int trackNumber = parts.get(parts.size() - 1).trackNumber;
+
+		// Merge the tempo changes, bars, etc. from each part in order
 		TuneInfo info = new TuneInfo();
-		Sequence seq = null;
-		Track track = null;
+		for (PartConverter part : parts)
+		{
+			info.addAllPartsTempoEvents(part.info);
+			abcInfo.addNoteInfo(part.abcInfo);
+		}
+
+		PanGenerator pan = null;
+		if (stereo && trackNumber > 1)
+			pan = new PanGenerator();
+
+		Track[] tracks = seq.getTracks();
+
+		// Add tempo events
+		for (Map.Entry<Long, Integer> tempoEvent : info.getAllPartsTempoMap().entrySet())
+		{
+			long tick = tempoEvent.getKey();
+			int mpq = (int) MidiUtils.convertTempo(tempoEvent.getValue());
+			tracks[0].add(MidiFactory.createTempoEvent(mpq, tick));
+		}
+
+		// Add name and pan events
+		tracks[0].add(MidiFactory.createTrackNameEvent(abcInfo.getTitle()));
+		for (int i = 1; i <= trackNumber; i++)
+		{
+			tracks[i].add(MidiFactory.createTrackNameEvent(abcInfo.getPartName(i)));
+
+			int panAmount = PanGenerator.CENTER;
+			if (pan != null)
+				panAmount = pan.get(abcInfo.getPartInstrument(i), abcInfo.getPartName(i));
+			tracks[i].add(MidiFactory.createPanEvent(panAmount, MidiPorts.getTrackChannel(i)));
+		}
+
+		// Add time and key signature events
+		tracks[0].add(MidiFactory.createTimeSignatureEvent(abcInfo.getTimeSignature(), 0));
+		if (MidiFactory.isSupportedMidiKeyMode(abcInfo.getKeySignature().mode))
+			tracks[0].add(MidiFactory.createKeySignatureEvent(abcInfo.getKeySignature(), 0));
+
+		return seq;
+	}
+
+	private static class ConvertPoolHolder
+	{
+		public static final ExecutorService POOL = Executors.newFixedThreadPool(Runtime.getRuntime()
+				.availableProcessors(), new ThreadFactory()
+		{
+			@Override public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "AbcToMidi-convert");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Parses the notes of all of the parts, concurrently if there's more than one. If any parts
+	 * fail, the error from the first one is thrown, which is the same error that parsing the song
+	 * from start to end would have stopped on.
+	 */
+	private static void convertParts(List<PartConverter> parts) throws ParseException
+	{
+		if (parts.size() <= 1 || Runtime.getRuntime().availableProcessors() <= 1)
+		{
+			for (PartConverter part : parts)
+				part.call();
+
+			return;
+		}
+
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(parts.size());
+		try
+		{
+			for (PartConverter part : parts)
+				futures.add(ConvertPoolHolder.POOL.submit(part));
+
+			for (Future<Void> future : futures)
+				future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new ParseException("ABC conversion was interrupted", parts.get(0).fileName);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof ParseException)
+				throw (ParseException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+		finally
+		{
+			// Stop any parts that are still running if one failed
+			for (Future<Void> future : futures)
+				future.cancel(true);
+		}
+	}
 
-		int channel = 0;
-		int trackNumber = 0;
-		int noteDivisorChangeLine = 0;
+	/**
+	 * Converts a range of lines in the song, which is normally a single part (starting at an "X:"
+	 * line and ending just before the next one). The state that's carried over from the previous
+	 * parts (key, meter, tempo, track number, etc.) is copied from the headers pass, so parts can be
+	 * converted independently of each other.
+	 * <p>
+	 * The headers pass runs over the whole song without parsing notes. It fills in the song's
+	 * AbcInfo, creates the sequence and a track for each part, and records where each part starts.
+	 * Each part then adds its notes to its own track. The parts only fill in their own AbcInfo and
+	 * tempo changes, which are merged into the song's afterwards.
+	 */
+	private static class PartConverter implements Callable<Void>
+	{
+		private final List<FileAndData> filesData;
+		private final boolean useLotroInstruments;
+		private final Map<Integer, LotroInstrument> instrumentOverrideMap;
+		private final boolean enableLotroErrors;
+		private final AbcInfo abcInfo;
+		private final PartConverter headers; // Null for the headers pass
+		private final boolean headersOnly;
+
+		// The lines to convert, from (startFile, startLine) up to but not including (endFile, endLine)
+		private final int startFile;
+		private final int startLine;
+		private int endFile;
+		private int endLine;
+
+		// State carried over from previous parts
+		private final TuneInfo info;
+		private int trackNumber = 0;
+		private Sequence seq = null;
+		private int trackCount = 0; // Including track 0
+		private long PPQN = 0;
+		private int noteDivisorChangeLine = 0;
+
+		private String fileName = null;
+		private Track track = null;
+		private List<PartConverter> parts = null;
+
+		/** Creates the converter for the headers pass */
+		public PartConverter(List<FileAndData> filesData, boolean useLotroInstruments,
+				Map<Integer, LotroInstrument> instrumentOverrideMap, boolean enableLotroErrors, AbcInfo abcInfo)
+		{
+			this.filesData = filesData;
+			this.useLotroInstruments = useLotroInstruments;
+			this.instrumentOverrideMap = instrumentOverrideMap;
+			this.enableLotroErrors = enableLotroErrors;
+			this.abcInfo = abcInfo;
+			this.headers = null;
+			this.headersOnly = true;
+			this.startFile = 0;
+			this.startLine = 0;
+			this.endFile = filesData.size();
+			this.endLine = 0;
+			this.info = new TuneInfo();
+		}
 
-		long chordStartTick = 0;
-		long chordEndTick = 0;
-		long PPQN = 0;
-		Map<Integer, Integer> tiedNotes = new HashMap<Integer, Integer>(); // noteId => (line << 16) | column
-		Map<Integer, Integer> accidentals = new HashMap<Integer, Integer>(); // noteId => deltaNoteId
+		/** Creates a converter for the part starting at the given line, with the headers pass's state */
+		private PartConverter(PartConverter headers, int startFile, int startLine)
+		{
+			this.filesData = headers.filesData;
+			this.useLotroInstruments = headers.useLotroInstruments;
+			this.instrumentOverrideMap = headers.instrumentOverrideMap;
+			this.enableLotroErrors = headers.enableLotroErrors;
+			this.abcInfo = new AbcInfo();
+			this.headers = headers;
+			this.headersOnly = false;
+			this.startFile = startFile;
+			this.startLine = startLine;
+			this.info = new TuneInfo(headers.info);
+			this.trackNumber = headers.trackNumber;
+			this.seq = headers.seq;
+			this.trackCount = headers.trackCount;
+			this.PPQN = headers.PPQN;
+			this.noteDivisorChangeLine = headers.noteDivisorChangeLine;
+			this.fileName = headers.fileName;
+		}
 
-		List<MidiEvent> noteOffEvents = new ArrayList<MidiEvent>();
-		for (FileAndData fileAndData : filesData)
+		/**
+		 * Runs the headers pass, and returns the converters for each part in order. The parts cover
+		 * all of the lines in the song.
+		 */
+		public List<PartConverter> splitParts()
 		{
-			String fileName = fileAndData.file.getName();
-			int lineNumber = 0;
-			int partStartLine = 0;
-			for (String line : fileAndData.lines)
+			parts = new ArrayList<PartConverter>();
+			parts.add(new PartConverter(this, 0, 0));
+			try
+			{
+				convert();
+			}
+			catch (ParseException | RuntimeException e)
+			{
+				// The state after an error isn't reliable, so the rest of the song is left in the last
+				// part. It will report the error when it's converted.
+			}
+
+			for (int i = 0; i < parts.size() - 1; i++)
 			{
-				lineNumber++;
+				parts.get(i).endFile = parts.get(i + 1).startFile;
+				parts.get(i).endLine = parts.get(i + 1).startLine;
+			}
+			parts.get(parts.size() - 1).endFile = filesData.size();
+			parts.get(parts.size() - 1).endLine = 0;
+
+			List<PartConverter> result = parts;
+			parts = null;
+			return result;
+		}
+
+		private void startPart(int fileIndex, int lineIndex)
+		{
+			// Replace the previous part if it's empty (for example if the song begins with "X:")
+			PartConverter prev = parts.get(parts.size() - 1);
+			if (prev.startFile == fileIndex && prev.startLine == lineIndex)
+				parts.remove(parts.size() - 1);
+
+			parts.add(new PartConverter(this, fileIndex, lineIndex));
+		}
 
-				// Handle extended info
-				Matcher xInfoMatcher = XINFO_PATTERN.matcher(line);
-				if (xInfoMatcher.matches())
+		@Override public Void call() throws ParseException
+		{
+			convert();
+			return null;
+		}
+
+		private void convert() throws ParseException
+		{
+			int channel = 0;
+
+			long chordStartTick = 0;
+			long chordEndTick = 0;
+			Map<Integer, Integer> tiedNotes = new HashMap<Integer, Integer>(); // noteId => (line << 16) | column
+			Map<Integer, Integer> accidentals = new HashMap<Integer, Integer>(); // noteId => deltaNoteId
+
+			NoteEventBuffer noteEvents = new NoteEventBuffer();
+			AbcTokenizer tokenizer = new AbcTokenizer();
+			for (int fileIndex = startFile; fileIndex <= endFile && fileIndex < filesData.size(); fileIndex++)
+			{
+				FileAndData fileAndData = filesData.get(fileIndex);
+				int firstLine = (fileIndex == startFile) ? startLine : 0;
+				int lastLine = (fileIndex == endFile) ? endLine : fileAndData.lines.size();
+
+				fileName = fileAndData.file.getName();
+				int lineNumber = firstLine;
+				int partStartLine = 0;
+				for (String line : fileAndData.lines.subList(firstLine, lastLine))
 				{
-					AbcField field = AbcField.fromString(xInfoMatcher.group(XINFO_FIELD)
-							+ xInfoMatcher.group(XINFO_COLON));
+					lineNumber++;
 
-					if (field == AbcField.TEMPO)
+					// Handle extended info
+					int xInfoFieldEnd = matchExtendedInfo(line);
+					if (xInfoFieldEnd >= 0)
 					{
-						try
+						AbcField field = AbcField.fromString(line.substring(line.indexOf("%%") + 2, xInfoFieldEnd));
+
+						if (field == AbcField.TEMPO)
 						{
-							info.addTempoEvent(chordStartTick, xInfoMatcher.group(XINFO_VALUE).trim());
+							// Tempo changes are placed at the current note, so they're left for the notes pass
+							if (!headersOnly)
+							{
+								try
+								{
+									info.addTempoEvent(chordStartTick, line.substring(xInfoFieldEnd).trim());
+								}
+								catch (IllegalArgumentException e)
+								{
+									// Apparently that wasn't actually a tempo change
+								}
+							}
 						}
-						catch (IllegalArgumentException e)
+						else if (field != null)
 						{
-							// Apparently that wasn't actually a tempo change
-						}
-					}
-					else if (field != null)
-					{
-						String value = xInfoMatcher.group(XINFO_VALUE).trim();
+							String value = line.substring(xInfoFieldEnd).trim();
 
-						abcInfo.setExtendedMetadata(field, value);
+							abcInfo.setExtendedMetadata(field, value);
 
-						if (field == AbcField.PART_NAME)
-						{
-							info.setTitle(value, true);
-							abcInfo.setPartName(trackNumber, value, true);
+							if (field == AbcField.PART_NAME)
+							{
+								info.setTitle(value, true);
+								abcInfo.setPartName(trackNumber, value, true);
+							}
 						}
+
+						continue;
 					}
 
-					continue;
-				}
+					// Ignore everything after the comment character
+					int lineEnd = line.indexOf('%');
+					if (lineEnd < 0)
+						lineEnd = line.length();
+					if (skipWhitespace(line, 0, lineEnd) == lineEnd)
+						continue;
 
-				int comment = line.indexOf('%');
-				if (comment >= 0)
-					line = line.substring(0, comment);
-				if (line.trim().length() == 0)
-					continue;
+					int chordSize = 0;
 
-				int chordSize = 0;
+					if (lineEnd >= 2 && line.charAt(0) >= 'A' && line.charAt(0) <= 'Z' && line.charAt(1) == ':')
+					{
+						char type = line.charAt(0);
+						int valueStart = skipWhitespace(line, 2, lineEnd);
+						String value = line.substring(valueStart, lineEnd).trim();
 
-				Matcher infoMatcher = INFO_PATTERN.matcher(line);
-				if (infoMatcher.matches())
-				{
-					char type = Character.toUpperCase(infoMatcher.group(INFO_TYPE).charAt(0));
-					String value = infoMatcher.group(INFO_VALUE).trim();
+						if (type == 'X' && headersOnly)
+							startPart(fileIndex, lineNumber - 1);
 
-					abcInfo.setMetadata(type, value);
+						abcInfo.setMetadata(type, value);
 
-					try
-					{
-						switch (type)
+						try
 						{
-						case 'X':
-							for (int lineAndColumn : tiedNotes.values())
+							switch (type)
 							{
-								throw new ParseException("Tied note does not connect to another note", fileName,
-										lineAndColumn >>> 16, lineAndColumn & 0xFFFF);
-							}
-
-							accidentals.clear();
-							noteOffEvents.clear();
+							case 'X':
+								for (int lineAndColumn : tiedNotes.values())
+								{
+									throw new ParseException("Tied note does not connect to another note", fileName,
+											lineAndColumn >>> 16, lineAndColumn & 0xFFFF);
+								}
 
-							info.newPart(Integer.parseInt(value));
-							trackNumber++;
-							partStartLine = lineNumber;
-							chordStartTick = 0;
-							abcInfo.setPartNumber(trackNumber, info.getPartNumber());
-							track = null; // Will create a new track after the header is done
-							if (instrumentOverrideMap != null && instrumentOverrideMap.containsKey(trackNumber))
-							{
-								info.setInstrument(instrumentOverrideMap.get(trackNumber));
-							}
-							break;
-						case 'T':
-							if (track != null)
-								throw new ParseException("Can't specify the title in the middle of a part", fileName,
-										lineNumber, 0);
-
-							info.setTitle(value, false);
-							abcInfo.setPartName(trackNumber, value, false);
-							if (instrumentOverrideMap == null || !instrumentOverrideMap.containsKey(trackNumber))
+								accidentals.clear();
+								if (track != null)
+									noteEvents.addTo(track);
+
+								info.newPart(Integer.parseInt(value));
+								trackNumber++;
+								partStartLine = lineNumber;
+								chordStartTick = 0;
+								chordEndTick = 0;
+								abcInfo.setPartNumber(trackNumber, info.getPartNumber());
+								track = null; // Will create a new track after the header is done
+								if (instrumentOverrideMap != null && instrumentOverrideMap.containsKey(trackNumber))
+								{
+									info.setInstrument(instrumentOverrideMap.get(trackNumber));
+								}
+								break;
+							case 'T':
+								if (track != null)
+									throw new ParseException("Can't specify the title in the middle of a part",
+											fileName, lineNumber, 0);
+
+								info.setTitle(value, false);
+								abcInfo.setPartName(trackNumber, value, false);
+								if (instrumentOverrideMap == null || !instrumentOverrideMap.containsKey(trackNumber))
+								{
+									info.setInstrument(TuneInfo.findInstrumentName(value, info.getInstrument()));
+								}
+								break;
+							case 'K':
+								info.setKey(value);
+								break;
+							case 'L':
+								info.setNoteDivisor(value);
+								noteDivisorChangeLine = lineNumber;
+								break;
+							case 'M':
+								info.setMeter(value);
+								noteDivisorChangeLine = lineNumber;
+								break;
+							case 'Q':
 							{
-								info.setInstrument(TuneInfo.findInstrumentName(value, info.getInstrument()));
+								int tempo = info.getPrimaryTempoBPM();
+								info.setPrimaryTempoBPM(value);
+								if (seq != null && (info.getPrimaryTempoBPM() != tempo))
+								{
+									throw new ParseException("The tempo must be the same for all parts of the song",
+											fileName, lineNumber);
+								}
+								break;
 							}
-							break;
-						case 'K':
-							info.setKey(value);
-							break;
-						case 'L':
-							info.setNoteDivisor(value);
-							noteDivisorChangeLine = lineNumber;
-							break;
-						case 'M':
-							info.setMeter(value);
-							noteDivisorChangeLine = lineNumber;
-							break;
-						case 'Q':
-						{
-							int tempo = info.getPrimaryTempoBPM();
-							info.setPrimaryTempoBPM(value);
-							if (seq != null && (info.getPrimaryTempoBPM() != tempo))
-							{
-								throw new ParseException("The tempo must be the same for all parts of the song",
-										fileName, lineNumber);
 							}
-							break;
 						}
+						catch (IllegalArgumentException e)
+						{
+							throw new ParseException(e.getMessage(), fileName, lineNumber, valueStart);
 						}
 					}
-					catch (IllegalArgumentException e)
+					else
 					{
-						throw new ParseException(e.getMessage(), fileName, lineNumber, infoMatcher.start(INFO_VALUE));
-					}
-				}
-				else
-				{
-					// The line contains notes
+						// The line contains notes
 
-					if (trackNumber == 0)
-					{
-						// This ABC file doesn't have an "X:" line before notes. Tsk tsk.
-						trackNumber = 1;
-						if (instrumentOverrideMap != null && instrumentOverrideMap.containsKey(trackNumber))
+						if (trackNumber == 0)
 						{
-							info.setInstrument(instrumentOverrideMap.get(trackNumber));
+							// This ABC file doesn't have an "X:" line before notes. Tsk tsk.
+							trackNumber = 1;
+							if (instrumentOverrideMap != null && instrumentOverrideMap.containsKey(trackNumber))
+							{
+								info.setInstrument(instrumentOverrideMap.get(trackNumber));
+							}
 						}
-					}
 
-					if (seq == null)
-					{
-						try
+						if (seq == null)
 						{
 							PPQN = info.getPpqn();
-							seq = new Sequence(Sequence.PPQ, (int) PPQN);
+							if (headersOnly)
+							{
+								try
+								{
+									seq = new Sequence(Sequence.PPQ, (int) PPQN);
+								}
+								catch (InvalidMidiDataException mde)
+								{
+									throw new ParseException("Midi Error: " + mde.getMessage(), fileName);
+								}
 
-							abcInfo.setPrimaryTempoBPM(info.getPrimaryTempoBPM());
+								// Create track 0, which will later be filled with the 
+								// tempo events and song metadata (title, etc.)
+								seq.createTrack();
+							}
+							else
+							{
+								seq = headers.seq;
+							}
+							trackCount = 1;
 
-							// Create track 0, which will later be filled with the 
-							// tempo events and song metadata (title, etc.)
-							seq.createTrack();
+							abcInfo.setPrimaryTempoBPM(info.getPrimaryTempoBPM());
 
 							abcInfo.setPartNumber(0, 0);
 							abcInfo.setPartName(0, info.getTitle(), false);
@@ -306,501 +556,584 @@ public class AbcToMidi
 
 							track = null;
 						}
-						catch (InvalidMidiDataException mde)
+
+						if (track == null)
 						{
-							throw new ParseException("Midi Error: " + mde.getMessage(), fileName);
+							if (trackCount > MidiPorts.MAX_TRACK_NUMBER)
+								throw new ParseException("Too many parts (max = " + MidiPorts.MAX_TRACK_NUMBER + ")",
+										fileName, partStartLine);
+							channel = MidiPorts.getTrackChannel(trackCount);
+							if (headersOnly)
+							{
+								track = seq.createTrack();
+								int port = MidiPorts.getTrackPort(trackCount);
+								if (port > 0)
+									track.add(MidiFactory.createPortEvent(port));
+								track.add(MidiFactory.createProgramChangeEvent(info.getInstrument().midiProgramId,
+										channel, 0));
+								if (useLotroInstruments)
+									track.add(MidiFactory.createChannelVolumeEvent(MidiConstants.MAX_VOLUME, channel,
+											1));
+							}
+							else
+							{
+								// Add the notes to the track that the headers pass created for this part
+								track = seq.getTracks()[trackCount];
+							}
+							trackCount++;
+							abcInfo.setPartInstrument(trackNumber, info.getInstrument());
 						}
-					}
 
-					if (track == null)
-					{
-						channel = getTrackChannel(seq.getTracks().length);
-						if (channel > MidiConstants.CHANNEL_COUNT - 1)
-							throw new ParseException(
-									"Too many parts (max = " + (MidiConstants.CHANNEL_COUNT - 1) + ")", fileName,
-									partStartLine);
-						track = seq.createTrack();
-						track.add(MidiFactory.createProgramChangeEvent(info.getInstrument().midiProgramId, channel, 0));
-						if (useLotroInstruments)
-							track.add(MidiFactory.createChannelVolumeEvent(MidiConstants.MAX_VOLUME, channel, 1));
-						abcInfo.setPartInstrument(trackNumber, info.getInstrument());
-					}
+						if (headersOnly)
+							continue;
 
-					Matcher m = NOTE_PATTERN.matcher(line);
-					int i = 0;
-					boolean inChord = false;
-					Tuplet tuplet = null;
-					int brokenRhythmNumerator = 1; // The numerator of the note after the broken rhythm sign
-					int brokenRhythmDenominator = 1; // The denominator of the note after the broken rhythm sign
-					while (true)
-					{
-						boolean found = m.find(i);
-						int parseEnd = found ? m.start() : line.length();
-						// Parse anything that's not a note
-						for (; i < parseEnd; i++)
+						tokenizer.reset(line, lineNumber, lineEnd);
+						boolean inChord = false;
+						Tuplet tuplet = null;
+						int brokenRhythmNumerator = 1; // The numerator of the note after the broken rhythm sign
+						int brokenRhythmDenominator = 1; // The denominator of the note after the broken rhythm sign
+						while (true)
 						{
-							char ch = line.charAt(i);
-							if (Character.isWhitespace(ch))
-							{
-								if (inChord)
-									throw new ParseException("Unexpected whitespace inside a chord", fileName,
-											lineNumber, i);
-								continue;
-							}
+							AbcTokenizer.TokenType token = tokenizer.next();
+							if (token == AbcTokenizer.TokenType.END)
+								break;
+
+							int i = tokenizer.getColumn();
 
-							switch (ch)
+							// Parse anything that's not a note
+							if (token != AbcTokenizer.TokenType.NOTE)
 							{
-							case '[': // Chord start
-								if (inChord)
+								char ch = tokenizer.getChar();
+								switch (token)
 								{
-									throw new ParseException("Unexpected '" + ch + "' inside a chord", fileName,
-											lineNumber, i);
-								}
+								case WHITESPACE:
+									if (inChord)
+										throw new ParseException("Unexpected whitespace inside a chord", fileName,
+												lineNumber, i);
+									break;
 
-								if (brokenRhythmDenominator != 1 || brokenRhythmNumerator != 1)
-								{
-									throw new ParseException("Can't have broken rhythm (< or >) within a chord",
-											fileName, lineNumber, i);
-								}
+								case CHORD_START:
+									if (inChord)
+									{
+										throw new ParseException("Unexpected '" + ch + "' inside a chord", fileName,
+												lineNumber, i);
+									}
 
-								chordSize = 0;
-								inChord = true;
-								break;
+									if (brokenRhythmDenominator != 1 || brokenRhythmNumerator != 1)
+									{
+										throw new ParseException("Can't have broken rhythm (< or >) within a chord",
+												fileName, lineNumber, i);
+									}
 
-							case ']': // Chord end
-								if (!inChord)
-								{
-									throw new ParseException("Unexpected '" + ch + "'", fileName, lineNumber, i);
-								}
-								inChord = false;
-								chordStartTick = chordEndTick;
-								break;
+									chordSize = 0;
+									inChord = true;
+									break;
 
-							case '|': // Bar line
-								if (inChord)
-								{
-									throw new ParseException("Unexpected '" + ch + "' inside a chord", fileName,
-											lineNumber, i);
-								}
+								case CHORD_END:
+									if (!inChord)
+									{
+										throw new ParseException("Unexpected '" + ch + "'", fileName, lineNumber, i);
+									}
+									inChord = false;
+									chordStartTick = chordEndTick;
+									break;
 
-								if (trackNumber == 1)
-									abcInfo.addBar(chordStartTick);
+								case BAR:
+									if (inChord)
+									{
+										throw new ParseException("Unexpected '" + ch + "' inside a chord", fileName,
+												lineNumber, i);
+									}
 
-								accidentals.clear();
-								if (i + 1 < line.length() && line.charAt(i + 1) == ']')
-								{
-									i++; // Skip |]
-								}
-								else if (trackNumber == 1)
-								{
-									abcInfo.addBar(chordStartTick);
-								}
-								break;
+									if (trackNumber == 1)
+										abcInfo.addBar(chordStartTick);
 
-							case '+':
-							{
-								int j = line.indexOf('+', i + 1);
-								if (j < 0)
-								{
-									throw new ParseException("There is no matching '+'", fileName, lineNumber, i);
-								}
-								try
-								{
-									info.setDynamics(line.substring(i + 1, j));
-								}
-								catch (IllegalArgumentException iae)
-								{
-									throw new ParseException("Unsupported +decoration+", fileName, lineNumber, i);
-								}
+									accidentals.clear();
+									if (!tokenizer.isBarEnd() && trackNumber == 1)
+									{
+										abcInfo.addBar(chordStartTick);
+									}
+									break;
 
-								if (enableLotroErrors && inChord)
-								{
-									throw new LotroParseException("Can't include a +decoration+ inside a chord",
-											fileName, lineNumber, i);
-								}
+								case DECORATION:
+									if (!tokenizer.isDecorationClosed())
+									{
+										throw new ParseException("There is no matching '+'", fileName, lineNumber, i);
+									}
+									try
+									{
+										info.setDynamics(tokenizer.getDecoration());
+									}
+									catch (IllegalArgumentException iae)
+									{
+										throw new ParseException("Unsupported +decoration+", fileName, lineNumber, i);
+									}
 
-								i = j;
-								break;
-							}
+									if (enableLotroErrors && inChord)
+									{
+										throw new LotroParseException("Can't include a +decoration+ inside a chord",
+												fileName, lineNumber, i);
+									}
+									break;
 
-							case '(':
-								// Tuplet or slur start
-								if (i + 1 < line.length() && Character.isDigit(line.charAt(i + 1)))
-								{
-									// If it has a digit following it, it's a tuplet
+								case TUPLET:
 									if (tuplet != null)
 										throw new ParseException("Unexpected '" + ch + "' before end of tuplet",
 												fileName, lineNumber, i);
 
 									try
 									{
-										for (int j = i + 1; j < line.length(); j++)
-										{
-											if (line.charAt(i) != ':' && !Character.isDigit(line.charAt(i)))
-											{
-												tuplet = new Tuplet(line.substring(i + 1, j + 1),
-														info.isCompoundMeter());
-												i = j;
-												break;
-											}
-										}
+										tuplet = new Tuplet(tokenizer.getTupletP(), info.isCompoundMeter());
 									}
 									catch (IllegalArgumentException e)
 									{
 										throw new ParseException("Invalid tuplet", fileName, lineNumber, i);
 									}
-								}
-								else
-								{
-									// Otherwise it's a slur, which LotRO conveniently ignores
+									break;
+
+								case SLUR_START:
+									// A slur, which LotRO conveniently ignores
+								case SLUR_END:
 									if (inChord)
 									{
 										throw new ParseException("Unexpected '" + ch + "' inside a chord", fileName,
 												lineNumber, i);
 									}
-								}
-								break;
+									break;
 
-							case ')':
-								// End of a slur, ignore
-								if (inChord)
-								{
-									throw new ParseException("Unexpected '" + ch + "' inside a chord", fileName,
+								case IGNORED:
+									// Ignore backslashes
+									break;
+
+								default:
+									throw new ParseException("Unknown/unexpected character '" + ch + "'", fileName,
 											lineNumber, i);
 								}
-								break;
-
-							case '\\':
-								// Ignore backslashes
-								break;
-
-							default:
-								throw new ParseException("Unknown/unexpected character '" + ch + "'", fileName,
-										lineNumber, i);
+								continue;
 							}
-						}
 
-						if (i >= line.length())
-							break;
+							if (inChord)
+								chordSize++;
 
-						// The matcher might find +f+, +ff+, or +fff+ and think it's a note
-						if (i > m.start())
-							continue;
+							if (enableLotroErrors && inChord && chordSize > AbcConstants.MAX_CHORD_NOTES)
+							{
+								throw new LotroParseException("Too many notes in a chord", fileName, lineNumber, i);
+							}
 
-						if (inChord)
-							chordSize++;
+							// Parse the note
+							int numerator;
+							int denominator;
 
-						if (enableLotroErrors && inChord && chordSize > AbcConstants.MAX_CHORD_NOTES)
-						{
-							throw new LotroParseException("Too many notes in a chord", fileName, lineNumber, m.start());
-						}
+							numerator = tokenizer.getLengthNumerator();
+							denominator = tokenizer.getLengthDenominator();
 
-						// Parse the note
-						int numerator;
-						int denominator;
-
-						numerator = (m.group(NOTE_LEN_NUMER) == null) ? 1 : Integer.parseInt(m.group(NOTE_LEN_NUMER));
-						String denom = m.group(NOTE_LEN_DENOM);
-						if (denom == null)
-							denominator = 1;
-						else if (denom.equals("/"))
-							denominator = 2;
-						else if (denom.equals("//"))
-							denominator = 4;
-						else
-							denominator = Integer.parseInt(denom.substring(1));
-
-						String brokenRhythm = m.group(NOTE_BROKEN_RHYTHM);
-						if (brokenRhythm != null)
-						{
-							if (brokenRhythmDenominator != 1 || brokenRhythmNumerator != 1)
-							{
-								throw new ParseException("Invalid broken rhythm: " + brokenRhythm, fileName,
-										lineNumber, m.start(NOTE_BROKEN_RHYTHM));
-							}
-							if (inChord)
+							if (tokenizer.getBrokenRhythmCount() > 0)
 							{
-								throw new ParseException("Can't have broken rhythm (< or >) within a chord", fileName,
-										lineNumber, m.start(NOTE_BROKEN_RHYTHM));
-							}
-							if (m.group(NOTE_TIE) != null)
-							{
-								throw new ParseException("Tied notes can't have broken rhythms (< or >)", fileName,
-										lineNumber, m.start(NOTE_BROKEN_RHYTHM));
-							}
+								if (brokenRhythmDenominator != 1 || brokenRhythmNumerator != 1)
+								{
+									throw new ParseException("Invalid broken rhythm: " + tokenizer.getBrokenRhythm(),
+											fileName, lineNumber, tokenizer.getBrokenRhythmColumn());
+								}
+								if (inChord)
+								{
+									throw new ParseException("Can't have broken rhythm (< or >) within a chord",
+											fileName, lineNumber, tokenizer.getBrokenRhythmColumn());
+								}
+								if (tokenizer.isTied())
+								{
+									throw new ParseException("Tied notes can't have broken rhythms (< or >)", fileName,
+											lineNumber, tokenizer.getBrokenRhythmColumn());
+								}
 
-							int factor = 1 << brokenRhythm.length();
+								int factor = 1 << tokenizer.getBrokenRhythmCount();
 
-							if (brokenRhythm.charAt(0) == '>')
-							{
-								numerator *= 2 * factor - 1;
-								denominator *= factor;
-								brokenRhythmDenominator = factor;
+								if (tokenizer.isBrokenRhythmDotted())
+								{
+									numerator *= 2 * factor - 1;
+									denominator *= factor;
+									brokenRhythmDenominator = factor;
+								}
+								else
+								{
+									brokenRhythmNumerator = 2 * factor - 1;
+									brokenRhythmDenominator = factor;
+									denominator *= factor;
+								}
 							}
 							else
 							{
-								brokenRhythmNumerator = 2 * factor - 1;
-								brokenRhythmDenominator = factor;
-								denominator *= factor;
+								numerator *= brokenRhythmNumerator;
+								denominator *= brokenRhythmDenominator;
+								brokenRhythmNumerator = 1;
+								brokenRhythmDenominator = 1;
 							}
-						}
-						else
-						{
-							numerator *= brokenRhythmNumerator;
-							denominator *= brokenRhythmDenominator;
-							brokenRhythmNumerator = 1;
-							brokenRhythmDenominator = 1;
-						}
-
-						if (tuplet != null)
-						{
-							if (!inChord || chordSize == 1)
-								tuplet.r--;
-							numerator *= tuplet.q;
-							denominator *= tuplet.p;
-							if (tuplet.r == 0)
-								tuplet = null;
-						}
 
-						// Convert back to the original tempo
-						int curTempoBPM = info.getCurrentTempoBPM(chordStartTick);
-						int primaryTempoBPM = info.getPrimaryTempoBPM();
-						numerator *= curTempoBPM;
-						denominator *= primaryTempoBPM;
-
-						// Try to guess if this note is using triplet timing
-						if ((denominator % 3 == 0) && (numerator % 3 != 0))
-						{
-							abcInfo.setHasTriplets(true);
-						}
-
-						long noteEndTick = chordStartTick + DEFAULT_NOTE_TICKS * numerator / denominator;
-
-						// A chord is as long as its shortest note
-						if (chordEndTick == chordStartTick || noteEndTick < chordEndTick)
-							chordEndTick = noteEndTick;
-
-						char noteLetter = m.group(NOTE_LETTER).charAt(0);
-						String octaveStr = m.group(NOTE_OCTAVE);
-						if (octaveStr == null)
-							octaveStr = "";
-						if (noteLetter == 'z' || noteLetter == 'x')
-						{
-							if (m.group(NOTE_ACCIDENTAL) != null && m.group(NOTE_ACCIDENTAL).length() > 0)
+							if (tuplet != null)
 							{
-								throw new ParseException("Unexpected accidental on a rest", fileName, lineNumber,
-										m.start(NOTE_ACCIDENTAL));
+								if (!inChord || chordSize == 1)
+									tuplet.r--;
+								numerator *= tuplet.q;
+								denominator *= tuplet.p;
+								if (tuplet.r == 0)
+									tuplet = null;
 							}
-							if (octaveStr.length() > 0)
-							{
-								throw new ParseException("Unexpected octave indicator on a rest", fileName, lineNumber,
-										m.start(NOTE_OCTAVE));
-							}
-						}
-						else
-						{
-							int octave = Character.isUpperCase(noteLetter) ? 3 : 4;
-							if (octaveStr.indexOf('\'') >= 0)
-								octave += octaveStr.length();
-							else if (octaveStr.indexOf(',') >= 0)
-								octave -= octaveStr.length();
 
-							int noteId;
-							int lotroNoteId;
+							// Convert back to the original tempo
+							int curTempoBPM = info.getCurrentTempoBPM(chordStartTick);
+							int primaryTempoBPM = info.getPrimaryTempoBPM();
+							numerator *= curTempoBPM;
+							denominator *= primaryTempoBPM;
 
-							lotroNoteId = noteId = (octave + 1) * 12
-									+ CHR_NOTE_DELTA[Character.toLowerCase(noteLetter) - 'a'];
-							if (!useLotroInstruments)
-								noteId += 12 * info.getInstrument().octaveDelta;
-
-							if (m.group(NOTE_ACCIDENTAL) != null)
+							// Try to guess if this note is using triplet timing
+							if ((denominator % 3 == 0) && (numerator % 3 != 0))
 							{
-								if (m.group(NOTE_ACCIDENTAL).startsWith("_"))
-									accidentals.put(noteId, -m.group(NOTE_ACCIDENTAL).length());
-								else if (m.group(NOTE_ACCIDENTAL).startsWith("^"))
-									accidentals.put(noteId, m.group(NOTE_ACCIDENTAL).length());
-								else if (m.group(NOTE_ACCIDENTAL).equals("="))
-									accidentals.put(noteId, 0);
+								abcInfo.setHasTriplets(true);
 							}
 
-							int noteDelta;
-							if (accidentals.containsKey(noteId))
-							{
-								noteDelta = accidentals.get(noteId);
-							}
-							else
-							{
-								// Use the key signature to determine the accidental
-								noteDelta = info.getKey().getDefaultAccidental(noteId).deltaNoteId;
-							}
-							lotroNoteId += noteDelta;
-							noteId += noteDelta;
+							long noteEndTick = chordStartTick + DEFAULT_NOTE_TICKS * numerator / denominator;
 
-							if (enableLotroErrors && lotroNoteId < Note.MIN_PLAYABLE.id)
-								throw new LotroParseException("Note is too low", fileName, lineNumber, m.start());
-							else if (enableLotroErrors && lotroNoteId > Note.MAX_PLAYABLE.id)
-								throw new LotroParseException("Note is too high", fileName, lineNumber, m.start());
+							// A chord is as long as its shortest note
+							if (chordEndTick == chordStartTick || noteEndTick < chordEndTick)
+								chordEndTick = noteEndTick;
 
-							if (info.getInstrument() == LotroInstrument.COWBELL
-									|| info.getInstrument() == LotroInstrument.MOOR_COWBELL)
+							char noteLetter = tokenizer.getNoteLetter();
+							if (tokenizer.isRest())
 							{
-								if (useLotroInstruments)
+								if (tokenizer.getAccidentalCount() > 0)
 								{
-									// Randomize the noteId unless it's part of a note tie
-									if (m.group(NOTE_TIE) == null && !tiedNotes.containsKey(noteId))
-									{
-										int min = info.getInstrument().lowestPlayable.id;
-										int max = info.getInstrument().highestPlayable.id;
-										lotroNoteId = noteId = min + (int) (Math.random() * (max - min));
-									}
+									throw new ParseException("Unexpected accidental on a rest", fileName, lineNumber,
+											i);
 								}
-								else
+								if (tokenizer.getOctaveMarkCount() > 0)
 								{
-									noteId = (info.getInstrument() == LotroInstrument.COWBELL) ? 76 : 71;
-									lotroNoteId = 71;
+									throw new ParseException("Unexpected octave indicator on a rest", fileName,
+											lineNumber, tokenizer.getOctaveColumn());
 								}
 							}
-
-							// Check for overlapping notes, and remove extra note off events
-							Iterator<MidiEvent> noteOffIter = noteOffEvents.iterator();
-							while (noteOffIter.hasNext())
+							else
 							{
-								MidiEvent evt = noteOffIter.next();
-								if (evt.getTick() <= chordStartTick)
+								int octave = Character.isUpperCase(noteLetter) ? 3 : 4;
+								octave += tokenizer.getOctaveDelta();
+
+								int noteId;
+								int lotroNoteId;
+
+								lotroNoteId = noteId = (octave + 1) * 12
+										+ CHR_NOTE_DELTA[Character.toLowerCase(noteLetter) - 'a'];
+								if (!useLotroInstruments)
+									noteId += 12 * info.getInstrument().octaveDelta;
+
+								if (tokenizer.getAccidentalCount() > 0)
 								{
-									noteOffIter.remove();
-									continue;
+									if (tokenizer.getAccidental() == '_')
+										accidentals.put(noteId, -tokenizer.getAccidentalCount());
+									else if (tokenizer.getAccidental() == '^')
+										accidentals.put(noteId, tokenizer.getAccidentalCount());
+									else if (tokenizer.getAccidental() == '=')
+										accidentals.put(noteId, 0);
 								}
 
-								int noteOffId = ((ShortMessage) evt.getMessage()).getData1();
-								if (noteOffId == noteId)
+								int noteDelta;
+								if (accidentals.containsKey(noteId))
 								{
-									track.remove(evt);
-									evt.setTick(chordStartTick);
-									track.add(evt);
-									noteOffIter.remove();
-									break;
+									noteDelta = accidentals.get(noteId);
 								}
-							}
-
-							if (!tiedNotes.containsKey(noteId))
-							{
-								if (info.getPpqn() != PPQN)
+								else
 								{
-									throw new ParseException(
-											"The default note length must be the same for all parts of the song",
-											fileName, noteDivisorChangeLine);
+									// Use the key signature to determine the accidental
+									noteDelta = info.getKey().getDefaultAccidental(noteId).deltaNoteId;
 								}
-								track.add(MidiFactory.createNoteOnEventEx(noteId, channel,
-										info.getDynamics().getVol(useLotroInstruments), chordStartTick));
-							}
+								lotroNoteId += noteDelta;
+								noteId += noteDelta;
 
-							if (m.group(NOTE_TIE) != null)
-							{
-								int lineAndColumn = (lineNumber << 16) | m.start();
-								tiedNotes.put(noteId, lineAndColumn);
-							}
-							else
-							{
-								double MPQN = MidiUtils.convertTempo(curTempoBPM);
-								double lengthMicros = (noteEndTick - chordStartTick) * MPQN / PPQN;
+								if (enableLotroErrors && lotroNoteId < Note.MIN_PLAYABLE.id)
+									throw new LotroParseException("Note is too low", fileName, lineNumber, i);
+								else if (enableLotroErrors && lotroNoteId > Note.MAX_PLAYABLE.id)
+									throw new LotroParseException("Note is too high", fileName, lineNumber, i);
 
-								if (enableLotroErrors && lengthMicros < AbcConstants.SHORTEST_NOTE_MICROS)
+								if (info.getInstrument() == LotroInstrument.COWBELL
+										|| info.getInstrument() == LotroInstrument.MOOR_COWBELL)
 								{
-									throw new LotroParseException("Note's duration is too short", fileName, lineNumber,
-											m.start());
+									if (useLotroInstruments)
+									{
+										// Randomize the noteId unless it's part of a note tie
+										if (!tokenizer.isTied() && !tiedNotes.containsKey(noteId))
+										{
+											int min = info.getInstrument().lowestPlayable.id;
+											int max = info.getInstrument().highestPlayable.id;
+											lotroNoteId = noteId = min + (int) (Math.random() * (max - min));
+										}
+									}
+									else
+									{
+										noteId = (info.getInstrument() == LotroInstrument.COWBELL) ? 76 : 71;
+										lotroNoteId = 71;
+									}
 								}
-								else if (enableLotroErrors && lengthMicros > AbcConstants.LONGEST_NOTE_MICROS)
+
+								// Check for overlapping notes, and move the extra note off event
+								noteEvents.endNoteAt(noteId, chordStartTick);
+
+								if (!tiedNotes.containsKey(noteId))
 								{
-									throw new LotroParseException("Note's duration is too long", fileName, lineNumber,
-											m.start());
+									if (info.getPpqn() != PPQN)
+									{
+										throw new ParseException(
+												"The default note length must be the same for all parts of the song",
+												fileName, noteDivisorChangeLine);
+									}
+									noteEvents.add(MidiFactory.createNoteOnEventEx(noteId, channel,
+											info.getDynamics().getVol(useLotroInstruments), chordStartTick));
 								}
 
-								// Stringed instruments, drums, and woodwind breath sounds always play the 
-								// sound sample in its entirety. Since Gervill doesn't support the SoundFont 
-								// extension that specifies this, we have to increase the note length.
-								// One second should do the trick.
-								long noteEndTickTmp = noteEndTick;
-								if (useLotroInstruments && !info.getInstrument().isSustainable(lotroNoteId))
+								if (tokenizer.isTied())
 								{
-									noteEndTickTmp = Math.max(noteEndTick,
-											chordStartTick + Math.round(AbcConstants.ONE_SECOND_MICROS * PPQN / MPQN));
+									int lineAndColumn = (lineNumber << 16) | i;
+									tiedNotes.put(noteId, lineAndColumn);
 								}
-								MidiEvent noteOff = MidiFactory.createNoteOffEventEx(noteId, channel, info
-										.getDynamics().getVol(useLotroInstruments), noteEndTickTmp);
-								track.add(noteOff);
-								noteOffEvents.add(noteOff);
+								else
+								{
+									double MPQN = MidiUtils.convertTempo(curTempoBPM);
+									double lengthMicros = (noteEndTick - chordStartTick) * MPQN / PPQN;
 
-								tiedNotes.remove(noteId);
+									if (enableLotroErrors && lengthMicros < AbcConstants.SHORTEST_NOTE_MICROS)
+									{
+										throw new LotroParseException("Note's duration is too short", fileName,
+												lineNumber, i);
+									}
+									else if (enableLotroErrors && lengthMicros > AbcConstants.LONGEST_NOTE_MICROS)
+									{
+										throw new LotroParseException("Note's duration is too long", fileName,
+												lineNumber, i);
+									}
+
+									// Stringed instruments, drums, and woodwind breath sounds always play the 
+									// sound sample in its entirety. Since Gervill doesn't support the SoundFont 
+									// extension that specifies this, we have to increase the note length.
+									// One second should do the trick.
+									long noteEndTickTmp = noteEndTick;
+									if (useLotroInstruments && !info.getInstrument().isSustainable(lotroNoteId))
+									{
+										noteEndTickTmp = Math.max(noteEndTick, chordStartTick
+												+ Math.round(AbcConstants.ONE_SECOND_MICROS * PPQN / MPQN));
+									}
+									MidiEvent noteOff = MidiFactory.createNoteOffEventEx(noteId, channel, info
+											.getDynamics().getVol(useLotroInstruments), noteEndTickTmp);
+									noteEvents.addNoteOff(noteOff);
+
+									tiedNotes.remove(noteId);
+								}
 							}
+
+							if (!inChord)
+								chordStartTick = noteEndTick;
 						}
 
-						if (!inChord)
-							chordStartTick = noteEndTick;
-						i = m.end();
-					}
+						if (tuplet != null)
+							throw new ParseException("Tuplet not finished by end of line", fileName, lineNumber,
+									lineEnd);
 
-					if (tuplet != null)
-						throw new ParseException("Tuplet not finished by end of line", fileName, lineNumber, i);
+						if (inChord)
+							throw new ParseException("Chord not closed at end of line", fileName, lineNumber, lineEnd);
 
-					if (inChord)
-						throw new ParseException("Chord not closed at end of line", fileName, lineNumber, i);
+						if (brokenRhythmDenominator != 1 || brokenRhythmNumerator != 1)
+							throw new ParseException("Broken rhythm unfinished at end of line", fileName, lineNumber,
+									lineEnd);
+					}
+				}
+
+				if (fileIndex < endFile)
+				{
+					if (seq == null)
+						throw new ParseException("The file contains no notes", fileName, lineNumber);
 
-					if (brokenRhythmDenominator != 1 || brokenRhythmNumerator != 1)
-						throw new ParseException("Broken rhythm unfinished at end of line", fileName, lineNumber, i);
+					for (int lineAndColumn : tiedNotes.values())
+					{
+						throw new ParseException("Tied note does not connect to another note", fileName,
+								lineAndColumn >>> 16, lineAndColumn & 0xFFFF);
+					}
 				}
 			}
 
-			if (seq == null)
-				throw new ParseException("The file contains no notes", fileName, lineNumber);
-
-			for (int lineAndColumn : tiedNotes.values())
+			// If the part ends at the next part's "X:" line, check for unfinished ties here
+			if (endFile < filesData.size())
 			{
-				throw new ParseException("Tied note does not connect to another note", fileName, lineAndColumn >>> 16,
-						lineAndColumn & 0xFFFF);
+				for (int lineAndColumn : tiedNotes.values())
+				{
+					throw new ParseException("Tied note does not connect to another note", fileName,
+							lineAndColumn >>> 16, lineAndColumn & 0xFFFF);
+				}
 			}
+
+			if (track != null)
+				noteEvents.addTo(track);
 		}
+	}
 
-		PanGenerator pan = null;
-		if (stereo && trackNumber > 1)
-			pan = new PanGenerator();
+	/**
+	 * Collects the note events for a part so they can be added to its track all at once. Adding an
+	 * event anywhere but the end of a Track, or removing one, takes time proportional to the size of
+	 * the track, and shortening a note that's overlapped by the next one used to do both.
+	 * <p>
+	 * The events end up in the same order as if they had been added to the track one at a time.
+	 */
+	private static class NoteEventBuffer
+	{
+		private static final int NONE = -1;
 
-		Track[] tracks = seq.getTracks();
+		private MidiEvent[] events = new MidiEvent[256];
+		private int size = 0;
+		private long endTick = 0;
 
-		// Add tempo events
-		for (Map.Entry<Long, Integer> tempoEvent : info.getAllPartsTempoMap().entrySet())
+		// The note off events that might still be moved earlier, as a linked list of indexes into
+		// events for each note ID, in the order they were added
+		private final int[] firstNoteOff = new int[128];
+		private final int[] lastNoteOff = new int[128];
+		private int[] nextNoteOff = new int[256];
+
+		public NoteEventBuffer()
 		{
-			long tick = tempoEvent.getKey();
-			int mpq = (int) MidiUtils.convertTempo(tempoEvent.getValue());
-			tracks[0].add(MidiFactory.createTempoEvent(mpq, tick));
+			Arrays.fill(firstNoteOff, NONE);
+			Arrays.fill(lastNoteOff, NONE);
 		}
 
-		// Add name and pan events
-		tracks[0].add(MidiFactory.createTrackNameEvent(abcInfo.getTitle()));
-		for (int i = 1; i <= trackNumber; i++)
+		public void add(MidiEvent event)
 		{
-			tracks[i].add(MidiFactory.createTrackNameEvent(abcInfo.getPartName(i)));
+			append(event);
+		}
 
-			int panAmount = PanGenerator.CENTER;
-			if (pan != null)
-				panAmount = pan.get(abcInfo.getPartInstrument(i), abcInfo.getPartName(i));
-			tracks[i].add(MidiFactory.createPanEvent(panAmount, getTrackChannel(i)));
+		public void addNoteOff(MidiEvent noteOff)
+		{
+			int noteId = ((ShortMessage) noteOff.getMessage()).getData1();
+			int index = append(noteOff);
+			nextNoteOff[index] = NONE;
+			if (lastNoteOff[noteId] == NONE)
+				firstNoteOff[noteId] = index;
+			else
+				nextNoteOff[lastNoteOff[noteId]] = index;
+			lastNoteOff[noteId] = index;
 		}
 
-		// Add time and key signature events
-		tracks[0].add(MidiFactory.createTimeSignatureEvent(abcInfo.getTimeSignature(), 0));
-		if (MidiFactory.isSupportedMidiKeyMode(abcInfo.getKeySignature().mode))
-			tracks[0].add(MidiFactory.createKeySignatureEvent(abcInfo.getKeySignature(), 0));
+		/**
+		 * If a note with the given ID is still playing at the tick, moves its note off event to the
+		 * tick. Only the earliest added note off that is after the tick is moved.
+		 */
+		public void endNoteAt(int noteId, long tick)
+		{
+			if (noteId < 0 || noteId >= firstNoteOff.length)
+				return;
 
-		return seq;
+			// Note offs at or before the tick have already ended, so they'll never be moved
+			int index = firstNoteOff[noteId];
+			while (index != NONE && events[index].getTick() <= tick)
+				index = nextNoteOff[index];
+
+			if (index != NONE)
+			{
+				// Move it to the end of the buffer, which is where it would go if it were removed from
+				// the track and added again
+				MidiEvent noteOff = events[index];
+				events[index] = null;
+				index = nextNoteOff[index];
+				noteOff.setTick(tick);
+				append(noteOff);
+			}
+
+			firstNoteOff[noteId] = index;
+			if (index == NONE)
+				lastNoteOff[noteId] = NONE;
+		}
+
+		private int append(MidiEvent event)
+		{
+			if (size == events.length)
+			{
+				events = Arrays.copyOf(events, size * 2);
+				nextNoteOff = Arrays.copyOf(nextNoteOff, size * 2);
+			}
+
+			endTick = Math.max(endTick, event.getTick());
+			events[size] = event;
+			return size++;
+		}
+
+		/** Adds the events to the track, and clears the buffer. */
+		public void addTo(Track track)
+		{
+			int count = 0;
+			for (int i = 0; i < size; i++)
+			{
+				if (events[i] != null)
+					events[count++] = events[i];
+			}
+
+			// This sort is stable, so events at the same tick stay in the order they were added
+			Arrays.sort(events, 0, count, new Comparator<MidiEvent>()
+			{
+				@Override public int compare(MidiEvent a, MidiEvent b)
+				{
+					return Long.compare(a.getTick(), b.getTick());
+				}
+			});
+
+			for (int i = 0; i < count; i++)
+				track.add(events[i]);
+
+			// The track ends at the last tick that any event was added at, including the original
+			// tick of note offs that were moved
+			track.add(MidiFactory.createEndOfTrackEvent(endTick));
+
+			Arrays.fill(events, 0, size, null);
+			Arrays.fill(firstNoteOff, NONE);
+			Arrays.fill(lastNoteOff, NONE);
+			size = 0;
+			endTick = 0;
+		}
 	}
 
-	private static int getTrackChannel(int trackNumber)
+	/**
+	 * Checks whether the line is an extended info field, like <code>%%part-name: Flute</code>. If so,
+	 * returns the index just after the field name (and its colon, if it has one), which is where the
+	 * value starts. Otherwise returns -1.
+	 */
+	private static int matchExtendedInfo(String line)
 	{
-		if (trackNumber < MidiConstants.DRUM_CHANNEL)
-			return trackNumber;
+		int i = skipWhitespace(line, 0, line.length());
+		if (!line.startsWith("%%", i))
+			return -1;
+
+		int fieldStart = i + 2;
+		for (i = fieldStart; i < line.length(); i++)
+		{
+			char ch = line.charAt(i);
+			if (!((ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || ch == '-'))
+				break;
+		}
+
+		if (i == fieldStart)
+			return -1;
+
+		if (i < line.length() && line.charAt(i) == ':')
+			i++;
+
+		return i;
+	}
 
-		return trackNumber + 1;
+	/**
+	 * Returns the index of the first character at or after start that isn't whitespace, or end if
+	 * there isn't one. Uses the same definition of whitespace as <code>\s</code> in a regex.
+	 */
+	private static int skipWhitespace(String line, int start, int end)
+	{
+		int i = start;
+		while (i < end)
+		{
+			char ch = line.charAt(i);
+			if (ch != ' ' && ch != '\t' && ch != '\n' && ch != '\u000B' && ch != '\f' && ch != '\r')
+				break;
+			i++;
+		}
+		return i;
 	}
 
 	// From http://abcnotation.com/abc2mtex/abc.txt:
@@ -838,39 +1171,21 @@ public class AbcToMidi
 		public int q;
 		public int r;
 
-		public Tuplet(String str, boolean compoundMeter)
+		public Tuplet(int p, boolean compoundMeter)
 		{
-			try
-			{
-				String[] parts = str.split(":");
-				if (parts.length < 1 || parts.length > 3)
-					throw new IllegalArgumentException();
-
-				p = Integer.parseInt(parts[0]);
-
-				if (p < 2 || p > 9)
-					throw new IllegalArgumentException();
-
-				if (parts.length >= 2)
-					q = Integer.parseInt(parts[1]);
-				else if (p == 3 || p == 6)
-					q = 2;
-				else if (p == 2 || p == 4 || p == 8)
-					q = 3;
-				else if (p == 5 || p == 7 || p == 9)
-					q = compoundMeter ? 3 : 2;
-				else
-					throw new IllegalArgumentException();
-
-				if (parts.length >= 3)
-					r = Integer.parseInt(parts[2]);
-				else
-					r = p;
-			}
-			catch (NumberFormatException e)
-			{
-				throw new IllegalArgumentException(e);
-			}
+			if (p < 2 || p > 9)
+				throw new IllegalArgumentException();
+
+			this.p = p;
+
+			if (p == 3 || p == 6)
+				q = 2;
+			else if (p == 2 || p == 4 || p == 8)
+				q = 3;
+			else
+				q = compoundMeter ? 3 : 2;
+
+			r = p;
 		}
 	}
 }
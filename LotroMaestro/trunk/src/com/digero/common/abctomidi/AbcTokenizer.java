@@ -0,0 +1,384 @@
+package com.digero.common.abctomidi;
+
+/**
+ * Splits a line of ABC notes into tokens without allocating any objects. Call {@link #reset} with
+ * each line, then {@link #next()} until it returns {@link TokenType#END}. The details of the
+ * current token (its column, and for notes the accidental, octave, length, etc.) are available
+ * from the getters until the next call to {@link #next()}.
+ * <p>
+ * Columns are zero-based character offsets into the line, matching the columns passed to
+ * {@link com.digero.common.util.ParseException}.
+ */
+class AbcTokenizer
+{
+	public enum TokenType
+	{
+		/** A note or rest; see the note getters for its details */
+		NOTE,
+		/** <code>[</code> */
+		CHORD_START,
+		/** <code>]</code> */
+		CHORD_END,
+		/** <code>|</code> or <code>|]</code> */
+		BAR,
+		/** <code>(</code> followed by a digit */
+		TUPLET,
+		/** <code>+decoration+</code>, or a <code>+</code> with no matching <code>+</code> */
+		DECORATION,
+		/** <code>(</code> not followed by a digit */
+		SLUR_START,
+		/** <code>)</code> */
+		SLUR_END,
+		/** <code>\</code>, which is ignored */
+		IGNORED,
+		/** A single whitespace character */
+		WHITESPACE,
+		/** Any other character */
+		UNKNOWN,
+		/** The end of the line has been reached */
+		END
+	}
+
+	private String line;
+	private int lineNumber;
+	private int lineEnd;
+	private int pos;
+
+	private TokenType type;
+	private int column;
+
+	// Bar details
+	private boolean barIsEnd;
+
+	// Decoration details
+	private int decorationEnd;
+
+	// Tuplet details
+	private int tupletP;
+
+	// Note details
+	private char accidental;
+	private int accidentalCount;
+	private char noteLetter;
+	private int octaveColumn;
+	private char octaveChar;
+	private int octaveCount;
+	private int numeratorStart;
+	private int numeratorEnd;
+	private int denominatorStart;
+	private int denominatorEnd;
+	private int brokenRhythmColumn;
+	private char brokenRhythmChar;
+	private int brokenRhythmCount;
+	private boolean tied;
+
+	/**
+	 * Starts tokenizing a new line. Only the characters before lineEnd are considered; this is
+	 * used to exclude a trailing comment.
+	 */
+	public void reset(String line, int lineNumber, int lineEnd)
+	{
+		this.line = line;
+		this.lineNumber = lineNumber;
+		this.lineEnd = lineEnd;
+		this.pos = 0;
+		this.type = null;
+	}
+
+	public TokenType next()
+	{
+		column = pos;
+		if (pos >= lineEnd)
+			return type = TokenType.END;
+
+		if (parseNote())
+			return type = TokenType.NOTE;
+
+		char ch = line.charAt(pos++);
+		if (Character.isWhitespace(ch))
+			return type = TokenType.WHITESPACE;
+
+		switch (ch)
+		{
+		case '[':
+			return type = TokenType.CHORD_START;
+
+		case ']':
+			return type = TokenType.CHORD_END;
+
+		case '|':
+			barIsEnd = (pos < lineEnd && line.charAt(pos) == ']');
+			if (barIsEnd)
+				pos++;
+			return type = TokenType.BAR;
+
+		case '+':
+			decorationEnd = line.indexOf('+', pos);
+			if (decorationEnd >= lineEnd)
+				decorationEnd = -1;
+			if (decorationEnd >= 0)
+				pos = decorationEnd + 1;
+			return type = TokenType.DECORATION;
+
+		case '(':
+			if (pos < lineEnd && Character.isDigit(line.charAt(pos)))
+			{
+				tupletP = Character.digit(line.charAt(pos), 10);
+				pos++;
+				return type = TokenType.TUPLET;
+			}
+			return type = TokenType.SLUR_START;
+
+		case ')':
+			return type = TokenType.SLUR_END;
+
+		case '\\':
+			return type = TokenType.IGNORED;
+
+		default:
+			return type = TokenType.UNKNOWN;
+		}
+	}
+
+	/**
+	 * Tries to read a note starting at the current position. This accepts exactly what the regular
+	 * expression below would, with each part being greedy:
+	 * 
+	 * <pre>
+	 * (_{1,2}|=|\^{1,2})?([xzA-Ga-g])(,{1,5}|'{1,5})?(\d+)?(//?\d*)?(&gt;{1,3}|&lt;{1,3})?(-)?
+	 * </pre>
+	 */
+	private boolean parseNote()
+	{
+		int i = pos;
+
+		accidental = line.charAt(i);
+		if (accidental == '_' || accidental == '^')
+			accidentalCount = countRun(i, accidental, 2);
+		else if (accidental == '=')
+			accidentalCount = 1;
+		else
+			accidentalCount = 0;
+		i += accidentalCount;
+
+		if (i >= lineEnd || !isNoteLetter(line.charAt(i)))
+			return false;
+		noteLetter = line.charAt(i++);
+
+		octaveColumn = i;
+		octaveChar = (i < lineEnd) ? line.charAt(i) : 0;
+		if (octaveChar == ',' || octaveChar == '\'')
+			octaveCount = countRun(i, octaveChar, 5);
+		else
+			octaveCount = 0;
+		i += octaveCount;
+
+		numeratorStart = i;
+		while (i < lineEnd && isAsciiDigit(line.charAt(i)))
+			i++;
+		numeratorEnd = i;
+
+		denominatorStart = i;
+		if (i < lineEnd && line.charAt(i) == '/')
+		{
+			i++;
+			if (i < lineEnd && line.charAt(i) == '/')
+				i++;
+			while (i < lineEnd && isAsciiDigit(line.charAt(i)))
+				i++;
+		}
+		denominatorEnd = i;
+
+		brokenRhythmColumn = i;
+		brokenRhythmChar = (i < lineEnd) ? line.charAt(i) : 0;
+		if (brokenRhythmChar == '>' || brokenRhythmChar == '<')
+			brokenRhythmCount = countRun(i, brokenRhythmChar, 3);
+		else
+			brokenRhythmCount = 0;
+		i += brokenRhythmCount;
+
+		tied = (i < lineEnd && line.charAt(i) == '-');
+		if (tied)
+			i++;
+
+		pos = i;
+		return true;
+	}
+
+	private int countRun(int start, char ch, int max)
+	{
+		int count = 0;
+		while (count < max && start + count < lineEnd && line.charAt(start + count) == ch)
+			count++;
+		return count;
+	}
+
+	private static boolean isNoteLetter(char ch)
+	{
+		return (ch >= 'A' && ch <= 'G') || (ch >= 'a' && ch <= 'g') || ch == 'x' || ch == 'z';
+	}
+
+	private static boolean isAsciiDigit(char ch)
+	{
+		return ch >= '0' && ch <= '9';
+	}
+
+	/** Parses a run of ASCII digits the same way as Integer.parseInt, without creating a substring. */
+	private int parseInt(int start, int end)
+	{
+		if (start >= end)
+			throw new NumberFormatException("For input string: \"\"");
+
+		int value = 0;
+		for (int i = start; i < end; i++)
+		{
+			char ch = line.charAt(i);
+			if (!isAsciiDigit(ch) || value > (Integer.MAX_VALUE - (ch - '0')) / 10)
+				throw new NumberFormatException("For input string: \"" + line.substring(start, end) + "\"");
+			value = value * 10 + (ch - '0');
+		}
+		return value;
+	}
+
+	public TokenType getType()
+	{
+		return type;
+	}
+
+	public int getLineNumber()
+	{
+		return lineNumber;
+	}
+
+	/** The column where the current token starts */
+	public int getColumn()
+	{
+		return column;
+	}
+
+	/** The column just after the end of the current token */
+	public int getEndColumn()
+	{
+		return pos;
+	}
+
+	/** The end of the line (excluding any comment) */
+	public int getLineEnd()
+	{
+		return lineEnd;
+	}
+
+	/** The character of an {@link TokenType#UNKNOWN} or {@link TokenType#WHITESPACE} token */
+	public char getChar()
+	{
+		return line.charAt(column);
+	}
+
+	/** True if the bar line was written as <code>|]</code> */
+	public boolean isBarEnd()
+	{
+		return barIsEnd;
+	}
+
+	/** True if the decoration has a closing <code>+</code> */
+	public boolean isDecorationClosed()
+	{
+		return decorationEnd >= 0;
+	}
+
+	/** The text between the <code>+</code> signs of a decoration */
+	public String getDecoration()
+	{
+		return line.substring(column + 1, decorationEnd);
+	}
+
+	/** The number of notes in a tuplet, e.g. 3 for a triplet */
+	public int getTupletP()
+	{
+		return tupletP;
+	}
+
+	/** The number of <code>_</code> or <code>^</code> characters, or 1 for <code>=</code>, or 0 */
+	public int getAccidentalCount()
+	{
+		return accidentalCount;
+	}
+
+	/** One of <code>_</code>, <code>^</code> or <code>=</code>. Only valid if there is an accidental. */
+	public char getAccidental()
+	{
+		return accidental;
+	}
+
+	public char getNoteLetter()
+	{
+		return noteLetter;
+	}
+
+	public boolean isRest()
+	{
+		return noteLetter == 'z' || noteLetter == 'x';
+	}
+
+	public int getOctaveColumn()
+	{
+		return octaveColumn;
+	}
+
+	/** The number of octave marks; positive for <code>'</code> and negative for <code>,</code> */
+	public int getOctaveDelta()
+	{
+		return (octaveChar == '\'') ? octaveCount : -octaveCount;
+	}
+
+	public int getOctaveMarkCount()
+	{
+		return octaveCount;
+	}
+
+	/** The numerator of the note length, or 1 if it wasn't specified */
+	public int getLengthNumerator()
+	{
+		return (numeratorStart == numeratorEnd) ? 1 : parseInt(numeratorStart, numeratorEnd);
+	}
+
+	/** The denominator of the note length: 2 for <code>/</code>, 4 for <code>//</code>, N for <code>/N</code> */
+	public int getLengthDenominator()
+	{
+		int length = denominatorEnd - denominatorStart;
+		if (length == 0)
+			return 1;
+		if (length == 1)
+			return 2;
+		if (length == 2 && line.charAt(denominatorStart + 1) == '/')
+			return 4;
+		return parseInt(denominatorStart + 1, denominatorEnd);
+	}
+
+	public int getBrokenRhythmColumn()
+	{
+		return brokenRhythmColumn;
+	}
+
+	/** The number of <code>&gt;</code> or <code>&lt;</code> characters, or 0 if there's no broken rhythm */
+	public int getBrokenRhythmCount()
+	{
+		return brokenRhythmCount;
+	}
+
+	/** True for <code>&gt;</code>, false for <code>&lt;</code> */
+	public boolean isBrokenRhythmDotted()
+	{
+		return brokenRhythmChar == '>';
+	}
+
+	public String getBrokenRhythm()
+	{
+		return line.substring(brokenRhythmColumn, brokenRhythmColumn + brokenRhythmCount);
+	}
+
+	public boolean isTied()
+	{
+		return tied;
+	}
+}
@@ -23,6 +23,7 @@ class TuneInfo
 	private int primaryTempoBPM;
 	private NavigableMap<Long, Integer> curPartTempoMap = new TreeMap<Long, Integer>(); // Tick -> BPM
 	private NavigableMap<Long, Integer> allPartsTempoMap = new TreeMap<Long, Integer>(); // Tick -> BPM
+	private int firstPrimaryTempoBPM = 0; // The first "Q:" tempo, which is the tempo at tick 0 by default
 	private LotroInstrument instrument;
 	private Dynamics dynamics;
 	private boolean compoundMeter;
@@ -43,6 +44,26 @@ class TuneInfo
 		compoundMeter = false;
 	}
 
+	/**
+	 * Creates a copy of the state that carries over from one part to the next (key, meter, tempo,
+	 * etc.), so that a part can be parsed separately from the parts before it. Tempo changes are not
+	 * copied.
+	 */
+	public TuneInfo(TuneInfo other)
+	{
+		partNumber = other.partNumber;
+		title = other.title;
+		titleIsFromExtendedInfo = other.titleIsFromExtendedInfo;
+		key = other.key;
+		ppqn = other.ppqn;
+		primaryTempoBPM = other.primaryTempoBPM;
+		instrument = other.instrument;
+		dynamics = other.dynamics;
+		compoundMeter = other.compoundMeter;
+		meterNumerator = other.meterNumerator;
+		meterDenominator = other.meterDenominator;
+	}
+
 	public void newPart(int partNumber)
 	{
 		this.partNumber = partNumber;
@@ -148,8 +169,8 @@ class TuneInfo
 	public void setPrimaryTempoBPM(String str)
 	{
 		this.primaryTempoBPM = parseTempo(str);
-		if (!allPartsTempoMap.containsKey(0L))
-			allPartsTempoMap.put(0L, this.primaryTempoBPM);
+		if (firstPrimaryTempoBPM == 0)
+			firstPrimaryTempoBPM = this.primaryTempoBPM;
 		if (!curPartTempoMap.containsKey(0L))
 			curPartTempoMap.put(0L, this.primaryTempoBPM);
 	}
@@ -171,7 +192,23 @@ class TuneInfo
 
 	public NavigableMap<Long, Integer> getAllPartsTempoMap()
 	{
-		return allPartsTempoMap;
+		if (firstPrimaryTempoBPM == 0 || allPartsTempoMap.containsKey(0L))
+			return allPartsTempoMap;
+
+		NavigableMap<Long, Integer> tempoMap = new TreeMap<Long, Integer>(allPartsTempoMap);
+		tempoMap.put(0L, firstPrimaryTempoBPM);
+		return tempoMap;
+	}
+
+	/**
+	 * Adds the tempo changes from a part that was parsed separately. Parts must be added in order,
+	 * since later tempo changes replace earlier ones at the same tick.
+	 */
+	public void addAllPartsTempoEvents(TuneInfo part)
+	{
+		allPartsTempoMap.putAll(part.allPartsTempoMap);
+		if (firstPrimaryTempoBPM == 0)
+			firstPrimaryTempoBPM = part.firstPrimaryTempoBPM;
 	}
 
 	private int parseDivisor(String str)
@@ -198,41 +235,37 @@ class TuneInfo
 		return denominator;
 	}
 
-	private static Map<String, LotroInstrument> instrNicknames = null;
-	private static Pattern instrRegex = null;
-
-	public static LotroInstrument findInstrumentName(String str, LotroInstrument defaultInstrument)
+	// Initialized up front, since parts may be parsed on several threads at once
+	private static final Map<String, LotroInstrument> instrNicknames = new HashMap<String, LotroInstrument>();
+	private static final Pattern instrRegex;
+	static
 	{
-		if (instrNicknames == null)
+		// Must be all-caps
+		instrNicknames.put("BANJO", LotroInstrument.LUTE);
+		instrNicknames.put("GUITAR", LotroInstrument.LUTE);
+		instrNicknames.put("DRUM", LotroInstrument.DRUMS);
+		instrNicknames.put("BASS", LotroInstrument.THEORBO);
+		instrNicknames.put("THEO", LotroInstrument.THEORBO);
+		instrNicknames.put("BAGPIPES", LotroInstrument.BAGPIPE);
+		instrNicknames.put("MOORCOWBELL", LotroInstrument.MOOR_COWBELL);
+		instrNicknames.put("MOOR COWBELL", LotroInstrument.MOOR_COWBELL);
+		instrNicknames.put("MORE COWBELL", LotroInstrument.MOOR_COWBELL);
+
+		String regex = "";
+		for (LotroInstrument instr : LotroInstrument.values())
 		{
-			instrNicknames = new HashMap<String, LotroInstrument>();
-			// Must be all-caps
-			instrNicknames.put("BANJO", LotroInstrument.LUTE);
-			instrNicknames.put("GUITAR", LotroInstrument.LUTE);
-			instrNicknames.put("DRUM", LotroInstrument.DRUMS);
-			instrNicknames.put("BASS", LotroInstrument.THEORBO);
-			instrNicknames.put("THEO", LotroInstrument.THEORBO);
-			instrNicknames.put("BAGPIPES", LotroInstrument.BAGPIPE);
-			instrNicknames.put("MOORCOWBELL", LotroInstrument.MOOR_COWBELL);
-			instrNicknames.put("MOOR COWBELL", LotroInstrument.MOOR_COWBELL);
-			instrNicknames.put("MORE COWBELL", LotroInstrument.MOOR_COWBELL);
+			regex += "|" + instr;
 		}
-
-		if (instrRegex == null)
+		for (String nick : instrNicknames.keySet())
 		{
-			String regex = "";
-			for (LotroInstrument instr : LotroInstrument.values())
-			{
-				regex += "|" + instr;
-			}
-			for (String nick : instrNicknames.keySet())
-			{
-				regex += "|" + nick;
-			}
-			regex = "\\b(" + regex.substring(1) + ")\\b";
-			instrRegex = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+			regex += "|" + nick;
 		}
+		regex = "\\b(" + regex.substring(1) + ")\\b";
+		instrRegex = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+	}
 
+	public static LotroInstrument findInstrumentName(String str, LotroInstrument defaultInstrument)
+	{
 		Matcher m = instrRegex.matcher(str);
 		if (m.find())
 		{
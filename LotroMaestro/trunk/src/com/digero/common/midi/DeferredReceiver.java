@@ -0,0 +1,183 @@
+package com.digero.common.midi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.swing.SwingUtilities;
+
+/**
+ * A receiver that is opened on a background thread, so that creating a sequencer doesn't have to
+ * wait for the synthesizer to load its instruments and open its audio line. Messages that are sent
+ * before the receiver is ready are queued, and sent as soon as it opens; sending never waits for
+ * it. If it fails to open, the messages are dropped, and {@link #getReceiver()} throws the
+ * exception that it failed with.
+ */
+public class DeferredReceiver implements Receiver
+{
+	private final FutureTask<Receiver> opener;
+	// Messages sent before the receiver opened. Null once it's done opening.
+	private List<MidiMessage> pending = new ArrayList<MidiMessage>();
+	private List<Runnable> readyCallbacks = new ArrayList<Runnable>();
+	private boolean closed = false;
+
+	public DeferredReceiver(String threadName, Callable<Receiver> openReceiver)
+	{
+		opener = new FutureTask<Receiver>(openReceiver)
+		{
+			@Override protected void done()
+			{
+				onOpened();
+			}
+		};
+		Thread thread = new Thread(opener, threadName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** True once the receiver has finished opening, or has failed to open. */
+	public boolean isReady()
+	{
+		return opener.isDone();
+	}
+
+	/**
+	 * Runs the callback on the event dispatch thread once the receiver has finished opening, or has
+	 * failed to open. If it's already done, the callback is still run later rather than right away.
+	 */
+	public void runWhenReady(Runnable callback)
+	{
+		synchronized (this)
+		{
+			if (readyCallbacks != null)
+			{
+				readyCallbacks.add(callback);
+				return;
+			}
+		}
+		SwingUtilities.invokeLater(callback);
+	}
+
+	/** Waits for the receiver to finish opening, and returns it. */
+	public Receiver getReceiver() throws MidiUnavailableException
+	{
+		boolean interrupted = false;
+		try
+		{
+			while (true)
+			{
+				try
+				{
+					return opener.get();
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof MidiUnavailableException)
+				throw (MidiUnavailableException) cause;
+
+			MidiUnavailableException mue = new MidiUnavailableException(cause.toString());
+			mue.initCause(cause);
+			throw mue;
+		}
+		finally
+		{
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Gets the receiver once it has opened, or null if it isn't ready or failed to open. */
+	private Receiver getOpenedReceiver()
+	{
+		if (!isReady())
+			return null;
+
+		try
+		{
+			return getReceiver();
+		}
+		catch (MidiUnavailableException e)
+		{
+			return null;
+		}
+	}
+
+	/** Called on the opening thread once the receiver has opened or failed to open. */
+	private void onOpened()
+	{
+		Receiver receiver = getOpenedReceiver();
+		List<Runnable> callbacks;
+		synchronized (this)
+		{
+			if (receiver != null)
+			{
+				if (closed)
+				{
+					receiver.close();
+				}
+				else
+				{
+					// The queued messages are out of date, so play them right away
+					for (MidiMessage message : pending)
+						receiver.send(message, -1);
+				}
+			}
+			pending = null;
+
+			callbacks = readyCallbacks;
+			readyCallbacks = null;
+		}
+
+		for (Runnable callback : callbacks)
+			SwingUtilities.invokeLater(callback);
+	}
+
+	@Override public void send(MidiMessage message, long timeStamp)
+	{
+		synchronized (this)
+		{
+			if (pending != null)
+			{
+				// The sender may reuse the message object
+				if (!closed)
+					pending.add((MidiMessage) message.clone());
+				return;
+			}
+		}
+
+		Receiver receiver = getOpenedReceiver();
+		if (receiver != null)
+			receiver.send(message, timeStamp);
+		// Otherwise there's nothing to play the message on
+	}
+
+	@Override public void close()
+	{
+		synchronized (this)
+		{
+			closed = true;
+			if (pending != null)
+			{
+				// It will be closed as soon as it opens
+				pending.clear();
+				return;
+			}
+		}
+
+		Receiver receiver = getOpenedReceiver();
+		if (receiver != null)
+			receiver.close();
+	}
+}
@@ -7,6 +7,7 @@ public interface IMidiConstants
 	public static final int META_TRACK_NAME = 0x03;
 	public static final int META_INSTRUMENT = 0x04;
 	public static final int META_PROGRAM_NAME = 0x08;
+	public static final int META_PORT = 0x21;
 	public static final int META_END_OF_TRACK = 0x2F;
 	public static final int META_TEMPO = 0x51;
 	public static final int META_TIME_SIGNATURE = 0x58;
@@ -23,6 +24,8 @@ public interface IMidiConstants
 
 	public static final int DRUM_CHANNEL = 9;
 	public static final int CHANNEL_COUNT = 16;
+	public static final int PORT_COUNT = 4;
+	public static final int MAX_CHANNEL_COUNT = CHANNEL_COUNT * PORT_COUNT;
 	public static final int LOWEST_NOTE_ID = 0;
 	public static final int HIGHEST_NOTE_ID = 127;
 	public static final int NOTE_COUNT = HIGHEST_NOTE_ID - LOWEST_NOTE_ID + 1;
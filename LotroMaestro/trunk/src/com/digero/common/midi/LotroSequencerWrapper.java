@@ -1,40 +1,92 @@
 package com.digero.common.midi;
 
-import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
-import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Receiver;
 import javax.sound.midi.Synthesizer;
 
+/**
+ * A sequencer that plays through a synthesizer with the LOTRO instruments. The synthesizer is
+ * shared by all of the LotroSequencerWrappers, and is loaded on a background thread, so that the
+ * application's window can be shown while the soundbank is read.
+ */
 public class LotroSequencerWrapper extends NoteFilterSequencerWrapper
 {
-	private static Synthesizer lotroSynth;
-	private static String loadLotroSynthError;
+	private static FutureTask<Synthesizer> lotroSynthLoader;
+	private static volatile String loadLotroSynthError;
 
-	static
+	/**
+	 * Starts loading the LOTRO instruments and opening the synthesizer on a background thread, if
+	 * that hasn't already been started. Call this as early as possible during startup.
+	 */
+	public static synchronized void startLoadingLotroSynth()
 	{
-		try
+		if (lotroSynthLoader != null)
+			return;
+
+		lotroSynthLoader = new FutureTask<Synthesizer>(new Callable<Synthesizer>()
+		{
+			@Override public Synthesizer call() throws Exception
+			{
+				return SynthesizerFactory.getLotroSynthesizer();
+			}
+		});
+		Thread thread = new Thread(lotroSynthLoader, "Load LOTRO instruments");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Waits for the LOTRO synthesizer to load. Returns null if it failed to load. The wait doesn't
+	 * hold the class's lock, so it doesn't block {@link #startLoadingLotroSynth()}.
+	 */
+	private static Synthesizer getLotroSynth()
+	{
+		FutureTask<Synthesizer> loader;
+		synchronized (LotroSequencerWrapper.class)
 		{
-			lotroSynth = SynthesizerFactory.getLotroSynthesizer();
+			startLoadingLotroSynth();
+			loader = lotroSynthLoader;
 		}
-		catch (InvalidMidiDataException e)
+
+		boolean interrupted = false;
+		try
 		{
-			loadLotroSynthError = e.getMessage();
+			while (true)
+			{
+				try
+				{
+					return loader.get();
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
 		}
-		catch (IOException e)
+		catch (ExecutionException e)
 		{
-			loadLotroSynthError = e.getMessage();
+			loadLotroSynthError = e.getCause().getMessage();
+			return null;
 		}
-		catch (MidiUnavailableException e)
+		finally
 		{
-			loadLotroSynthError = e.getMessage();
+			if (interrupted)
+				Thread.currentThread().interrupt();
 		}
 	}
 
+	/**
+	 * Returns the reason that the LOTRO instruments couldn't be loaded, or null if they loaded
+	 * successfully. This waits for them to finish loading.
+	 */
 	public static String getLoadLotroSynthError()
 	{
+		getLotroSynth();
 		return loadLotroSynthError;
 	}
 
@@ -42,13 +94,37 @@ public class LotroSequencerWrapper extends NoteFilterSequencerWrapper
 	{
 	}
 
+	/** True if the LOTRO instruments loaded. This waits for them to finish loading. */
 	public boolean isUsingLotroInstruments()
 	{
-		return lotroSynth != null;
+		return getLotroSynth() != null;
+	}
+
+	/**
+	 * The LOTRO synthesizer has channels for every port. If it fails to load, the default
+	 * synthesizer only has 16 channels. This is checked when playback starts, by which time the
+	 * synthesizer has finished loading.
+	 */
+	@Override protected boolean canPlayPorts()
+	{
+		return !hasLotroSynthFailed();
+	}
+
+	/** True if the LOTRO synthesizer has finished loading, and failed to. This doesn't wait. */
+	private static synchronized boolean hasLotroSynthFailed()
+	{
+		return lotroSynthLoader != null && lotroSynthLoader.isDone() && getLotroSynth() == null;
 	}
 
 	@Override protected Receiver createReceiver() throws MidiUnavailableException
 	{
-		return (lotroSynth != null) ? lotroSynth.getReceiver() : MidiSystem.getReceiver();
+		return new DeferredReceiver("Open LOTRO synthesizer", new Callable<Receiver>()
+		{
+			@Override public Receiver call() throws MidiUnavailableException
+			{
+				Synthesizer lotroSynth = getLotroSynth();
+				return (lotroSynth != null) ? lotroSynth.getReceiver() : MidiSystem.getReceiver();
+			}
+		});
 	}
 }
@@ -7,6 +7,8 @@ import javax.sound.midi.MetaMessage;
 import javax.sound.midi.MidiEvent;
 import javax.sound.midi.ShortMessage;
 
+import com.sun.media.sound.SoftShortMessage;
+
 /**
  * Provides static methods to create MidiEvents.
  */
@@ -53,12 +55,43 @@ public class MidiFactory implements IMidiConstants
 		}
 	}
 
+	/**
+	 * Creates a message for any channel up to {@link #MAX_CHANNEL_COUNT}. Messages for the channels
+	 * past the first {@link #CHANNEL_COUNT} can only be sent directly to a synthesizer that was
+	 * opened with that many channels; to play them from a sequence, use {@link #createPortEvent}.
+	 */
+	public static ShortMessage createChannelMessage(int command, int channel, int data1, int data2)
+			throws InvalidMidiDataException
+	{
+		ShortMessage msg = (channel < CHANNEL_COUNT) ? new ShortMessage() : new SoftShortMessage();
+		msg.setMessage(command, channel, data1, data2);
+		return msg;
+	}
+
+	/**
+	 * Puts the track's channel messages on the given MIDI port, which adds {@link #CHANNEL_COUNT}
+	 * channels for each port. This needs to come before the track's channel messages.
+	 */
+	public static MidiEvent createPortEvent(int port)
+	{
+		try
+		{
+			byte[] data = new byte[] { (byte) port };
+			MetaMessage msg = new MetaMessage();
+			msg.setMessage(META_PORT, data, data.length);
+			return new MidiEvent(msg, 0);
+		}
+		catch (InvalidMidiDataException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
 	public static MidiEvent createProgramChangeEvent(int patch, int channel, long ticks)
 	{
 		try
 		{
-			ShortMessage msg = new ShortMessage();
-			msg.setMessage(ShortMessage.PROGRAM_CHANGE, channel, patch, 0);
+			ShortMessage msg = createChannelMessage(ShortMessage.PROGRAM_CHANGE, channel, patch, 0);
 			return new MidiEvent(msg, ticks);
 		}
 		catch (InvalidMidiDataException e)
@@ -76,8 +109,7 @@ public class MidiFactory implements IMidiConstants
 	{
 		try
 		{
-			ShortMessage msg = new ShortMessage();
-			msg.setMessage(ShortMessage.NOTE_ON, channel, id, velocity);
+			ShortMessage msg = createChannelMessage(ShortMessage.NOTE_ON, channel, id, velocity);
 			return new MidiEvent(msg, ticks);
 		}
 		catch (InvalidMidiDataException e)
@@ -95,8 +127,7 @@ public class MidiFactory implements IMidiConstants
 	{
 		try
 		{
-			ShortMessage msg = new ShortMessage();
-			msg.setMessage(ShortMessage.NOTE_OFF, channel, id, velocity);
+			ShortMessage msg = createChannelMessage(ShortMessage.NOTE_OFF, channel, id, velocity);
 			return new MidiEvent(msg, ticks);
 		}
 		catch (InvalidMidiDataException e)
@@ -109,8 +140,7 @@ public class MidiFactory implements IMidiConstants
 	{
 		try
 		{
-			ShortMessage msg = new ShortMessage();
-			msg.setMessage(ShortMessage.CONTROL_CHANGE, channel, PAN_CONTROL, value);
+			ShortMessage msg = createChannelMessage(ShortMessage.CONTROL_CHANGE, channel, PAN_CONTROL, value);
 			return new MidiEvent(msg, 0);
 		}
 		catch (InvalidMidiDataException e)
@@ -126,8 +156,26 @@ public class MidiFactory implements IMidiConstants
 			if (volume < 0 || volume > Byte.MAX_VALUE)
 				throw new IllegalArgumentException();
 
-			ShortMessage msg = new ShortMessage();
-			msg.setMessage(ShortMessage.CONTROL_CHANGE, channel, CHANNEL_VOLUME_CONTROLLER_COARSE, volume);
+			ShortMessage msg = createChannelMessage(ShortMessage.CONTROL_CHANGE, channel,
+					CHANNEL_VOLUME_CONTROLLER_COARSE, volume);
+			return new MidiEvent(msg, ticks);
+		}
+		catch (InvalidMidiDataException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Adding this to a Track extends the track to the given tick, if it's later than the track's
+	 * current end. The event itself isn't added.
+	 */
+	public static MidiEvent createEndOfTrackEvent(long ticks)
+	{
+		try
+		{
+			MetaMessage msg = new MetaMessage();
+			msg.setMessage(META_END_OF_TRACK, new byte[0], 0);
 			return new MidiEvent(msg, ticks);
 		}
 		catch (InvalidMidiDataException e)
@@ -0,0 +1,85 @@
+package com.digero.common.midi;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+/**
+ * A MIDI sequence can only address 16 channels, and each part of a song needs its own channel. To
+ * play more parts than that, the tracks past the first port's channels start with a MIDI port meta
+ * event (see {@link MidiFactory#createPortEvent(int)}), and their channel messages play on channel
+ * <code>port * 16 + channel</code> of a synthesizer that has been opened with
+ * {@link IMidiConstants#MAX_CHANNEL_COUNT} channels. Since one synthesizer plays all of the ports,
+ * the parts stay in sync to the sample and are mixed into the same audio line.
+ */
+public class MidiPorts implements IMidiConstants
+{
+	/**
+	 * The highest track number that can be given a channel. Each port has a channel for a part
+	 * except for the drum channel, and track 0 has the song's metadata.
+	 */
+	public static final int MAX_TRACK_NUMBER = PORT_COUNT * (CHANNEL_COUNT - 1) - 1;
+
+	/** The port that the part in the given track plays on */
+	public static int getTrackPort(int trackNumber)
+	{
+		return trackNumber / (CHANNEL_COUNT - 1);
+	}
+
+	/** The channel within its port that the part in the given track plays on */
+	public static int getTrackChannel(int trackNumber)
+	{
+		int channel = trackNumber % (CHANNEL_COUNT - 1);
+		if (channel < DRUM_CHANNEL)
+			return channel;
+
+		return channel + 1;
+	}
+
+	/**
+	 * If the message is a MIDI port meta event, returns its port, or -1 if it isn't. Ports past the
+	 * last one that the synthesizer has are ignored, the same as a player that doesn't support ports
+	 * would do, so their tracks play on the first port.
+	 */
+	public static int getPort(MidiMessage msg)
+	{
+		if (!(msg instanceof MetaMessage) || ((MetaMessage) msg).getType() != META_PORT)
+			return -1;
+
+		byte[] data = ((MetaMessage) msg).getData();
+		if (data.length == 0)
+			return -1;
+
+		int port = data[0] & 0x7F;
+		return (port < PORT_COUNT) ? port : 0;
+	}
+
+	/** True if the message is for a channel, rather than being a system message */
+	public static boolean isChannelMessage(MidiMessage msg)
+	{
+		return (msg instanceof ShortMessage) && msg.getStatus() < SysexMessage.SYSTEM_EXCLUSIVE;
+	}
+
+	/**
+	 * Converts a channel message from a track on the given port to the synthesizer's channel for
+	 * that port.
+	 */
+	public static ShortMessage toSynthChannel(ShortMessage msg, int port)
+	{
+		if (port == 0)
+			return msg;
+
+		try
+		{
+			return MidiFactory.createChannelMessage(msg.getCommand(), port * CHANNEL_COUNT + msg.getChannel(),
+					msg.getData1(), msg.getData2());
+		}
+		catch (InvalidMidiDataException e)
+		{
+			// The message was already valid
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -25,6 +25,9 @@ public class NoteFilterSequencerWrapper extends SequencerWrapper
 		{
 			sequencer.setTrackSolo(track, solo);
 			filter.setNoteSolo(noteId, solo);
+			// The sequencer may have sent note ons that the synthesizer hasn't played yet, so it stops
+			// the notes rather than the filter, to have the note offs come after them.
+			sequencer.stopNotes(filter.getInactiveNotes());
 			fireChangeEvent(SequencerProperty.TRACK_ACTIVE);
 		}
 	}
@@ -2,7 +2,6 @@ package com.digero.common.midi;
 
 import java.util.BitSet;
 
-import javax.sound.midi.MidiEvent;
 import javax.sound.midi.MidiMessage;
 import javax.sound.midi.Receiver;
 import javax.sound.midi.ShortMessage;
@@ -13,7 +12,7 @@ public class NoteFilterTransceiver implements Transceiver, IMidiConstants, IComp
 {
 	private Receiver receiver = null;
 	private boolean hasAbcPart = false;
-	private BitSet[] notesOn = new BitSet[CHANNEL_COUNT];
+	private BitSet[] notesOn = new BitSet[MAX_CHANNEL_COUNT];
 	private BitSet solos = new BitSet();
 
 	public void onAbcPartChanged(boolean hasAbcPart)
@@ -29,8 +28,22 @@ public class NoteFilterTransceiver implements Transceiver, IMidiConstants, IComp
 	public void setNoteSolo(int drumId, boolean solo)
 	{
 		solos.set(drumId, solo);
-		if (solo)
-			turnOffInactiveNotes();
+	}
+
+	/**
+	 * Gets the IDs of the notes that are being filtered out. The filter doesn't stop the ones that
+	 * are already sounding; the sequencer does that (see {@link NoteFilterSequencerWrapper}), so that
+	 * the note offs are scheduled after the note ons that it has already sent.
+	 */
+	public BitSet getInactiveNotes()
+	{
+		BitSet inactive = new BitSet();
+		if (hasAbcPart && !solos.isEmpty())
+		{
+			inactive.set(0, NOTE_COUNT);
+			inactive.andNot(solos);
+		}
+		return inactive;
 	}
 
 	public boolean getNoteSolo(int noteId)
@@ -79,29 +92,6 @@ public class NoteFilterTransceiver implements Transceiver, IMidiConstants, IComp
 		notesOn[channel].set(noteId, on);
 	}
 
-	private void turnOffInactiveNotes()
-	{
-		if (receiver == null)
-			return;
-
-		for (int c = 0; c < CHANNEL_COUNT; c++)
-		{
-			BitSet set = notesOn[c];
-			if (set == null)
-				continue;
-
-			for (int noteId = set.nextSetBit(0); noteId >= 0; noteId = set.nextSetBit(noteId + 1))
-			{
-				if (!isNoteActive(noteId))
-				{
-					set.clear(noteId);
-					MidiEvent evt = MidiFactory.createNoteOffEvent(noteId, c, -1);
-					receiver.send(evt.getMessage(), evt.getTick());
-				}
-			}
-		}
-	}
-
 	@Override public void send(MidiMessage message, long timeStamp)
 	{
 		if (receiver == null)
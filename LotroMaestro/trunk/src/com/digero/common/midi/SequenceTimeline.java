@@ -0,0 +1,387 @@
+package com.digero.common.midi;
+
+import java.util.Arrays;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import com.sun.media.sound.MidiUtils;
+
+/**
+ * The messages of all of a sequence's tracks merged into a single list in playback order, each
+ * with its time in microseconds. This is for sending a whole sequence to a synthesizer ahead of
+ * time, such as when rendering it to a file, and can be sent as many times as needed without
+ * merging the tracks again.
+ * <p>
+ * Events at the same tick are kept in track order, and in their original order within a track.
+ * Meta messages are only used for their tempo changes and MIDI ports, and aren't included in the
+ * list. The channel messages of tracks on other ports are moved to the synthesizer's channels for
+ * those ports (see {@link MidiPorts}).
+ */
+public class SequenceTimeline
+{
+	private static final int CHANNEL_COUNT = IMidiConstants.MAX_CHANNEL_COUNT;
+	private static final int NOTE_COUNT = 128;
+
+	private final MidiMessage[] messages;
+	private final long[] micros;
+	private final long[] ticks;
+	// The channel of each message, or -1 for system messages
+	private final byte[] channels;
+	// The track that each message came from, or -1 for the notes that are stopped at the end
+	private final short[] trackNumbers;
+	private final int size;
+	private final long endMicros;
+
+	public SequenceTimeline(Sequence seq)
+	{
+		this(seq, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a timeline for the part of the sequence from startTick up to (but not including)
+	 * endTick, with times measured from startTick. The program changes, controllers and other
+	 * messages from before the start are chased: they're sent at time 0, without any of the notes.
+	 * Notes that are still playing at endTick are stopped there.
+	 */
+	public SequenceTimeline(Sequence seq, long startTick, long endTick)
+	{
+		Track[] tracks = seq.getTracks();
+		int eventCount = 0;
+		for (Track track : tracks)
+			eventCount += track.size();
+
+		// Leave room to stop every note on every channel at the end
+		boolean stopNotes = (endTick != Long.MAX_VALUE);
+		if (stopNotes)
+			eventCount += CHANNEL_COUNT * NOTE_COUNT;
+
+		messages = new MidiMessage[eventCount];
+		micros = new long[eventCount];
+		ticks = new long[eventCount];
+		channels = new byte[eventCount];
+		trackNumbers = new short[eventCount];
+
+		// A min-heap of the tracks that have events left, ordered by the tick of each track's next
+		// event and then by track index.
+		int[] trackPos = new int[tracks.length];
+		int[] trackPort = new int[tracks.length];
+		long[] nextTick = new long[tracks.length];
+		int[] heap = new int[tracks.length];
+		int heapSize = 0;
+		for (int i = 0; i < tracks.length; i++)
+		{
+			if (tracks[i].size() > 0)
+			{
+				nextTick[i] = tracks[i].get(0).getTick();
+				heap[heapSize] = i;
+				siftUp(heap, heapSize++, nextTick);
+			}
+		}
+
+		// The number of times each note has been started and not stopped, by channel
+		int[] soundingNotes = stopNotes ? new int[CHANNEL_COUNT * NOTE_COUNT] : null;
+
+		float divisionType = seq.getDivisionType();
+		int resolution = seq.getResolution();
+		int mpq = 500000;
+		long lastTick = 0;
+		long time = 0;
+		long startMicros = -1;
+		int count = 0;
+		while (heapSize > 0)
+		{
+			int iTrack = heap[0];
+			Track track = tracks[iTrack];
+			MidiEvent evt = track.get(trackPos[iTrack]);
+
+			long tick = evt.getTick();
+			if (tick >= endTick)
+				break;
+
+			if (++trackPos[iTrack] < track.size())
+			{
+				nextTick[iTrack] = track.get(trackPos[iTrack]).getTick();
+			}
+			else
+			{
+				heap[0] = heap[--heapSize];
+			}
+			siftDown(heap, heapSize, nextTick);
+
+			if (startMicros < 0 && tick >= startTick)
+				startMicros = timeAtTick(startTick, lastTick, time, mpq, divisionType, resolution);
+
+			// The time is accumulated event by event (rather than computed from the start of the
+			// current tempo) so that it is rounded the same way it always has been.
+			time = timeAtTick(tick, lastTick, time, mpq, divisionType, resolution);
+			lastTick = tick;
+
+			MidiMessage msg = evt.getMessage();
+			if (msg instanceof MetaMessage)
+			{
+				if (divisionType == Sequence.PPQ && MidiUtils.isMetaTempo(msg))
+				{
+					int newMpq = MidiUtils.getTempoMPQ(msg);
+					if (newMpq > 0)
+						mpq = newMpq;
+				}
+				else if (MidiPorts.getPort(msg) >= 0)
+				{
+					trackPort[iTrack] = MidiPorts.getPort(msg);
+				}
+				continue;
+			}
+
+			int channel = -1;
+			if (MidiPorts.isChannelMessage(msg))
+			{
+				msg = MidiPorts.toSynthChannel((ShortMessage) msg, trackPort[iTrack]);
+				channel = ((ShortMessage) msg).getChannel();
+			}
+
+			if (tick < startTick)
+			{
+				if (isNoteMessage(msg))
+					continue;
+			}
+			else if (stopNotes && channel >= 0)
+			{
+				ShortMessage m = (ShortMessage) msg;
+				int noteIndex = channel * NOTE_COUNT + m.getData1();
+				if (m.getCommand() == ShortMessage.NOTE_ON && m.getData2() > 0)
+					soundingNotes[noteIndex]++;
+				else if (isNoteOff(m) && soundingNotes[noteIndex] > 0)
+					soundingNotes[noteIndex]--;
+			}
+
+			messages[count] = msg;
+			micros[count] = (tick < startTick) ? 0 : time;
+			ticks[count] = tick;
+			channels[count] = (byte) channel;
+			trackNumbers[count] = (short) iTrack;
+			count++;
+		}
+
+		long endTime = time;
+		if (heapSize > 0)
+			endTime = timeAtTick(endTick, lastTick, time, mpq, divisionType, resolution);
+		if (startMicros < 0)
+			startMicros = Math.min(endTime, timeAtTick(startTick, lastTick, time, mpq, divisionType, resolution));
+
+		if (startMicros > 0)
+		{
+			for (int i = 0; i < count; i++)
+				micros[i] = Math.max(0, micros[i] - startMicros);
+		}
+		endMicros = endTime - startMicros;
+
+		if (stopNotes)
+		{
+			for (int i = 0; i < soundingNotes.length; i++)
+			{
+				if (soundingNotes[i] > 0)
+				{
+					int channel = i / NOTE_COUNT;
+					messages[count] = MidiFactory.createNoteOffEvent(i % NOTE_COUNT, channel, 0).getMessage();
+					micros[count] = endMicros;
+					ticks[count] = endTick;
+					channels[count] = (byte) channel;
+					trackNumbers[count] = -1;
+					count++;
+				}
+			}
+		}
+
+		size = count;
+	}
+
+	private static long timeAtTick(long tick, long lastTick, long lastTime, int mpq, float divisionType,
+			int resolution)
+	{
+		if (divisionType == Sequence.PPQ)
+			return lastTime + ((tick - lastTick) * mpq) / resolution;
+		else
+			return (long) ((tick * 1000000.0 * divisionType) / resolution);
+	}
+
+	private static boolean isNoteMessage(MidiMessage msg)
+	{
+		if (!(msg instanceof ShortMessage))
+			return false;
+		int command = ((ShortMessage) msg).getCommand();
+		return command == ShortMessage.NOTE_ON || command == ShortMessage.NOTE_OFF
+				|| command == ShortMessage.POLY_PRESSURE;
+	}
+
+	private static boolean isNoteOff(ShortMessage m)
+	{
+		int command = m.getCommand();
+		return command == ShortMessage.NOTE_OFF || (command == ShortMessage.NOTE_ON && m.getData2() == 0);
+	}
+
+	private static void siftUp(int[] heap, int index, long[] nextTick)
+	{
+		int value = heap[index];
+		while (index > 0)
+		{
+			int parent = (index - 1) / 2;
+			if (!isBefore(value, heap[parent], nextTick))
+				break;
+			heap[index] = heap[parent];
+			index = parent;
+		}
+		heap[index] = value;
+	}
+
+	private static void siftDown(int[] heap, int heapSize, long[] nextTick)
+	{
+		if (heapSize == 0)
+			return;
+
+		int value = heap[0];
+		int index = 0;
+		while (true)
+		{
+			int child = index * 2 + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && isBefore(heap[child + 1], heap[child], nextTick))
+				child++;
+			if (!isBefore(heap[child], value, nextTick))
+				break;
+			heap[index] = heap[child];
+			index = child;
+		}
+		heap[index] = value;
+	}
+
+	private static boolean isBefore(int trackA, int trackB, long[] nextTick)
+	{
+		return nextTick[trackA] < nextTick[trackB] || (nextTick[trackA] == nextTick[trackB] && trackA < trackB);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public MidiMessage getMessage(int index)
+	{
+		return messages[index];
+	}
+
+	public long getMicros(int index)
+	{
+		return micros[index];
+	}
+
+	/** Gets the tick of the message's event in the sequence. */
+	public long getTick(int index)
+	{
+		return ticks[index];
+	}
+
+	/** Gets the channel of the message at the given index, or -1 if it isn't a channel message. */
+	public int getChannel(int index)
+	{
+		return channels[index];
+	}
+
+	/**
+	 * Gets the index of the track that the message at the given index came from, or -1 if it's one
+	 * of the note off messages that stop the notes at the end of a range.
+	 */
+	public int getTrack(int index)
+	{
+		return trackNumbers[index];
+	}
+
+	/** Gets the index of the first message at or after the given tick. */
+	public int indexOfTick(long tick)
+	{
+		int lo = 0, hi = size;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (ticks[mid] < tick)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/** The time of the last event in the sequence, including meta events */
+	public long getEndMicros()
+	{
+		return endMicros;
+	}
+
+	/**
+	 * Sends the messages for one MIDI channel to the receiver, timestamped in microseconds, or all
+	 * of the messages if the channel is -1. System messages are sent for every channel.
+	 */
+	public void send(Receiver recv, int channel)
+	{
+		send(recv, channel, 0);
+	}
+
+	/**
+	 * Sends the messages for one MIDI channel (or all of them if the channel is -1) from the given
+	 * time onwards, timestamped from that time. The messages from before then are sent at time 0,
+	 * except for the notes: the notes that are still playing at that time are started again instead.
+	 */
+	public void send(Receiver recv, int channel, long fromMicros)
+	{
+		int i = 0;
+		if (fromMicros > 0)
+		{
+			// The index of the note on message for each note that's playing, by channel
+			int[] playingNotes = new int[CHANNEL_COUNT * NOTE_COUNT];
+			Arrays.fill(playingNotes, -1);
+
+			for (; i < size && micros[i] < fromMicros; i++)
+			{
+				if (!isOnChannel(i, channel))
+					continue;
+
+				if (isNoteMessage(messages[i]))
+				{
+					ShortMessage m = (ShortMessage) messages[i];
+					int noteIndex = channels[i] * NOTE_COUNT + m.getData1();
+					if (m.getCommand() == ShortMessage.NOTE_ON && m.getData2() > 0)
+						playingNotes[noteIndex] = i;
+					else if (isNoteOff(m))
+						playingNotes[noteIndex] = -1;
+				}
+				else
+				{
+					recv.send(messages[i], 0);
+				}
+			}
+
+			for (int noteOn : playingNotes)
+			{
+				if (noteOn >= 0)
+					recv.send(messages[noteOn], 0);
+			}
+		}
+
+		for (; i < size; i++)
+		{
+			if (isOnChannel(i, channel))
+				recv.send(messages[i], micros[i] - fromMicros);
+		}
+	}
+
+	private boolean isOnChannel(int index, int channel)
+	{
+		return channel < 0 || channels[index] < 0 || channels[index] == channel;
+	}
+}
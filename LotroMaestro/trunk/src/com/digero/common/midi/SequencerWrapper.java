@@ -4,18 +4,18 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Receiver;
 import javax.sound.midi.Sequence;
-import javax.sound.midi.Sequencer;
 import javax.sound.midi.ShortMessage;
 import javax.sound.midi.Transmitter;
-import javax.swing.Timer;
 
 import com.digero.common.midi.SequencerEvent.SequencerProperty;
+import com.digero.common.util.FrameTimer;
 import com.digero.common.util.IDiscardable;
 import com.digero.common.util.Listener;
 import com.digero.common.util.ListenerList;
@@ -23,10 +23,14 @@ import com.sun.media.sound.MidiUtils;
 
 public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardable
 {
+	/**
+	 * The time between position updates while the song is playing. The updates are driven by the
+	 * {@link FrameTimer}, so this is rounded up to a whole number of display refreshes.
+	 */
 	public static final int UPDATE_FREQUENCY_MILLIS = 25;
 	public static final long UPDATE_FREQUENCY_MICROS = UPDATE_FREQUENCY_MILLIS * 1000;
 
-	protected Sequencer sequencer;
+	protected TimelineSequencer sequencer;
 	private Receiver receiver;
 	private Transmitter transmitter;
 	private List<Transceiver> transceivers = new ArrayList<Transceiver>();
@@ -34,24 +38,62 @@ public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardab
 	private boolean isDragging;
 	private MidiUtils.TempoCache tempoCache = new MidiUtils.TempoCache();
 
-	private Timer updateTimer = new Timer(UPDATE_FREQUENCY_MILLIS, new TimerActionListener());
+	private ActionListener frameListener = new FrameListener();
 	private long lastUpdateTick = -1;
 	private boolean lastRunning = false;
+	private boolean startWhenReady = false;
 
 	private ListenerList<SequencerEvent> listeners = null;
 
 	public SequencerWrapper() throws MidiUnavailableException
 	{
-		sequencer = MidiSystem.getSequencer(false);
+		sequencer = new TimelineSequencer();
 		sequencer.open();
 		transmitter = sequencer.getTransmitter();
 		receiver = createReceiver();
 		transmitter.setReceiver(receiver);
 	}
 
+	/**
+	 * Creates the receiver that the sequencer plays into. Opening a synthesizer can take a while,
+	 * so the default receiver is opened on a background thread; see {@link #waitUntilReady()}.
+	 */
 	protected Receiver createReceiver() throws MidiUnavailableException
 	{
-		return MidiSystem.getReceiver();
+		return new DeferredReceiver("Open MIDI synthesizer", new Callable<Receiver>()
+		{
+			@Override public Receiver call() throws MidiUnavailableException
+			{
+				return MidiSystem.getReceiver();
+			}
+		});
+	}
+
+	/**
+	 * True if the receiver can play the tracks that are on MIDI ports past the first one on their
+	 * own channels (see {@link MidiPorts}). Otherwise they're played on the first port's channels.
+	 */
+	protected boolean canPlayPorts()
+	{
+		return false;
+	}
+
+	/**
+	 * Waits for the receiver to finish opening, if it's being opened in the background. Don't call
+	 * this on the event dispatch thread.
+	 * 
+	 * @throws MidiUnavailableException If the receiver couldn't be opened.
+	 */
+	public void waitUntilReady() throws MidiUnavailableException
+	{
+		if (receiver instanceof DeferredReceiver)
+			((DeferredReceiver) receiver).getReceiver();
+	}
+
+	/** True if the receiver has finished opening, or has failed to open. */
+	public boolean isReady()
+	{
+		return !(receiver instanceof DeferredReceiver) || ((DeferredReceiver) receiver).isReady();
 	}
 
 	@Override public void discard()
@@ -64,8 +106,7 @@ public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardab
 		if (listeners != null)
 			listeners.discard();
 
-		if (updateTimer != null)
-			updateTimer.stop();
+		FrameTimer.removeFrameListener(frameListener);
 
 		if (transceivers != null)
 		{
@@ -97,7 +138,7 @@ public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardab
 		transceivers.add(transceiver);
 	}
 
-	private class TimerActionListener implements ActionListener
+	private class FrameListener implements ActionListener
 	{
 		@Override public void actionPerformed(ActionEvent e)
 		{
@@ -106,10 +147,7 @@ public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardab
 				long songTick = sequencer.getTickPosition();
 				if (songTick >= getTickLength())
 				{
-					// There's a bug in Sun's RealTimeSequencer, where there is a possible 
-					// deadlock when calling setMicrosecondPosition(0) exactly when the sequencer 
-					// hits the end of the sequence.  It looks like it's safe to call 
-					// sequencer.setTickPosition(0).
+					// The sequencer stops by itself at the end of the song; rewind it
 					sequencer.stop();
 					sequencer.setTickPosition(0);
 					lastUpdateTick = songTick;
@@ -126,9 +164,9 @@ public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardab
 					{
 						lastRunning = running;
 						if (running)
-							updateTimer.start();
+							FrameTimer.addFrameListener(frameListener, UPDATE_FREQUENCY_MILLIS);
 						else
-							updateTimer.stop();
+							FrameTimer.removeFrameListener(frameListener);
 						fireChangeEvent(SequencerProperty.IS_RUNNING);
 					}
 				}
@@ -144,23 +182,13 @@ public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardab
 		if (fullReset)
 		{
 			Sequence seqSave = sequencer.getSequence();
-			try
-			{
-				sequencer.setSequence((Sequence) null);
-			}
-			catch (InvalidMidiDataException e)
-			{
-				// This won't happen
-				throw new RuntimeException(e);
-			}
-
+			sequencer.setSequence(null);
 			sequencer.close();
 			transmitter.close();
 			receiver.close();
 
 			try
 			{
-				sequencer = MidiSystem.getSequencer(false);
 				sequencer.open();
 				transmitter = sequencer.getTransmitter();
 				receiver = createReceiver();
@@ -170,15 +198,7 @@ public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardab
 				throw new RuntimeException(e1);
 			}
 
-			try
-			{
-				sequencer.setSequence(seqSave);
-			}
-			catch (InvalidMidiDataException e)
-			{
-				// This won't happen
-				throw new RuntimeException(e);
-			}
+			sequencer.setSequence(seqSave);
 
 			// Hook up the transmitter to the receiver through any transceivers that we have
 			Transmitter prevTransmitter = transmitter;
@@ -220,10 +240,6 @@ public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardab
 				msg.setMessage(ShortMessage.SYSTEM_RESET);
 				receiver.send(msg, -1);
 			}
-			catch (MidiUnavailableException e)
-			{
-				// Ignore
-			}
 			catch (InvalidMidiDataException e)
 			{
 				// Ignore
@@ -257,14 +273,7 @@ public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardab
 
 	public void setPosition(long position)
 	{
-		if (position == 0)
-		{
-			// Sun's RealtimeSequencer isn't entirely reliable when calling 
-			// setMicrosecondPosition(0). Instead call setTickPosition(0),  
-			// which has the same effect and isn't so buggy.
-			setTickPosition(0);
-		}
-		else if (position != getPosition())
+		if (position != getPosition())
 		{
 			sequencer.setMicrosecondPosition(position);
 			lastUpdateTick = sequencer.getTickPosition();
@@ -319,17 +328,38 @@ public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardab
 
 	public void setRunning(boolean isRunning)
 	{
+		if (isRunning && !isReady())
+		{
+			// Don't start playing until the synthesizer is ready; the sequencer would otherwise play
+			// all of the notes that it missed at once when it finishes opening. Rather than making the
+			// caller wait for it, start playing once it's ready.
+			if (!startWhenReady)
+			{
+				startWhenReady = true;
+				((DeferredReceiver) receiver).runWhenReady(new Runnable()
+				{
+					@Override public void run()
+					{
+						onReceiverReady();
+					}
+				});
+			}
+			return;
+		}
+		startWhenReady = false;
+
 		if (isRunning != this.isRunning())
 		{
 			if (isRunning)
 			{
+				sequencer.setChannelCount(canPlayPorts() ? MAX_CHANNEL_COUNT : CHANNEL_COUNT);
 				sequencer.start();
-				updateTimer.start();
+				FrameTimer.addFrameListener(frameListener, UPDATE_FREQUENCY_MILLIS);
 			}
 			else
 			{
 				sequencer.stop();
-				updateTimer.stop();
+				FrameTimer.removeFrameListener(frameListener);
 			}
 			lastRunning = isRunning;
 
@@ -337,6 +367,28 @@ public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardab
 		}
 	}
 
+	private void onReceiverReady()
+	{
+		if (!startWhenReady)
+			return;
+
+		startWhenReady = false;
+		if (isReady())
+		{
+			try
+			{
+				waitUntilReady();
+			}
+			catch (MidiUnavailableException e)
+			{
+				// Don't play silently. The application reports that the synthesizer failed to open.
+				return;
+			}
+		}
+		// If the receiver was replaced in the meantime, this waits for the new one
+		setRunning(true);
+	}
+
 	public void start()
 	{
 		setRunning(true);
@@ -487,7 +539,7 @@ public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardab
 
 	public void setSequence(Sequence sequence) throws InvalidMidiDataException
 	{
-		if (sequencer.getSequence() != sequence)
+		if (getSequence() != sequence)
 		{
 			boolean preLoaded = isLoaded();
 			sequencer.setSequence(sequence);
@@ -500,6 +552,26 @@ public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardab
 		}
 	}
 
+	/**
+	 * Replaces the sequence with a new version of it without interrupting playback, such as when the
+	 * song that's being previewed is edited. Playback carries on from the same tick, and the notes
+	 * that are still in the new version keep sounding.
+	 */
+	public void swapSequence(Sequence sequence) throws InvalidMidiDataException
+	{
+		if (sequence == null || getSequence() == null)
+		{
+			setSequence(sequence);
+		}
+		else if (getSequence() != sequence)
+		{
+			sequencer.swapSequence(sequence);
+			tempoCache.refresh(sequence);
+			fireChangeEvent(SequencerProperty.LENGTH);
+			fireChangeEvent(SequencerProperty.SEQUENCE);
+		}
+	}
+
 	public void clearSequence()
 	{
 		try
@@ -533,7 +605,7 @@ public class SequencerWrapper implements IMidiConstants, ITempoCache, IDiscardab
 		return receiver;
 	}
 
-	public void open() throws MidiUnavailableException
+	public void open()
 	{
 		sequencer.open();
 	}
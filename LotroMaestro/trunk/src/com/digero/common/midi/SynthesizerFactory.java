@@ -2,23 +2,43 @@ package com.digero.common.midi;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import javax.sound.midi.Instrument;
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiDevice;
 import javax.sound.midi.MidiDevice.Info;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Patch;
 import javax.sound.midi.Soundbank;
 import javax.sound.midi.Synthesizer;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
 
 import com.sun.media.sound.AudioSynthesizer;
 
+/**
+ * Creates synthesizers that play the LOTRO instruments.
+ * <p>
+ * The soundbank is read the first time it's needed and then shared by every synthesizer in the
+ * process. The synthesizer keeps each instrument's samples in the soundbank object, so they're
+ * only read from the file the first time any synthesizer loads that instrument, and the
+ * synthesizers share the same sample data after that.
+ */
 public class SynthesizerFactory
 {
+	/** The number of voices that the synthesizer plays at once by default */
+	private static final int DEFAULT_POLYPHONY = 64;
+
 	private static Soundbank lotroSoundbank = null;
 	private static File soundFontFile = new File("LotroInstruments.sf2");
 
-	public static void setSoundFontLocation(File soundFontFile)
+	public static synchronized void setSoundFontLocation(File soundFontFile)
 	{
 		if (SynthesizerFactory.soundFontFile != soundFontFile)
 		{
@@ -45,15 +65,96 @@ public class SynthesizerFactory
 		return synth;
 	}
 
+	/**
+	 * Opens the synthesizer, if it isn't already open, and loads all of the LOTRO instruments into
+	 * it. It's opened with enough channels to play every MIDI port.
+	 */
 	public static void initLotroSynthesizer(Synthesizer synth) throws MidiUnavailableException,
 			InvalidMidiDataException, IOException
 	{
-		synth.open();
-		synth.unloadAllInstruments(getLotroSoundbank());
-		synth.loadAllInstruments(getLotroSoundbank());
+		Soundbank soundbank = getLotroSoundbank();
+		if (!synth.isOpen())
+		{
+			if (synth instanceof AudioSynthesizer)
+				((AudioSynthesizer) synth).open(null, withoutDefaultSoundbank(getPortsInfo(IMidiConstants.PORT_COUNT)));
+			else
+				synth.open();
+		}
+		loadInstruments(synth, soundbank, null);
+	}
+
+	/**
+	 * Opens an audio stream from the synthesizer and loads the LOTRO instruments into it.
+	 * 
+	 * @param format The format of the stream, or null for the synthesizer's default format.
+	 * @param info Properties to open the synthesizer with, or null for the defaults.
+	 * @param programs The programs to load, or null to load all of the instruments. Loading only the
+	 *            instruments that will be played saves reading the samples for the others.
+	 */
+	public static AudioInputStream openLotroStream(AudioSynthesizer synth, AudioFormat format,
+			Map<String, Object> info, BitSet programs) throws MidiUnavailableException, InvalidMidiDataException,
+			IOException
+	{
+		Soundbank soundbank = getLotroSoundbank();
+		AudioInputStream stream = synth.openStream(format, withoutDefaultSoundbank(info));
+		loadInstruments(synth, soundbank, programs);
+		return stream;
+	}
+
+	/**
+	 * Properties to open a synthesizer with channels for the given number of MIDI ports (see
+	 * {@link MidiPorts}), and enough voices to play the parts on all of them. For a single port this
+	 * is empty, so the synthesizer keeps its defaults.
+	 */
+	public static Map<String, Object> getPortsInfo(int portCount)
+	{
+		Map<String, Object> info = new HashMap<String, Object>();
+		if (portCount > 1)
+		{
+			info.put("midi channels", portCount * IMidiConstants.CHANNEL_COUNT);
+			info.put("max polyphony", portCount * DEFAULT_POLYPHONY);
+		}
+		return info;
+	}
+
+	/**
+	 * The LOTRO instruments replace the synthesizer's default soundbank, so there's no need for the
+	 * synthesizer to find (or generate) the default soundbank and load its samples.
+	 */
+	private static Map<String, Object> withoutDefaultSoundbank(Map<String, Object> info)
+	{
+		Map<String, Object> newInfo = new HashMap<String, Object>();
+		if (info != null)
+			newInfo.putAll(info);
+		newInfo.put("load default soundbank", false);
+		return newInfo;
+	}
+
+	/**
+	 * Loads instruments from the soundbank into the synthesizer. This is synchronized because the
+	 * synthesizers share the soundbank's sample data, which is read from the file the first time an
+	 * instrument is loaded.
+	 */
+	private static synchronized void loadInstruments(Synthesizer synth, Soundbank soundbank, BitSet programs)
+	{
+		if (programs == null)
+		{
+			synth.loadAllInstruments(soundbank);
+		}
+		else
+		{
+			List<Patch> patches = new ArrayList<Patch>(programs.cardinality());
+			for (int program = programs.nextSetBit(0); program >= 0; program = programs.nextSetBit(program + 1))
+			{
+				Instrument instrument = soundbank.getInstrument(new Patch(0, program));
+				if (instrument != null)
+					patches.add(instrument.getPatch());
+			}
+			synth.loadInstruments(soundbank, patches.toArray(new Patch[patches.size()]));
+		}
 	}
 
-	public static Soundbank getLotroSoundbank() throws InvalidMidiDataException, IOException
+	public static synchronized Soundbank getLotroSoundbank() throws InvalidMidiDataException, IOException
 	{
 		if (lotroSoundbank == null)
 		{
@@ -0,0 +1,866 @@
+package com.digero.common.midi;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiDeviceReceiver;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Transmitter;
+
+import com.sun.media.sound.MidiUtils;
+
+/**
+ * Plays a sequence into a receiver, in place of Sun's RealTimeSequencer. The sequence's tracks are
+ * merged into a {@link SequenceTimeline} when it's set, and a high priority thread sends the
+ * messages as they come due.
+ * <p>
+ * When the messages end up at a synthesizer that has a clock, such as Gervill, they're sent a little
+ * ahead of time and timestamped with the synthesizer's clock, so each note starts on the right
+ * sample no matter when the thread happens to wake up. Otherwise they're sent when they're due,
+ * without a timestamp.
+ * <p>
+ * The position is worked out from the time that playback started and the tempo factor, so reading
+ * it doesn't take any locks, and it moves smoothly rather than in steps.
+ * <p>
+ * Messages are queued while holding the sequencer's lock, and only the sequencer's thread sends
+ * them, after letting go of the lock. Changing the position, tempo or muting from the UI therefore
+ * never has to wait for the synthesizer.
+ */
+public class TimelineSequencer implements IMidiConstants
+{
+	/** How far ahead of time the messages are sent to a synthesizer that schedules them */
+	private static final long SEND_AHEAD_MICROS = 50000;
+	/**
+	 * How far ahead of the synthesizer's clock the messages are scheduled, to leave room for the
+	 * clock to jump ahead when the synthesizer renders a block of audio.
+	 */
+	private static final long TIMESTAMP_MARGIN_MICROS = 20000;
+	/** The longest the thread sleeps without checking on the state */
+	private static final long MAX_SLEEP_NANOS = 100000000;
+	/** Returned by {@link #getSynthClockOffset()} when the messages can't be timestamped */
+	private static final long NO_SYNTH_CLOCK = Long.MIN_VALUE;
+
+	private static final int SUSTAIN_CONTROLLER = 0x40;
+	private static final int ALL_NOTES_OFF = 0x7B;
+
+	/**
+	 * Where the song was at a moment in time, and how fast it's moving. This is replaced rather than
+	 * modified, so the position can be read without locking.
+	 */
+	private static class PlayState
+	{
+		public final long songMicros;
+		public final long nanos;
+		public final float tempoFactor;
+		public final boolean running;
+
+		public PlayState(long songMicros, long nanos, float tempoFactor, boolean running)
+		{
+			this.songMicros = songMicros;
+			this.nanos = nanos;
+			this.tempoFactor = tempoFactor;
+			this.running = running;
+		}
+
+		public long getSongMicros(long atNanos)
+		{
+			if (!running)
+				return songMicros;
+
+			return songMicros + (long) ((atNanos - nanos) / 1000 * (double) tempoFactor);
+		}
+
+		public long getNanos(long atSongMicros)
+		{
+			return nanos + (long) ((atSongMicros - songMicros) * 1000 / (double) tempoFactor);
+		}
+	}
+
+	/** Messages to send, with their timestamps */
+	private static class Outbox
+	{
+		private MidiMessage[] messages = new MidiMessage[64];
+		private long[] timeStamps = new long[64];
+		private int size = 0;
+
+		public void add(MidiMessage message, long timeStamp)
+		{
+			if (size == messages.length)
+			{
+				messages = Arrays.copyOf(messages, size * 2);
+				timeStamps = Arrays.copyOf(timeStamps, size * 2);
+			}
+			messages[size] = message;
+			timeStamps[size] = timeStamp;
+			size++;
+		}
+
+		public void clear()
+		{
+			Arrays.fill(messages, 0, size, null);
+			size = 0;
+		}
+	}
+
+	private volatile PlayState state = new PlayState(0, 0, 1.0f, false);
+	private volatile Sequence sequence = null;
+	private volatile long lengthMicros = 0;
+	private volatile long tickLength = 0;
+	private MidiUtils.TempoCache tempoCache = new MidiUtils.TempoCache();
+
+	// The rest of the fields are guarded by this
+	private SequenceTimeline timeline = null;
+	private BitSet usedChannels = new BitSet();
+	private BitSet mutedTracks = new BitSet();
+	private BitSet soloTracks = new BitSet();
+	private Receiver receiver = null;
+	private Transmitter transmitter = new SequencerTransmitter();
+	private int channelCount = CHANNEL_COUNT;
+	private Thread thread = null;
+	// The index of the next message to send, and the song time that messages have been sent up to
+	private int nextIndex = 0;
+	private long sentUntilMicros = -1;
+	// The index of the note on message of each note that's sounding, by channel and note, or -1
+	private int[] soundingNotes = new int[MAX_CHANNEL_COUNT * NOTE_COUNT];
+	// Whether the messages are timestamped with the synthesizer's clock, and its offset from
+	// System.nanoTime() in microseconds
+	private boolean useTimeStamps = false;
+	private long synthClockOffset = 0;
+	private long lastTimeStamp = -1;
+	// The messages waiting for the sequencer's thread to send them
+	private Outbox outbox = new Outbox();
+
+	// Held by the sequencer's thread while it sends the messages, to keep them in order if the
+	// sequencer is closed and opened again before the old thread has finished. Taken before this.
+	private final Object sendLock = new Object();
+	private Outbox sending = new Outbox();
+
+	public TimelineSequencer()
+	{
+		Arrays.fill(soundingNotes, -1);
+	}
+
+	public synchronized void open()
+	{
+		if (thread != null)
+			return;
+
+		thread = new Thread(new Runnable()
+		{
+			@Override public void run()
+			{
+				dispatchLoop();
+			}
+		}, "Sequencer");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	public synchronized void close()
+	{
+		stop();
+		thread = null;
+		notifyAll();
+	}
+
+	public synchronized boolean isOpen()
+	{
+		return thread != null;
+	}
+
+	public Transmitter getTransmitter()
+	{
+		return transmitter;
+	}
+
+	/**
+	 * Sets how many channels the receiver has. Messages for the channels past those (on the
+	 * sequence's other MIDI ports) are played on the first port's channels.
+	 */
+	public synchronized void setChannelCount(int channelCount)
+	{
+		this.channelCount = channelCount;
+	}
+
+	public Sequence getSequence()
+	{
+		return sequence;
+	}
+
+	/**
+	 * Sets the sequence to play. If the sequencer is running, it carries on from the same position
+	 * in the new sequence.
+	 */
+	public void setSequence(Sequence sequence)
+	{
+		// Merge the tracks before taking the lock, so that the messages keep going out meanwhile
+		SequenceTimeline newTimeline = (sequence == null) ? null : new SequenceTimeline(sequence);
+		long clockOffset = isRunning() ? getSynthClockOffset() : NO_SYNTH_CLOCK;
+		synchronized (this)
+		{
+			boolean wasRunning = isRunning();
+			if (wasRunning)
+				stop();
+
+			loadSequence(sequence, newTimeline);
+			long position = Math.min(state.songMicros, lengthMicros);
+			state = new PlayState(position, System.nanoTime(), state.tempoFactor, false);
+			if (wasRunning)
+				start(clockOffset);
+		}
+	}
+
+	/**
+	 * Replaces the sequence with a new version of it, such as after the song has been edited, without
+	 * stopping. The new sequence takes over at the tick after the messages that have already been
+	 * sent. The notes that are sounding keep sounding if the new sequence has them playing at that
+	 * tick, and are stopped if it doesn't. Its program changes and controllers are chased, but the
+	 * channels aren't reset. If the sequencer isn't running, this keeps the tick position.
+	 */
+	public void swapSequence(Sequence newSequence)
+	{
+		SequenceTimeline newTimeline = new SequenceTimeline(newSequence);
+		synchronized (this)
+		{
+			if (!isRunning())
+			{
+				long tick = getTickPosition();
+				loadSequence(newSequence, newTimeline);
+				setTickPosition(tick);
+				return;
+			}
+
+			long switchTick = MidiUtils.microsecond2tick(sequence, sentUntilMicros, tempoCache) + 1;
+			if (nextIndex > 0)
+				switchTick = Math.max(switchTick, timeline.getTick(nextIndex - 1) + 1);
+			if (nextIndex < timeline.size())
+				switchTick = Math.min(switchTick, timeline.getTick(nextIndex));
+			long switchNanos = state.getNanos(MidiUtils.tick2microsecond(sequence, switchTick, tempoCache));
+
+			loadSequence(newSequence, newTimeline);
+			nextIndex = timeline.indexOfTick(switchTick);
+			long timeStamp = getTimeStamp(switchNanos);
+			int[] newSoundingNotes = getSoundingNotes(nextIndex);
+			for (int i = 0; i < soundingNotes.length; i++)
+			{
+				if (soundingNotes[i] < 0)
+					continue;
+
+				int noteOn = newSoundingNotes[i];
+				if (noteOn >= 0 && isTrackActive(timeline.getTrack(noteOn)))
+				{
+					// Its note off now comes from the new sequence
+					soundingNotes[i] = noteOn;
+				}
+				else
+				{
+					int channel = i / NOTE_COUNT;
+					send(MidiFactory.createNoteOffEvent(i % NOTE_COUNT, channel, 0).getMessage(), channel, timeStamp);
+					soundingNotes[i] = -1;
+				}
+			}
+			chase(nextIndex, timeStamp);
+
+			long switchMicros = MidiUtils.tick2microsecond(sequence, switchTick, tempoCache);
+			state = new PlayState(switchMicros, switchNanos, state.tempoFactor, true);
+			sentUntilMicros = switchMicros - 1;
+			notifyAll();
+		}
+	}
+
+	private void loadSequence(Sequence sequence, SequenceTimeline newTimeline)
+	{
+		this.sequence = sequence;
+		timeline = newTimeline;
+		usedChannels.clear();
+		if (sequence == null)
+		{
+			lengthMicros = 0;
+			tickLength = 0;
+			return;
+		}
+
+		tempoCache.refresh(sequence);
+		lengthMicros = sequence.getMicrosecondLength();
+		tickLength = sequence.getTickLength();
+		for (int i = 0; i < timeline.size(); i++)
+		{
+			if (timeline.getChannel(i) >= 0)
+				usedChannels.set(timeline.getChannel(i));
+		}
+	}
+
+	public long getMicrosecondLength()
+	{
+		return lengthMicros;
+	}
+
+	public long getTickLength()
+	{
+		return tickLength;
+	}
+
+	public long getMicrosecondPosition()
+	{
+		return Math.max(0, Math.min(state.getSongMicros(System.nanoTime()), lengthMicros));
+	}
+
+	public long getTickPosition()
+	{
+		Sequence seq = sequence;
+		if (seq == null)
+			return 0;
+
+		long position = getMicrosecondPosition();
+		if (position >= lengthMicros)
+			return tickLength;
+
+		return MidiUtils.microsecond2tick(seq, position, tempoCache);
+	}
+
+	/**
+	 * Moves to the given position. If the sequencer is running, the notes that are sounding are
+	 * stopped, and the new position starts playing right after the messages that have already
+	 * been sent.
+	 */
+	public void setMicrosecondPosition(long micros)
+	{
+		// Only read the synthesizer's clock when it's needed, since that can wait for it to render
+		long clockOffset = isRunning() ? getSynthClockOffset() : NO_SYNTH_CLOCK;
+		synchronized (this)
+		{
+			if (sequence == null)
+				return;
+
+			micros = Math.max(0, Math.min(micros, lengthMicros));
+			if (isRunning())
+			{
+				stopNotes(true);
+				play(micros, MidiUtils.microsecond2tick(sequence, micros, tempoCache), clockOffset);
+			}
+			else
+			{
+				state = new PlayState(micros, System.nanoTime(), state.tempoFactor, false);
+			}
+		}
+	}
+
+	public void setTickPosition(long tick)
+	{
+		Sequence seq = sequence;
+		if (seq != null)
+			setMicrosecondPosition(MidiUtils.tick2microsecond(seq, tick, tempoCache));
+	}
+
+	public float getTempoFactor()
+	{
+		return state.tempoFactor;
+	}
+
+	/**
+	 * Changes the speed of playback. The messages that have already been sent keep their times, and
+	 * the new speed takes over from the last of them.
+	 */
+	public synchronized void setTempoFactor(float factor)
+	{
+		if (factor <= 0)
+			throw new IllegalArgumentException("Invalid tempo factor: " + factor);
+
+		PlayState s = state;
+		if (s.running)
+		{
+			long changeNanos = System.nanoTime() + getSendAheadNanos();
+			state = new PlayState(s.getSongMicros(changeNanos), changeNanos, factor, true);
+			notifyAll();
+		}
+		else
+		{
+			state = new PlayState(s.songMicros, s.nanos, factor, false);
+		}
+	}
+
+	public boolean isRunning()
+	{
+		return state.running;
+	}
+
+	public void start()
+	{
+		long clockOffset = getSynthClockOffset();
+		synchronized (this)
+		{
+			start(clockOffset);
+		}
+	}
+
+	private void start(long clockOffset)
+	{
+		if (isRunning() || timeline == null)
+			return;
+
+		long position = state.songMicros;
+		if (position >= lengthMicros)
+			position = 0;
+
+		play(position, MidiUtils.microsecond2tick(sequence, position, tempoCache), clockOffset);
+	}
+
+	public synchronized void stop()
+	{
+		PlayState s = state;
+		if (!s.running)
+			return;
+
+		long now = System.nanoTime();
+		long position = Math.max(0, Math.min(s.getSongMicros(now), lengthMicros));
+		state = new PlayState(position, now, s.tempoFactor, false);
+		stopNotes(true);
+		resetControllers();
+	}
+
+	public synchronized boolean getTrackMute(int track)
+	{
+		return mutedTracks.get(track);
+	}
+
+	public synchronized void setTrackMute(int track, boolean mute)
+	{
+		mutedTracks.set(track, mute);
+		stopNotes(false);
+	}
+
+	public synchronized boolean getTrackSolo(int track)
+	{
+		return soloTracks.get(track);
+	}
+
+	public synchronized void setTrackSolo(int track, boolean solo)
+	{
+		soloTracks.set(track, solo);
+		stopNotes(false);
+	}
+
+	/**
+	 * Stops the notes with the given note IDs that are sounding, on any channel. Like muting a track,
+	 * the note offs are scheduled after the messages that have already been sent, so they can't
+	 * reach the synthesizer before the note ons that they stop.
+	 */
+	public synchronized void stopNotes(BitSet noteIds)
+	{
+		if (noteIds.isEmpty())
+			return;
+
+		long timeStamp = useTimeStamps ? lastTimeStamp : -1;
+		for (int i = 0; i < soundingNotes.length; i++)
+		{
+			if (soundingNotes[i] >= 0 && noteIds.get(i % NOTE_COUNT))
+			{
+				int channel = i / NOTE_COUNT;
+				send(MidiFactory.createNoteOffEvent(i % NOTE_COUNT, channel, 0).getMessage(), channel, timeStamp);
+				soundingNotes[i] = -1;
+			}
+		}
+	}
+
+	private boolean isTrackActive(int track)
+	{
+		if (track < 0 || soloTracks.get(track))
+			return true;
+
+		return soloTracks.isEmpty() && !mutedTracks.get(track);
+	}
+
+	/**
+	 * Starts playing from the given position: sends the program changes and controllers from
+	 * before it, and timestamps the messages using the offset from {@link #getSynthClockOffset()}.
+	 */
+	private void play(long micros, long tick, long clockOffset)
+	{
+		nextIndex = timeline.indexOfTick(tick);
+		sentUntilMicros = micros - 1;
+		chase(nextIndex, -1);
+
+		long now = System.nanoTime();
+		long startNanos = now;
+		useTimeStamps = (clockOffset != NO_SYNTH_CLOCK);
+		if (useTimeStamps)
+		{
+			synthClockOffset = clockOffset;
+
+			// Don't start until the messages that have already been scheduled have played, so that
+			// the notes that were stopped don't cut off the new ones
+			long pendingMicros = lastTimeStamp - (now / 1000 + synthClockOffset);
+			if (pendingMicros > 0)
+				startNanos += pendingMicros * 1000;
+		}
+
+		state = new PlayState(micros, startNanos, state.tempoFactor, true);
+		notifyAll();
+	}
+
+	/**
+	 * Sends the last program change, pitch bend, channel pressure and value of each controller on
+	 * each channel before the given index.
+	 */
+	private void chase(int endIndex, long timeStamp)
+	{
+		int[] programs = new int[MAX_CHANNEL_COUNT];
+		int[] pitchBends = new int[MAX_CHANNEL_COUNT];
+		int[] pressures = new int[MAX_CHANNEL_COUNT];
+		int[] controllers = new int[MAX_CHANNEL_COUNT * 128];
+		Arrays.fill(programs, -1);
+		Arrays.fill(pitchBends, -1);
+		Arrays.fill(pressures, -1);
+		Arrays.fill(controllers, -1);
+
+		for (int i = 0; i < endIndex; i++)
+		{
+			int channel = timeline.getChannel(i);
+			if (channel < 0)
+				continue;
+
+			ShortMessage m = (ShortMessage) timeline.getMessage(i);
+			switch (m.getCommand())
+			{
+			case ShortMessage.PROGRAM_CHANGE:
+				programs[channel] = i;
+				break;
+			case ShortMessage.PITCH_BEND:
+				pitchBends[channel] = i;
+				break;
+			case ShortMessage.CHANNEL_PRESSURE:
+				pressures[channel] = i;
+				break;
+			case ShortMessage.CONTROL_CHANGE:
+				controllers[channel * 128 + m.getData1()] = i;
+				break;
+			}
+		}
+
+		// Send the controllers first, so that bank selects come before their program changes
+		for (int i : controllers)
+		{
+			if (i >= 0)
+				send(timeline.getMessage(i), timeline.getChannel(i), timeStamp);
+		}
+		for (int[] indexes : new int[][] { programs, pitchBends, pressures })
+		{
+			for (int i : indexes)
+			{
+				if (i >= 0)
+					send(timeline.getMessage(i), timeline.getChannel(i), timeStamp);
+			}
+		}
+	}
+
+	/**
+	 * Finds the notes that are sounding before the given index, and returns the index of each one's
+	 * note on message by channel and note, or -1.
+	 */
+	private int[] getSoundingNotes(int endIndex)
+	{
+		int[] notes = new int[MAX_CHANNEL_COUNT * NOTE_COUNT];
+		Arrays.fill(notes, -1);
+		for (int i = 0; i < endIndex; i++)
+		{
+			int channel = timeline.getChannel(i);
+			if (channel >= 0)
+				updateSoundingNote(notes, (ShortMessage) timeline.getMessage(i), channel, i);
+		}
+		return notes;
+	}
+
+	private static boolean isNote(ShortMessage m)
+	{
+		return m.getCommand() == ShortMessage.NOTE_ON || m.getCommand() == ShortMessage.NOTE_OFF;
+	}
+
+	private static void updateSoundingNote(int[] notes, ShortMessage m, int channel, int index)
+	{
+		int noteIndex = channel * NOTE_COUNT + m.getData1();
+		if (m.getCommand() == ShortMessage.NOTE_ON && m.getData2() > 0)
+			notes[noteIndex] = index;
+		else if (m.getCommand() == ShortMessage.NOTE_OFF || m.getCommand() == ShortMessage.NOTE_ON)
+			notes[noteIndex] = -1;
+	}
+
+	/**
+	 * Stops the notes that are sounding, or only the ones on tracks that aren't active. The note
+	 * offs are scheduled after the messages that have already been sent.
+	 */
+	private void stopNotes(boolean allTracks)
+	{
+		long timeStamp = useTimeStamps ? lastTimeStamp : -1;
+		for (int i = 0; i < soundingNotes.length; i++)
+		{
+			int noteOn = soundingNotes[i];
+			if (noteOn >= 0 && (allTracks || !isTrackActive(timeline.getTrack(noteOn))))
+			{
+				int channel = i / NOTE_COUNT;
+				send(MidiFactory.createNoteOffEvent(i % NOTE_COUNT, channel, 0).getMessage(), channel, timeStamp);
+				soundingNotes[i] = -1;
+			}
+		}
+	}
+
+	/** Lets go of the sustain pedal and stops any notes it was holding, like Sun's sequencer did. */
+	private void resetControllers()
+	{
+		long timeStamp = useTimeStamps ? lastTimeStamp : -1;
+		for (int c = usedChannels.nextSetBit(0); c >= 0; c = usedChannels.nextSetBit(c + 1))
+		{
+			try
+			{
+				send(MidiFactory.createChannelMessage(ShortMessage.CONTROL_CHANGE, c, SUSTAIN_CONTROLLER, 0), c,
+						timeStamp);
+				send(MidiFactory.createChannelMessage(ShortMessage.CONTROL_CHANGE, c, ALL_NOTES_OFF, 0), c,
+						timeStamp);
+			}
+			catch (InvalidMidiDataException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private long getSendAheadNanos()
+	{
+		return useTimeStamps ? SEND_AHEAD_MICROS * 1000 : 0;
+	}
+
+	private void dispatchLoop()
+	{
+		Thread myThread = Thread.currentThread();
+		try
+		{
+			while (true)
+			{
+				synchronized (this)
+				{
+					if (thread != myThread)
+						break;
+
+					long sleepNanos = MAX_SLEEP_NANOS;
+					if (state.running)
+						sleepNanos = Math.min(sleepNanos, dispatch());
+
+					// Wake up to send any messages that are queued meanwhile
+					if (outbox.size == 0)
+						TimeUnit.NANOSECONDS.timedWait(this, sleepNanos);
+				}
+				sendQueued();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// Closed
+		}
+		// Send the note offs from stopping
+		sendQueued();
+	}
+
+	/**
+	 * Sends the messages that are due, and returns how long to wait until the next ones are.
+	 */
+	private long dispatch()
+	{
+		PlayState s = state;
+		long now = System.nanoTime();
+		long sendAheadNanos = getSendAheadNanos();
+		long sendUntil = s.getSongMicros(now + sendAheadNanos);
+		int size = timeline.size();
+		for (; nextIndex < size && timeline.getMicros(nextIndex) <= sendUntil; nextIndex++)
+		{
+			int channel = timeline.getChannel(nextIndex);
+			MidiMessage msg = timeline.getMessage(nextIndex);
+			if (channel >= 0)
+			{
+				// Only the notes of the tracks that aren't active are left out. Their program changes
+				// and controllers are still sent, so the channels are right when they're turned back on.
+				if (isNote((ShortMessage) msg) && !isTrackActive(timeline.getTrack(nextIndex)))
+					continue;
+
+				updateSoundingNote(soundingNotes, (ShortMessage) msg, channel, nextIndex);
+			}
+
+			send(msg, channel, getTimeStamp(s.getNanos(timeline.getMicros(nextIndex))));
+		}
+		sentUntilMicros = sendUntil;
+
+		if (s.getSongMicros(now) >= lengthMicros)
+		{
+			// Stop at the end, and leave the position there
+			state = new PlayState(lengthMicros, now, s.tempoFactor, false);
+			stopNotes(true);
+			resetControllers();
+			return MAX_SLEEP_NANOS;
+		}
+
+		if (nextIndex < size)
+			return s.getNanos(timeline.getMicros(nextIndex)) - sendAheadNanos - now;
+
+		return s.getNanos(lengthMicros) - now;
+	}
+
+	/**
+	 * Converts a System.nanoTime() to the synthesizer's clock, or returns -1 if the messages aren't
+	 * timestamped. The timestamps never go backwards, so the messages stay in order.
+	 */
+	private long getTimeStamp(long nanos)
+	{
+		if (!useTimeStamps)
+			return -1;
+
+		lastTimeStamp = Math.max(nanos / 1000 + synthClockOffset, lastTimeStamp);
+		return lastTimeStamp;
+	}
+
+	/** Queues the message for the sequencer's thread to send, once it lets go of the lock. */
+	private void send(MidiMessage msg, int channel, long timeStamp)
+	{
+		if (receiver == null)
+			return;
+
+		if (channel >= channelCount)
+		{
+			ShortMessage m = (ShortMessage) msg;
+			try
+			{
+				msg = MidiFactory.createChannelMessage(m.getCommand(), channel % CHANNEL_COUNT, m.getData1(),
+						m.getData2());
+			}
+			catch (InvalidMidiDataException e)
+			{
+				// The message was already valid
+				throw new RuntimeException(e);
+			}
+		}
+
+		if (outbox.size == 0)
+			notifyAll();
+		outbox.add(msg, timeStamp);
+	}
+
+	/** Sends the queued messages. Only the sequencer's thread calls this, without holding the lock. */
+	private void sendQueued()
+	{
+		synchronized (sendLock)
+		{
+			Receiver r;
+			synchronized (this)
+			{
+				if (outbox.size == 0)
+					return;
+
+				Outbox swap = sending;
+				sending = outbox;
+				outbox = swap;
+				r = receiver;
+			}
+
+			for (int i = 0; i < sending.size; i++)
+			{
+				try
+				{
+					if (r != null)
+						r.send(sending.messages[i], sending.timeStamps[i]);
+				}
+				catch (IllegalStateException e)
+				{
+					// The receiver has been closed
+				}
+			}
+			sending.clear();
+		}
+	}
+
+	/**
+	 * Reads the synthesizer's clock, if the messages end up at a synthesizer that has one, and
+	 * returns the offset to convert System.nanoTime() in microseconds to it. Otherwise returns
+	 * {@link #NO_SYNTH_CLOCK}. Call this without holding the lock, since reading the clock can wait
+	 * for the synthesizer to finish rendering.
+	 */
+	private long getSynthClockOffset()
+	{
+		Receiver r;
+		synchronized (this)
+		{
+			r = receiver;
+		}
+
+		MidiDevice synth = findDevice(r);
+		if (synth == null)
+			return NO_SYNTH_CLOCK;
+
+		long synthMicros = synth.getMicrosecondPosition();
+		if (synthMicros < 0)
+			return NO_SYNTH_CLOCK;
+
+		return synthMicros + TIMESTAMP_MARGIN_MICROS - System.nanoTime() / 1000;
+	}
+
+	/**
+	 * Finds the device at the end of a chain of transceivers, if it is one. Doesn't wait for a
+	 * receiver that's still being opened.
+	 */
+	private static MidiDevice findDevice(Receiver r)
+	{
+		while (true)
+		{
+			if (r instanceof MidiDeviceReceiver)
+				return ((MidiDeviceReceiver) r).getMidiDevice();
+
+			if (r instanceof Transceiver)
+			{
+				r = ((Transceiver) r).getReceiver();
+			}
+			else if (r instanceof DeferredReceiver && ((DeferredReceiver) r).isReady())
+			{
+				try
+				{
+					r = ((DeferredReceiver) r).getReceiver();
+				}
+				catch (MidiUnavailableException e)
+				{
+					return null;
+				}
+			}
+			else
+			{
+				return null;
+			}
+		}
+	}
+
+	private class SequencerTransmitter implements Transmitter
+	{
+		@Override public void setReceiver(Receiver receiver)
+		{
+			synchronized (TimelineSequencer.this)
+			{
+				TimelineSequencer.this.receiver = receiver;
+			}
+		}
+
+		@Override public Receiver getReceiver()
+		{
+			synchronized (TimelineSequencer.this)
+			{
+				return receiver;
+			}
+		}
+
+		@Override public void close()
+		{
+			setReceiver(null);
+		}
+	}
+}
@@ -14,7 +14,10 @@ public class VolumeTransceiver implements Transceiver, IMidiConstants
 
 	private Receiver receiver;
 	private int volume = MAX_VOLUME;
-	private int[] channelVolume = new int[CHANNEL_COUNT];
+	private int[] channelVolume = new int[MAX_CHANNEL_COUNT];
+	// The number of channels that have been played, rounded up to a whole port. The extra ports'
+	// channels are only sent the volume once they're used, in case the receiver doesn't have them.
+	private int channelCount = CHANNEL_COUNT;
 	private boolean goesToEleven = false;
 
 	public VolumeTransceiver()
@@ -73,11 +76,16 @@ public class VolumeTransceiver implements Transceiver, IMidiConstants
 	{
 		if (receiver != null)
 		{
-			for (int c = 0; c < CHANNEL_COUNT; c++)
-			{
-				MidiEvent evt = MidiFactory.createChannelVolumeEvent(getActualVolume(c), c, 0);
-				receiver.send(evt.getMessage(), -1);
-			}
+			sendVolume(0, channelCount);
+		}
+	}
+
+	private void sendVolume(int fromChannel, int toChannel)
+	{
+		for (int c = fromChannel; c < toChannel; c++)
+		{
+			MidiEvent evt = MidiFactory.createChannelVolumeEvent(getActualVolume(c), c, 0);
+			receiver.send(evt.getMessage(), -1);
 		}
 	}
 
@@ -87,6 +95,14 @@ public class VolumeTransceiver implements Transceiver, IMidiConstants
 		if (message instanceof ShortMessage)
 		{
 			ShortMessage m = (ShortMessage) message;
+			if (MidiPorts.isChannelMessage(m) && m.getChannel() >= channelCount)
+			{
+				int newChannelCount = (m.getChannel() / CHANNEL_COUNT + 1) * CHANNEL_COUNT;
+				if (receiver != null)
+					sendVolume(channelCount, newChannelCount);
+				channelCount = newChannelCount;
+			}
+
 			if (m.getCommand() == ShortMessage.SYSTEM_RESET)
 			{
 				Arrays.fill(channelVolume, UNSET_CHANNEL_VOLUME);
@@ -96,9 +112,11 @@ public class VolumeTransceiver implements Transceiver, IMidiConstants
 			{
 				try
 				{
+					// Scale a copy, since the sequencer sends the same message again when it chases
 					int c = m.getChannel();
 					channelVolume[c] = m.getData2();
-					m.setMessage(m.getCommand(), c, CHANNEL_VOLUME_CONTROLLER_COARSE, getActualVolume(c));
+					message = MidiFactory.createChannelMessage(m.getCommand(), c, CHANNEL_VOLUME_CONTROLLER_COARSE,
+							getActualVolume(c));
 				}
 				catch (InvalidMidiDataException e)
 				{
@@ -0,0 +1,125 @@
+package com.digero.common.util;
+
+import java.awt.DisplayMode;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.Timer;
+
+/**
+ * One timer that drives all of the animation in the application, such as the song position while
+ * a song is playing, paced to the refresh rate of the display.
+ * <p>
+ * All of the listeners are called from the same event on the Swing thread. Components that call
+ * repaint() from a listener therefore get painted together in a single pass by the RepaintManager,
+ * instead of each one painting in response to its own timer. The timer only runs while it has
+ * listeners.
+ */
+public final class FrameTimer
+{
+	private FrameTimer()
+	{
+		// Can't instantiate class
+	}
+
+	private static final int DEFAULT_REFRESH_RATE = 60;
+
+	// Each listener's time between frames
+	private static final Map<ActionListener, Integer> listeners = new LinkedHashMap<ActionListener, Integer>();
+	private static Timer timer = null;
+
+	/**
+	 * Calls the listener on each frame, until it's removed. Frames are <code>frameMillis</code>
+	 * apart, rounded up to a whole number of display refreshes. If several listeners want different
+	 * times, the shortest one is used.
+	 */
+	public static synchronized void addFrameListener(ActionListener l, int frameMillis)
+	{
+		if (listeners.containsKey(l))
+			return;
+
+		listeners.put(l, frameMillis);
+
+		if (timer == null)
+		{
+			timer = new Timer(Integer.MAX_VALUE, new ActionListener()
+			{
+				@Override public void actionPerformed(ActionEvent e)
+				{
+					// Listeners may remove themselves while they're being called
+					for (ActionListener l : getListeners())
+						l.actionPerformed(e);
+				}
+			});
+			timer.setCoalesce(true);
+		}
+
+		updateDelay();
+		if (!timer.isRunning())
+			timer.start();
+	}
+
+	/** Stops calling the listener on each frame. */
+	public static synchronized void removeFrameListener(ActionListener l)
+	{
+		if (listeners.remove(l) == null || timer == null)
+			return;
+
+		if (listeners.isEmpty())
+			timer.stop();
+		else
+			updateDelay();
+	}
+
+	private static synchronized ActionListener[] getListeners()
+	{
+		return listeners.keySet().toArray(new ActionListener[listeners.size()]);
+	}
+
+	/** Sets the timer's delay for the shortest time between frames that the listeners want. */
+	private static void updateDelay()
+	{
+		int frameMillis = Integer.MAX_VALUE;
+		for (int listenerMillis : listeners.values())
+			frameMillis = Math.min(frameMillis, listenerMillis);
+
+		frameMillis = getFrameMillis(frameMillis);
+		if (frameMillis != timer.getDelay())
+		{
+			timer.setDelay(frameMillis);
+			timer.setInitialDelay(frameMillis);
+		}
+	}
+
+	/**
+	 * Gets the time between frames: the smallest whole number of display refreshes that is at least
+	 * <code>frameMillis</code>.
+	 */
+	private static int getFrameMillis(int frameMillis)
+	{
+		int refreshRate = DisplayMode.REFRESH_RATE_UNKNOWN;
+		if (!GraphicsEnvironment.isHeadless())
+		{
+			try
+			{
+				refreshRate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+						.getDisplayMode().getRefreshRate();
+			}
+			catch (HeadlessException e)
+			{
+				// Use the default
+			}
+		}
+		if (refreshRate <= 0)
+			refreshRate = DEFAULT_REFRESH_RATE;
+
+		double refreshMillis = 1000.0 / refreshRate;
+		// Allow for rounding, so that a time that is already a whole number of refreshes stays put
+		int refreshes = Math.max(1, (int) Math.ceil(frameMillis / refreshMillis - 0.01));
+		return Math.max(1, (int) (refreshes * refreshMillis));
+	}
+}
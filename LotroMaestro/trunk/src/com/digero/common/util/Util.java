@@ -13,6 +13,7 @@ import java.awt.event.ComponentEvent;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowStateListener;
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.prefs.Preferences;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -252,6 +253,25 @@ public final class Util
 		return (value / grid) * grid;
 	}
 
+	/**
+	 * Finds the index of the last element in a sorted array that is less than or equal to key.
+	 * Returns -1 if every element is greater than key.
+	 */
+	public static int floorIndex(long[] sortedValues, long key)
+	{
+		int low = 0;
+		int high = sortedValues.length - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			if (sortedValues[mid] <= key)
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+		return high;
+	}
+
 	public static boolean openURL(String url)
 	{
 		try
@@ -439,4 +459,46 @@ public final class Util
 			fileName = fileName.substring(0, dot);
 		return fileName;
 	}
+
+	/**
+	 * Prints how long after the Java virtual machine was started an event happened, if startup times
+	 * are being measured. Run with <code>-Dcom.digero.logStartupTime=true</code> to measure them.
+	 */
+	public static void logStartupTime(String event)
+	{
+		if (Boolean.getBoolean("com.digero.logStartupTime"))
+		{
+			long millis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+			System.out.println(event + " " + millis + " ms after launch");
+		}
+	}
+
+	/**
+	 * Initializes the classes on a background thread. Classes that compile regular expressions or
+	 * set up XML parsers in their static initializers can be initialized this way during startup,
+	 * instead of the first time that they're used.
+	 */
+	public static void initializeClassesInBackground(final Class<?>... classes)
+	{
+		Thread thread = new Thread(new Runnable()
+		{
+			@Override public void run()
+			{
+				for (Class<?> c : classes)
+				{
+					try
+					{
+						Class.forName(c.getName(), true, c.getClassLoader());
+					}
+					catch (ClassNotFoundException e)
+					{
+						// Can't happen, we already have the class
+					}
+				}
+			}
+		}, "Initialize classes");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
 }
@@ -30,6 +30,7 @@ import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Shape;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
@@ -58,6 +59,7 @@ public class SongPositionBar extends JPanel implements Listener<SequencerEvent>
 	private boolean useInvertedColors = false;
 
 	private Rectangle ptrRect = new Rectangle(0, 0, PTR_WIDTH, PTR_HEIGHT);
+	private int paintedPtrPos = -1;
 
 	public SongPositionBar(SequencerWrapper sequencer)
 	{
@@ -93,15 +95,8 @@ public class SongPositionBar extends JPanel implements Listener<SequencerEvent>
 		Graphics2D g2 = (Graphics2D) g;
 		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-		int ptrPos;
-		if (seq == null || seq.getLength() == 0)
-		{
-			ptrPos = 0;
-		}
-		else
-		{
-			ptrPos = (int) (SIDE_PAD + (getWidth() - 2 * SIDE_PAD) * seq.getThumbPosition() / seq.getLength());
-		}
+		int ptrPos = getPointerPos();
+		paintedPtrPos = ptrPos;
 
 		final int x = SIDE_PAD;
 		final int y = (PTR_HEIGHT - BAR_HEIGHT) / 2;
@@ -112,7 +107,8 @@ public class SongPositionBar extends JPanel implements Listener<SequencerEvent>
 		Color bkgdA = useInvertedColors ? Color.DARK_GRAY : Color.LIGHT_GRAY;
 		Color bkgdB = useInvertedColors ? Color.GRAY : Color.WHITE;
 
-		g2.setClip(new RoundRectangle2D.Float(x, y, right - x, BAR_HEIGHT, ROUND, ROUND));
+		Shape clipSav = g2.getClip();
+		g2.clip(new RoundRectangle2D.Float(x, y, right - x, BAR_HEIGHT, ROUND, ROUND));
 		g2.setPaint(new GradientPaint(0, y, fillA, 0, y + BAR_HEIGHT, fillB));
 		g2.fillRect(x, y, ptrPos - x, BAR_HEIGHT);
 
@@ -122,7 +118,7 @@ public class SongPositionBar extends JPanel implements Listener<SequencerEvent>
 		g2.setColor(useInvertedColors ? new Color(0xAA000000, true) : new Color(0xAAFFFFFF, true));
 		g2.drawLine(ptrPos - 1, y, ptrPos - 1, y + BAR_HEIGHT);
 
-		g2.setClip(null);
+		g2.setClip(clipSav);
 
 		g2.setColor(Color.BLACK);
 		g2.drawRoundRect(x, y, right - x - 1, BAR_HEIGHT, ROUND, ROUND);
@@ -136,7 +132,7 @@ public class SongPositionBar extends JPanel implements Listener<SequencerEvent>
 
 			g2.setPaint(new GradientPaint(left, 0, PTR_COLOR_1, left + PTR_WIDTH, 0, PTR_COLOR_2));
 			g2.fillOval(left, 0, PTR_WIDTH - 1, PTR_HEIGHT - 1);
-			g2.setClip(null);
+			g2.setClip(clipSav);
 			g2.setColor(Color.BLACK);
 			g2.drawOval(left, 0, PTR_WIDTH - 1, PTR_HEIGHT - 1);
 		}
@@ -152,6 +148,14 @@ public class SongPositionBar extends JPanel implements Listener<SequencerEvent>
 		return useInvertedColors;
 	}
 
+	private int getPointerPos()
+	{
+		if (seq == null || seq.getLength() == 0)
+			return 0;
+
+		return (int) (SIDE_PAD + (getWidth() - 2 * SIDE_PAD) * seq.getThumbPosition() / seq.getLength());
+	}
+
 	private void updatePointerRect()
 	{
 		if (seq == null || seq.getLength() == 0)
@@ -259,6 +263,23 @@ public class SongPositionBar extends JPanel implements Listener<SequencerEvent>
 		if (evt.getProperty() == SequencerProperty.IS_LOADED)
 			setEnabled(evt.getSource().isLoaded());
 
+		if (evt.getProperty() == SequencerProperty.POSITION || evt.getProperty() == SequencerProperty.DRAG_POSITION)
+		{
+			// The position changes on every frame while playing, but the pointer only moves every few
+			// frames. Only repaint the part of the bar between where it was and where it is now.
+			int ptrPos = getPointerPos();
+			if (paintedPtrPos >= 0)
+			{
+				if (ptrPos != paintedPtrPos)
+				{
+					int left = Math.min(ptrPos, paintedPtrPos) - PTR_WIDTH;
+					int right = Math.max(ptrPos, paintedPtrPos) + PTR_WIDTH;
+					repaint(left, 0, right - left, getHeight());
+				}
+				return;
+			}
+		}
+
 		repaint();
 	}
 }
@@ -8,7 +8,14 @@ import javax.swing.JFrame;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 
+import com.digero.common.abctomidi.AbcInfo;
+import com.digero.common.abctomidi.AbcToMidi;
+import com.digero.common.midi.LotroSequencerWrapper;
+import com.digero.common.midi.PanGenerator;
+import com.digero.common.util.Util;
 import com.digero.common.util.Version;
+import com.digero.maestro.abc.PartNameTemplate;
+import com.digero.maestro.util.XmlUtil;
 import com.digero.maestro.view.ProjectFrame;
 
 public class MaestroMain
@@ -35,6 +42,12 @@ public class MaestroMain
 
 		System.setProperty("sun.sound.useNewAudioEngine", "true");
 
+		// Load the instruments, and set up the regular expressions and XPath, while the window is
+		// being created. Playing waits for the synthesizers if they aren't ready yet.
+		LotroSequencerWrapper.startLoadingLotroSynth();
+		Util.initializeClassesInBackground(AbcToMidi.class, AbcInfo.class, PanGenerator.class,
+				PartNameTemplate.class, XmlUtil.class);
+
 		try
 		{
 			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -49,6 +62,7 @@ public class MaestroMain
 			@Override public void run()
 			{
 				mainWindow.setVisible(true);
+				Util.logStartupTime(APP_NAME + " window shown");
 				openSongFromCommandLine(args);
 			}
 		});
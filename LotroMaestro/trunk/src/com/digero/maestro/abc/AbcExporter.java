@@ -5,8 +5,17 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.Sequence;
@@ -15,10 +24,10 @@ import javax.sound.midi.Track;
 import com.digero.common.abc.AbcField;
 import com.digero.common.abc.Dynamics;
 import com.digero.common.abc.LotroInstrument;
-import com.digero.common.midi.IMidiConstants;
 import com.digero.common.midi.KeySignature;
 import com.digero.common.midi.MidiConstants;
 import com.digero.common.midi.MidiFactory;
+import com.digero.common.midi.MidiPorts;
 import com.digero.common.midi.Note;
 import com.digero.common.midi.PanGenerator;
 import com.digero.common.util.Pair;
@@ -26,11 +35,12 @@ import com.digero.common.util.Util;
 import com.digero.maestro.MaestroMain;
 import com.digero.maestro.midi.Chord;
 import com.digero.maestro.midi.NoteEvent;
+import com.digero.maestro.midi.NoteEventList;
 
 public class AbcExporter
 {
 	// Max parts for MIDI preview
-	private static final int MAX_PARTS = IMidiConstants.CHANNEL_COUNT - 2; // Track 0 is reserved for metadata, and Track 9 is reserved for drums
+	private static final int MAX_PARTS = MidiPorts.MAX_TRACK_NUMBER; // Track 0 is reserved for metadata
 
 	private final List<AbcPart> parts;
 	private final AbcMetadataSource metadata;
@@ -39,6 +49,8 @@ public class AbcExporter
 
 	private long exportStartTick;
 	private long exportEndTick;
+	private int[] previewTrackNumbers = new int[0];
+	private boolean parallelQuantize = true;
 
 	public AbcExporter(List<AbcPart> parts, QuantizedTimingInfo timingInfo, KeySignature keySignature,
 			AbcMetadataSource metadata) throws AbcConversionException
@@ -92,6 +104,20 @@ public class AbcExporter
 		return exportEndTick;
 	}
 
+	public boolean isParallelQuantize()
+	{
+		return parallelQuantize;
+	}
+
+	/**
+	 * If true (the default), the parts are quantized concurrently on a thread pool before being
+	 * written out in part order. The output is the same either way.
+	 */
+	public void setParallelQuantize(boolean parallelQuantize)
+	{
+		this.parallelQuantize = parallelQuantize;
+	}
+
 	public long getExportStartMicros()
 	{
 		return qtm.tickToMicros(getExportStartTick());
@@ -138,14 +164,21 @@ public class AbcExporter
 			track0.add(MidiFactory.createTrackNameEvent(metadata.getSongTitle()));
 			addMidiTempoEvents(track0);
 
+			List<List<Chord>> chordsByPart = combineAndQuantizeAll(false, exportStartTick, exportEndTick);
+
 			PanGenerator panner = new PanGenerator();
 			List<ExportTrackInfo> infoList = new ArrayList<ExportTrackInfo>();
-			for (AbcPart part : parts)
+			int[] trackNumbers = new int[parts.size()];
+			for (int i = 0; i < parts.size(); i++)
 			{
+				AbcPart part = parts.get(i);
 				int pan = (parts.size() > 1) ? panner.get(part.getInstrument(), part.getTitle()) : PanGenerator.CENTER;
-				infoList.add(exportPartToPreview(part, sequence, exportStartTick, exportEndTick, pan,
-						useLotroInstruments));
+				ExportTrackInfo info = exportPartToPreview(part, sequence, chordsByPart.get(i), pan,
+						useLotroInstruments);
+				trackNumbers[i] = info.trackNumber;
+				infoList.add(info);
 			}
+			previewTrackNumbers = trackNumbers;
 
 			return new Pair<List<ExportTrackInfo>, Sequence>(infoList, sequence);
 		}
@@ -159,6 +192,16 @@ public class AbcExporter
 		}
 	}
 
+	/**
+	 * Tells each part which track of the last sequence from {@link #exportToPreview(boolean)} it was
+	 * exported to. The parts belong to the UI, so this should be called on the event dispatch thread.
+	 */
+	public void applyPreviewSequenceTrackNumbers()
+	{
+		for (int i = 0; i < previewTrackNumbers.length && i < parts.size(); i++)
+			parts.get(i).getLivePart().setPreviewSequenceTrackNumber(previewTrackNumbers[i]);
+	}
+
 	private void addMidiTempoEvents(Track track0)
 	{
 		for (QuantizedTimingInfo.TimingInfoEvent event : qtm.getTimingInfoByTick().values())
@@ -177,11 +220,9 @@ public class AbcExporter
 		}
 	}
 
-	private ExportTrackInfo exportPartToPreview(AbcPart part, Sequence sequence, long songStartTick, long songEndTick,
-			int pan, boolean useLotroInstruments) throws AbcConversionException
+	private ExportTrackInfo exportPartToPreview(AbcPart part, Sequence sequence, List<Chord> chords, int pan,
+			boolean useLotroInstruments)
 	{
-		List<Chord> chords = combineAndQuantize(part, false, songStartTick, songEndTick);
-
 		int trackNumber = exportPartToMidi(part, sequence, chords, pan, useLotroInstruments);
 
 		List<NoteEvent> noteEvents = new ArrayList<NoteEvent>(chords.size());
@@ -194,14 +235,10 @@ public class AbcExporter
 				if (ne.note == Note.REST || ne.tiesFrom != null)
 					continue;
 
-				// Convert tied notes into a single note event
+				// Convert tied notes into a single note event. Make a copy rather than modifying
+				// the note, since the chords are cached by the part and may be exported again.
 				if (ne.tiesTo != null)
-				{
-					ne.setEndTick(ne.getTieEnd().getEndTick());
-					ne.tiesTo = null;
-					// Not fixing up the ne.tiesTo.tiesFrom pointer since we that for the    
-					// (ne.tiesFrom != null) check above, and we otherwise don't care about ne.tiesTo.
-				}
+					ne = new NoteEvent(ne.note, ne.velocity, ne.getStartTick(), ne.getTieEnd().getEndTick(), qtm);
 
 				noteEvents.add(ne);
 			}
@@ -225,13 +262,13 @@ public class AbcExporter
 	private int exportPartToMidi(AbcPart part, Sequence out, List<Chord> chords, int pan, boolean useLotroInstruments)
 	{
 		int trackNumber = out.getTracks().length;
-		part.setPreviewSequenceTrackNumber(trackNumber);
-		int channel = trackNumber;
-		if (channel >= MidiConstants.DRUM_CHANNEL)
-			channel++;
+		int channel = MidiPorts.getTrackChannel(trackNumber);
 
 		Track track = out.createTrack();
 
+		int port = MidiPorts.getTrackPort(trackNumber);
+		if (port > 0)
+			track.add(MidiFactory.createPortEvent(port));
 		track.add(MidiFactory.createTrackNameEvent(part.getTitle()));
 		track.add(MidiFactory.createProgramChangeEvent(part.getInstrument().midiProgramId, channel, 0));
 		if (useLotroInstruments)
@@ -325,17 +362,15 @@ public class AbcExporter
 			out.println(AbcField.ABC_VERSION + "2.1");
 		}
 
-		for (AbcPart part : parts)
+		List<List<Chord>> chordsByPart = combineAndQuantizeAll(true, exportStartTick, exportEndTick);
+		for (int i = 0; i < parts.size(); i++)
 		{
-			exportPartToAbc(part, exportStartTick, exportEndTick, out);
+			exportPartToAbc(parts.get(i), chordsByPart.get(i), exportStartTick, out);
 		}
 	}
 
-	private void exportPartToAbc(AbcPart part, long songStartTick, long songEndTick, PrintStream out)
-			throws AbcConversionException
+	private void exportPartToAbc(AbcPart part, List<Chord> chords, long songStartTick, PrintStream out)
 	{
-		List<Chord> chords = combineAndQuantize(part, true, songStartTick, songEndTick);
-
 		out.println();
 		out.println("X: " + part.getPartNumber());
 		if (metadata != null)
@@ -420,8 +455,6 @@ public class AbcExporter
 				continue;
 			}
 
-			c.sort();
-
 			// Is this the start of a new bar?
 			int barNumber = qtm.tickToBarNumber(c.getStartTick());
 			assert curBarNumber <= barNumber;
@@ -577,11 +610,103 @@ public class AbcExporter
 		out.println();
 	}
 
+	private static class QuantizePoolHolder
+	{
+		public static final ExecutorService POOL = Executors.newFixedThreadPool(Runtime.getRuntime()
+				.availableProcessors(), new ThreadFactory()
+		{
+			@Override public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "AbcExporter-quantize");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
 	/**
-	 * Combine the tracks into one, quantize the note lengths, separate into chords.
+	 * Quantizes all of the parts, concurrently if {@link #isParallelQuantize()} is set. The results
+	 * are returned in the same order as the parts.
+	 */
+	private List<List<Chord>> combineAndQuantizeAll(final boolean addTies, final long songStartTick,
+			final long songEndTick) throws AbcConversionException
+	{
+		List<List<Chord>> chordsByPart = new ArrayList<List<Chord>>(parts.size());
+
+		if (!parallelQuantize || parts.size() <= 1 || Runtime.getRuntime().availableProcessors() <= 1)
+		{
+			for (AbcPart part : parts)
+				chordsByPart.add(combineAndQuantize(part, addTies, songStartTick, songEndTick));
+
+			return chordsByPart;
+		}
+
+		List<Future<List<Chord>>> futures = new ArrayList<Future<List<Chord>>>(parts.size());
+		try
+		{
+			for (final AbcPart part : parts)
+			{
+				futures.add(QuantizePoolHolder.POOL.submit(new Callable<List<Chord>>()
+				{
+					@Override public List<Chord> call() throws AbcConversionException
+					{
+						return combineAndQuantize(part, addTies, songStartTick, songEndTick);
+					}
+				}));
+			}
+
+			for (Future<List<Chord>> future : futures)
+				chordsByPart.add(future.get());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new AbcConversionException("ABC export was interrupted", e);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof AbcConversionException)
+				throw (AbcConversionException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+		finally
+		{
+			// Stop any parts that are still running if one failed
+			for (Future<List<Chord>> future : futures)
+				future.cancel(true);
+		}
+
+		return chordsByPart;
+	}
+
+	/**
+	 * Returns the part's quantized chords, reusing the ones cached by the part if it hasn't changed
+	 * since the last export with the same settings. The returned chords must not be modified.
 	 */
 	private List<Chord> combineAndQuantize(AbcPart part, boolean addTies, final long songStartTick,
 			final long songEndTick) throws AbcConversionException
+	{
+		List<Chord> chords = part.getCachedChords(qtm, addTies, songStartTick, songEndTick);
+		if (chords == null)
+		{
+			// Get the version before quantizing, in case the part is modified on another thread
+			int version = part.getChangeVersion();
+			chords = Collections.unmodifiableList(quantizePart(part, addTies, songStartTick, songEndTick));
+			part.setCachedChords(version, qtm, addTies, songStartTick, songEndTick, chords);
+		}
+		return chords;
+	}
+
+	/**
+	 * Combine the tracks into one, quantize the note lengths, separate into chords.
+	 */
+	private List<Chord> quantizePart(AbcPart part, boolean addTies, final long songStartTick,
+			final long songEndTick) throws AbcConversionException
 	{
 		// Combine the events from the enabled tracks
 		List<NoteEvent> events = new ArrayList<NoteEvent>();
@@ -589,20 +714,21 @@ public class AbcExporter
 		{
 			if (part.isTrackEnabled(t))
 			{
-				for (NoteEvent ne : part.getTrackEvents(t))
+				NoteEventList trackEvents = part.getTrackEvents(t);
+				for (int i = 0; i < trackEvents.size(); i++)
 				{
 					// Skip notes that are outside of the play range.
-					if (ne.getEndTick() <= songStartTick || ne.getStartTick() >= songEndTick)
+					if (trackEvents.getEndTick(i) <= songStartTick || trackEvents.getStartTick(i) >= songEndTick)
 						continue;
 
-					Note mappedNote = part.mapNote(t, ne.note.id);
+					Note mappedNote = part.mapNote(t, trackEvents.getNoteId(i));
 					if (mappedNote != null)
 					{
 						assert mappedNote.id >= part.getInstrument().lowestPlayable.id : mappedNote;
 						assert mappedNote.id <= part.getInstrument().highestPlayable.id : mappedNote;
-						long startTick = Math.max(ne.getStartTick(), songStartTick);
-						long endTick = Math.min(ne.getEndTick(), songEndTick);
-						int velocity = ne.velocity + part.getTrackVolumeAdjust(t);
+						long startTick = Math.max(trackEvents.getStartTick(i), songStartTick);
+						long endTick = Math.min(trackEvents.getEndTick(i), songEndTick);
+						int velocity = trackEvents.getVelocity(i) + part.getTrackVolumeAdjust(t);
 						events.add(new NoteEvent(mappedNote, velocity, startTick, endTick, qtm));
 					}
 				}
@@ -661,11 +787,10 @@ public class AbcExporter
 		}
 
 		// Remove duplicate notes
+		List<NoteEvent> dedupedEvents = new ArrayList<NoteEvent>(events.size());
 		List<NoteEvent> notesOn = new ArrayList<NoteEvent>();
-		neIter = events.iterator();
-		dupLoop: while (neIter.hasNext())
+		dupLoop: for (NoteEvent ne : events)
 		{
-			NoteEvent ne = neIter.next();
 			Iterator<NoteEvent> onIter = notesOn.iterator();
 			while (onIter.hasNext())
 			{
@@ -685,7 +810,6 @@ public class AbcExporter
 							on.setEndTick(ne.getEndTick());
 
 						// Remove the duplicate note
-						neIter.remove();
 						continue dupLoop;
 					}
 					else
@@ -704,27 +828,28 @@ public class AbcExporter
 				}
 			}
 			notesOn.add(ne);
+			dedupedEvents.add(ne);
 		}
 
-		breakLongNotes(part, events, addTies);
+		NoteQueue queue = new NoteQueue(breakLongNotes(part, dedupedEvents, addTies));
 
-		List<Chord> chords = new ArrayList<Chord>(events.size() / 2);
-		List<NoteEvent> tmpEvents = new ArrayList<NoteEvent>();
+		List<Chord> chords = new ArrayList<Chord>(dedupedEvents.size() / 2);
 
 		// Combine notes that play at the same time into chords
-		Chord curChord = new Chord(events.get(0));
+		Chord curChord = new Chord(queue.poll());
 		chords.add(curChord);
-		for (int i = 1; i < events.size(); i++)
+		NoteEvent ne;
+		while ((ne = queue.peek()) != null)
 		{
-			NoteEvent ne = events.get(i);
 			if (curChord.getStartTick() == ne.getStartTick())
 			{
+				queue.poll();
+
 				// This note starts at the same time as the rest of the notes in the chord
 				if (!curChord.add(ne))
 				{
 					// Couldn't add the note (too many notes in the chord)
-					removeNote(events, i);
-					i--;
+					removeNote(queue, ne);
 				}
 			}
 			else
@@ -748,15 +873,11 @@ public class AbcExporter
 							// This note extends past the end of the chord; break it into two tied notes
 							NoteEvent next = jne.splitWithTieAtTick(targetEndTick);
 
-							int ins = Collections.binarySearch(events, next);
-							if (ins < 0)
-								ins = -ins - 1;
-							assert (ins >= i);
-							// If we're inserting before the current note, back up and process the added note
-							if (ins == i)
+							// If the added note comes before the current note, process the added note first
+							if (next.compareTo(ne) <= 0)
 								reprocessCurrentNote = true;
 
-							events.add(ins, next);
+							queue.add(next);
 						}
 					}
 
@@ -765,10 +886,7 @@ public class AbcExporter
 						curChord.recalcEndTick();
 
 					if (reprocessCurrentNote)
-					{
-						i--;
 						continue;
-					}
 				}
 				else
 				{
@@ -784,7 +902,7 @@ public class AbcExporter
 						// Make sure there's room to add the rest
 						while (curChord.size() >= Chord.MAX_CHORD_NOTES)
 						{
-							removeNote(events, curChord.remove(curChord.size() - 1));
+							removeNote(queue, curChord.remove(curChord.size() - 1));
 						}
 					}
 
@@ -800,28 +918,41 @@ public class AbcExporter
 				// Insert a rest between the chords if needed
 				if (curChord.getEndTick() < nextChord.getStartTick())
 				{
-					tmpEvents.clear();
-					tmpEvents.add(new NoteEvent(Note.REST, Dynamics.DEFAULT.midiVol, curChord.getEndTick(), nextChord
-							.getStartTick(), qtm));
-					breakLongNotes(part, tmpEvents, addTies);
+					List<NoteEvent> restEvents = breakLongNotes(part, Collections.singletonList(new NoteEvent(
+							Note.REST, Dynamics.DEFAULT.midiVol, curChord.getEndTick(), nextChord.getStartTick(), qtm)),
+							addTies);
 
-					for (NoteEvent restEvent : tmpEvents)
+					for (NoteEvent restEvent : restEvents)
 						chords.add(new Chord(restEvent));
 				}
 
+				queue.poll();
 				chords.add(nextChord);
 				curChord = nextChord;
 			}
 		}
 
+		// Sort the notes now, since the chords are cached and shared by later exports
+		for (Chord c : chords)
+			c.sort();
+
 		return chords;
 	}
 
-	private void breakLongNotes(AbcPart part, List<NoteEvent> events, boolean addTies)
+	/**
+	 * Breaks notes that are too long for LotRO to play, and if addTies is set, adds ties across bar
+	 * and tempo boundaries and to align notes with the unit-note grid.
+	 * 
+	 * @param events The notes to process, in sorted order.
+	 * @return A new sorted list with the broken notes.
+	 */
+	private List<NoteEvent> breakLongNotes(AbcPart part, List<NoteEvent> events, boolean addTies)
 	{
-		for (int i = 0; i < events.size(); i++)
+		List<NoteEvent> brokenEvents = new ArrayList<NoteEvent>(events.size());
+		NoteQueue queue = new NoteQueue(events);
+		NoteEvent ne;
+		while ((ne = queue.poll()) != null)
 		{
-			NoteEvent ne = events.get(i);
 			TimingInfo tm = qtm.getTimingInfo(ne.getStartTick());
 			long maxNoteEndTick = ne.getStartTick() + tm.getMaxNoteLengthTicks();
 
@@ -843,11 +974,8 @@ public class AbcExporter
 				if (ne.note == Note.REST || part.getInstrument().isSustainable(ne.note.id))
 				{
 					NoteEvent next = new NoteEvent(ne.note, ne.velocity, maxNoteEndTick, ne.getEndTick(), qtm);
-					int ins = Collections.binarySearch(events, next);
-					if (ins < 0)
-						ins = -ins - 1;
-					assert (ins > i);
-					events.add(ins, next);
+					assert next.compareTo(ne) > 0;
+					queue.add(next);
 
 					/* If the final note is less than a full bar length, just tie it to the original
 					 * note rather than creating a hard break. We don't want the last piece of a
@@ -906,20 +1034,21 @@ public class AbcExporter
 				if (ne.getEndTick() > targetEndTick)
 				{
 					NoteEvent next = ne.splitWithTieAtTick(targetEndTick);
-					int ins = Collections.binarySearch(events, next);
-					if (ins < 0)
-						ins = -ins - 1;
-					assert (ins > i);
-					events.add(ins, next);
+					assert next.compareTo(ne) > 0;
+					queue.add(next);
 				}
 			}
+
+			brokenEvents.add(ne);
 		}
+
+		return brokenEvents;
 	}
 
 	/** Removes a note and breaks any ties the note has. */
-	private void removeNote(List<NoteEvent> events, int i)
+	private void removeNote(NoteQueue events, NoteEvent ne)
 	{
-		NoteEvent ne = events.remove(i);
+		events.remove(ne);
 
 		// If the note is tied from another (previous) note, break the incoming tie
 		if (ne.tiesFrom != null)
@@ -935,10 +1064,77 @@ public class AbcExporter
 		}
 	}
 
-	/** Removes a note and breaks any ties the note has. */
-	private void removeNote(List<NoteEvent> events, NoteEvent ne)
+	/**
+	 * Iterates over a sorted list of notes in order, merged with any notes that are added while
+	 * iterating. Adding and removing notes is O(log n), unlike inserting into the sorted list. Notes
+	 * must not be modified while they're in the queue, since that would change their sort order.
+	 */
+	private static class NoteQueue
 	{
-		removeNote(events, events.indexOf(ne));
+		private final List<NoteEvent> sortedEvents;
+		private int sortedIndex = 0;
+		private final PriorityQueue<NoteEvent> addedEvents = new PriorityQueue<NoteEvent>();
+		private final Set<NoteEvent> removedEvents = Collections
+				.newSetFromMap(new IdentityHashMap<NoteEvent, Boolean>());
+
+		public NoteQueue(List<NoteEvent> sortedEvents)
+		{
+			this.sortedEvents = sortedEvents;
+		}
+
+		public void add(NoteEvent ne)
+		{
+			addedEvents.add(ne);
+		}
+
+		/** Removes the note, if it's still in the queue. */
+		public void remove(NoteEvent ne)
+		{
+			removedEvents.add(ne);
+		}
+
+		/** Returns the first note, without removing it, or null if the queue is empty. */
+		public NoteEvent peek()
+		{
+			while (true)
+			{
+				NoteEvent sorted = (sortedIndex < sortedEvents.size()) ? sortedEvents.get(sortedIndex) : null;
+				NoteEvent added = addedEvents.peek();
+
+				// Added notes go before existing notes that compare equal, the same as inserting
+				// them into the sorted list would.
+				if (added != null && (sorted == null || added.compareTo(sorted) <= 0))
+				{
+					if (!removedEvents.contains(added))
+						return added;
+					addedEvents.poll();
+				}
+				else if (sorted != null)
+				{
+					if (!removedEvents.contains(sorted))
+						return sorted;
+					sortedIndex++;
+				}
+				else
+				{
+					return null;
+				}
+			}
+		}
+
+		/** Removes and returns the first note, or null if the queue is empty. */
+		public NoteEvent poll()
+		{
+			NoteEvent ne = peek();
+			if (ne != null)
+			{
+				if (ne == addedEvents.peek())
+					addedEvents.poll();
+				else
+					sortedIndex++;
+			}
+			return ne;
+		}
 	}
 
 	public Pair<Long, Long> getSongStartEndTick(boolean lengthenToBar, boolean accountForSustain)
@@ -2,7 +2,6 @@ package com.digero.maestro.abc;
 
 import java.util.BitSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.SortedSet;
 import java.util.prefs.Preferences;
 
@@ -24,7 +23,8 @@ import com.digero.common.util.ParseException;
 import com.digero.common.util.Version;
 import com.digero.maestro.abc.AbcPartEvent.AbcPartProperty;
 import com.digero.maestro.abc.AbcSongEvent.AbcSongProperty;
-import com.digero.maestro.midi.NoteEvent;
+import com.digero.maestro.midi.Chord;
+import com.digero.maestro.midi.NoteEventList;
 import com.digero.maestro.midi.SequenceInfo;
 import com.digero.maestro.midi.TrackInfo;
 import com.digero.maestro.util.SaveUtil;
@@ -43,14 +43,26 @@ public class AbcPart implements AbcPartMetadataSource, NumberedAbcPart, IDiscard
 	private BitSet[] cowbellsEnabled;
 
 	private final AbcSong abcSong;
+	// For a snapshot, the part that it was copied from and the song's transpose when it was copied
+	private final AbcPart snapshotSource;
+	private final int snapshotSongTranspose;
 	private int enabledTrackCount = 0;
 	private int previewSequenceTrackNumber = -1;
 	private final ListenerList<AbcPartEvent> listeners = new ListenerList<AbcPartEvent>();
 	private Preferences drumPrefs = Preferences.userNodeForPackage(AbcPart.class).node("drums");
 
+	// Quantized chords memoized by AbcExporter. These may be accessed from the ABC preview builder
+	// thread, and are invalidated by incrementing changeVersion whenever the part changes. Snapshots
+	// share the cache of the part they were copied from.
+	private volatile int changeVersion = 0;
+	private volatile CachedChords cachedPreviewChords = null;
+	private volatile CachedChords cachedAbcChords = null;
+
 	public AbcPart(AbcSong abcSong)
 	{
 		this.abcSong = abcSong;
+		this.snapshotSource = null;
+		this.snapshotSongTranspose = 0;
 		abcSong.addSongListener(songListener);
 		this.instrument = LotroInstrument.LUTE;
 		this.title = this.instrument.toString();
@@ -67,8 +79,68 @@ public class AbcPart implements AbcPartMetadataSource, NumberedAbcPart, IDiscard
 		this(abcSong);
 	}
 
+	private AbcPart(AbcPart source)
+	{
+		this.abcSong = source.abcSong;
+		this.snapshotSource = source;
+		this.snapshotSongTranspose = source.abcSong.getTranspose();
+
+		this.partNumber = source.partNumber;
+		this.title = source.title;
+		this.instrument = source.instrument;
+		this.trackTranspose = source.trackTranspose.clone();
+		this.trackEnabled = source.trackEnabled.clone();
+		this.trackVolumeAdjust = source.trackVolumeAdjust.clone();
+		this.enabledTrackCount = source.enabledTrackCount;
+		this.changeVersion = source.changeVersion;
+
+		this.drumNoteMap = new DrumNoteMap[source.drumNoteMap.length];
+		for (int t = 0; t < drumNoteMap.length; t++)
+		{
+			if (source.drumNoteMap[t] != null)
+				drumNoteMap[t] = source.drumNoteMap[t].copy();
+		}
+		this.drumsEnabled = copyOf(source.drumsEnabled);
+		this.cowbellsEnabled = copyOf(source.cowbellsEnabled);
+	}
+
+	private static BitSet[] copyOf(BitSet[] bitSets)
+	{
+		if (bitSets == null)
+			return null;
+
+		BitSet[] copy = new BitSet[bitSets.length];
+		for (int i = 0; i < bitSets.length; i++)
+		{
+			if (bitSets[i] != null)
+				copy[i] = (BitSet) bitSets[i].clone();
+		}
+		return copy;
+	}
+
+	/**
+	 * Creates a copy of the part's settings that doesn't change when the part is edited, so that it
+	 * can be exported on a background thread. Must be called on the thread that edits the part.
+	 */
+	AbcPart createSnapshot()
+	{
+		return new AbcPart(this);
+	}
+
+	/**
+	 * For a snapshot from {@link #createSnapshot()}, gets the part that it was copied from;
+	 * otherwise gets this part.
+	 */
+	public AbcPart getLivePart()
+	{
+		return (snapshotSource == null) ? this : snapshotSource;
+	}
+
 	@Override public void discard()
 	{
+		if (snapshotSource != null)
+			return;
+
 		abcSong.removeSongListener(songListener);
 		listeners.discard();
 		for (int i = 0; i < drumNoteMap.length; i++)
@@ -268,7 +340,7 @@ public class AbcPart implements AbcPartMetadataSource, NumberedAbcPart, IDiscard
 		}
 	};
 
-	public List<NoteEvent> getTrackEvents(int track)
+	public NoteEventList getTrackEvents(int track)
 	{
 		return abcSong.getSequenceInfo().getTrackInfo(track).getEvents();
 	}
@@ -312,12 +384,13 @@ public class AbcPart implements AbcPartMetadataSource, NumberedAbcPart, IDiscard
 		{
 			if (isTrackEnabled(t))
 			{
-				for (NoteEvent ne : getTrackEvents(t))
+				NoteEventList evts = getTrackEvents(t);
+				for (int i = 0; i < evts.size(); i++)
 				{
-					if (mapNote(t, ne.note.id) != null)
+					if (mapNote(t, evts.getNoteId(i)) != null)
 					{
-						if (ne.getStartTick() < startTick)
-							startTick = ne.getStartTick();
+						if (evts.getStartTick(i) < startTick)
+							startTick = evts.getStartTick(i);
 						break;
 					}
 				}
@@ -342,21 +415,19 @@ public class AbcPart implements AbcPartMetadataSource, NumberedAbcPart, IDiscard
 		{
 			if (isTrackEnabled(t))
 			{
-				List<NoteEvent> evts = getTrackEvents(t);
-				ListIterator<NoteEvent> iter = evts.listIterator(evts.size());
-				while (iter.hasPrevious())
+				NoteEventList evts = getTrackEvents(t);
+				for (int i = evts.size() - 1; i >= 0; i--)
 				{
-					NoteEvent ne = iter.previous();
-					if (mapNote(t, ne.note.id) != null)
+					int noteId = evts.getNoteId(i);
+					if (mapNote(t, noteId) != null)
 					{
 						long noteEndTick;
-						if (!accountForSustain || instrument.isSustainable(ne.note.id))
-							noteEndTick = ne.getEndTick();
+						if (!accountForSustain || instrument.isSustainable(noteId))
+							noteEndTick = evts.getEndTick(i);
 						else
 						{
-							ITempoCache tc = ne.getTempoCache();
-							noteEndTick = tc.microsToTick(tc.tickToMicros(ne.getStartTick())
-									+ TimingInfo.ONE_SECOND_MICROS);
+							ITempoCache tc = evts.getTempoCache();
+							noteEndTick = tc.microsToTick(evts.getStartMicros(i) + TimingInfo.ONE_SECOND_MICROS);
 						}
 
 						if (noteEndTick > endTick)
@@ -462,7 +533,8 @@ public class AbcPart implements AbcPartMetadataSource, NumberedAbcPart, IDiscard
 	{
 		if (isDrumPart())
 			return 0;
-		return abcSong.getTranspose() + trackTranspose[track] - getInstrument().octaveDelta * 12;
+		int songTranspose = (snapshotSource == null) ? abcSong.getTranspose() : snapshotSongTranspose;
+		return songTranspose + trackTranspose[track] - getInstrument().octaveDelta * 12;
 	}
 
 	public boolean isTrackEnabled(int track)
@@ -550,12 +622,76 @@ public class AbcPart implements AbcPartMetadataSource, NumberedAbcPart, IDiscard
 
 	protected void fireChangeEvent(AbcPartProperty property, boolean abcPreviewRelated, int trackNumber)
 	{
+		if (property.isAbcPreviewRelated())
+			changeVersion++;
+
 		if (listeners.size() == 0)
 			return;
 
 		listeners.fire(new AbcPartEvent(this, property, abcPreviewRelated, trackNumber));
 	}
 
+	//
+	// QUANTIZED CHORD CACHE
+	//
+
+	private static class CachedChords
+	{
+		public final int version;
+		public final QuantizedTimingInfo qtm;
+		public final long songStartTick;
+		public final long songEndTick;
+		public final List<Chord> chords;
+
+		public CachedChords(int version, QuantizedTimingInfo qtm, long songStartTick, long songEndTick,
+				List<Chord> chords)
+		{
+			this.version = version;
+			this.qtm = qtm;
+			this.songStartTick = songStartTick;
+			this.songEndTick = songEndTick;
+			this.chords = chords;
+		}
+	}
+
+	/**
+	 * Incremented every time a property that affects the exported notes is changed.
+	 */
+	int getChangeVersion()
+	{
+		return changeVersion;
+	}
+
+	/**
+	 * Returns the chords that were cached by {@link #setCachedChords}, or null if the part has been
+	 * modified since they were cached, or if they were quantized with different export settings.
+	 */
+	List<Chord> getCachedChords(QuantizedTimingInfo qtm, boolean addTies, long songStartTick, long songEndTick)
+	{
+		AbcPart owner = getLivePart();
+		CachedChords cached = addTies ? owner.cachedAbcChords : owner.cachedPreviewChords;
+		if (cached == null || cached.version != changeVersion || cached.qtm != qtm
+				|| cached.songStartTick != songStartTick || cached.songEndTick != songEndTick)
+		{
+			return null;
+		}
+		return cached.chords;
+	}
+
+	/**
+	 * @param version The value of {@link #getChangeVersion()} from before the chords were quantized.
+	 */
+	void setCachedChords(int version, QuantizedTimingInfo qtm, boolean addTies, long songStartTick,
+			long songEndTick, List<Chord> chords)
+	{
+		CachedChords cached = new CachedChords(version, qtm, songStartTick, songEndTick, chords);
+		AbcPart owner = getLivePart();
+		if (addTies)
+			owner.cachedAbcChords = cached;
+		else
+			owner.cachedPreviewChords = cached;
+	}
+
 	//
 	// DRUMS
 	//
@@ -4,8 +4,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Set;
 
 import javax.sound.midi.InvalidMidiDataException;
@@ -619,6 +621,19 @@ public class AbcSong implements IDiscardable, AbcMetadataSource
 		return abcExporter;
 	}
 
+	/**
+	 * Creates a new exporter over snapshots of the current parts, which can be used on a background
+	 * thread while the song continues to be edited.
+	 */
+	public AbcExporter createAbcExporterSnapshot() throws AbcConversionException
+	{
+		List<AbcPart> snapshots = new ArrayList<AbcPart>(parts.size());
+		for (AbcPart part : parts)
+			snapshots.add(part.createSnapshot());
+
+		return new AbcExporter(snapshots, getAbcTimingInfo(), getKeySignature(), this);
+	}
+
 	private Comparator<AbcPart> partNumberComparator = new Comparator<AbcPart>()
 	{
 		@Override public int compare(AbcPart p1, AbcPart p2)
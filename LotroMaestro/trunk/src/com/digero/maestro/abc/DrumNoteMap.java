@@ -125,6 +125,19 @@ public class DrumNoteMap implements IDiscardable
 		listeners = null;
 	}
 
+	/** Creates a copy of the mapping, without this map's listeners. */
+	public DrumNoteMap copy()
+	{
+		DrumNoteMap copy = new DrumNoteMap();
+		copyTo(copy);
+		return copy;
+	}
+
+	protected void copyTo(DrumNoteMap other)
+	{
+		other.map = (map == null) ? null : map.clone();
+	}
+
 	@Override public boolean equals(Object obj)
 	{
 		if (obj == null || obj.getClass() != this.getClass())
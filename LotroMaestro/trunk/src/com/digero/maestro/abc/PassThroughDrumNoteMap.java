@@ -27,6 +27,13 @@ public class PassThroughDrumNoteMap extends DrumNoteMap
 		return failsafe;
 	}
 
+	@Override public DrumNoteMap copy()
+	{
+		PassThroughDrumNoteMap copy = new PassThroughDrumNoteMap();
+		copyTo(copy);
+		return copy;
+	}
+
 	@Override public void saveToXml(Element ele)
 	{
 		ele.setAttribute("isPassthrough", String.valueOf(true));
@@ -20,9 +20,13 @@ public class QuantizedTimingInfo implements ITempoCache, IBarNumberCache
 {
 	// Tick => TimingInfoEvent
 	private final NavigableMap<Long, TimingInfoEvent> timingInfoByTick = new TreeMap<Long, TimingInfoEvent>();
+	// The timing events and their start times in tick order, for binary searching by micros
+	private final TimingInfoEvent[] timingInfoByMicros;
+	private final long[] timingInfoStartMicros;
 
-	private NavigableSet<Long> barStartTicks = null;
-	private Long[] barStartTickByBar = null;
+	// Lazily calculated, and may be read from the ABC preview builder thread
+	private volatile NavigableSet<Long> barStartTicks = null;
+	private volatile Long[] barStartTickByBar = null;
 	private final long songLengthTicks;
 	private final int tickResolution;
 
@@ -107,6 +111,11 @@ public class QuantizedTimingInfo implements ITempoCache, IBarNumberCache
 
 			timingInfoByTick.put(tick, event);
 		}
+
+		timingInfoByMicros = timingInfoByTick.values().toArray(new TimingInfoEvent[timingInfoByTick.size()]);
+		timingInfoStartMicros = new long[timingInfoByMicros.length];
+		for (int i = 0; i < timingInfoByMicros.length; i++)
+			timingInfoStartMicros[i] = timingInfoByMicros[i].micros;
 	}
 
 	public int getPrimaryTempoMPQ()
@@ -175,8 +184,9 @@ public class QuantizedTimingInfo implements ITempoCache, IBarNumberCache
 
 	public long tickToBarStartTick(long tick)
 	{
+		NavigableSet<Long> barStartTicks = this.barStartTicks;
 		if (barStartTicks == null)
-			calcBarStarts();
+			barStartTicks = calcBarStarts();
 
 		if (tick <= barStartTicks.last())
 			return barStartTicks.floor(tick);
@@ -186,8 +196,9 @@ public class QuantizedTimingInfo implements ITempoCache, IBarNumberCache
 
 	public long tickToBarEndTick(long tick)
 	{
+		NavigableSet<Long> barStartTicks = this.barStartTicks;
 		if (barStartTicks == null)
-			calcBarStarts();
+			barStartTicks = calcBarStarts();
 
 		Long endTick = barStartTicks.higher(tick);
 		if (endTick != null)
@@ -198,8 +209,12 @@ public class QuantizedTimingInfo implements ITempoCache, IBarNumberCache
 
 	public long barNumberToBarStartTick(int barNumber)
 	{
+		Long[] barStartTickByBar = this.barStartTickByBar;
 		if (barStartTickByBar == null)
+		{
 			calcBarStarts();
+			barStartTickByBar = this.barStartTickByBar;
+		}
 
 		if (barNumber < barStartTickByBar.length)
 			return barStartTickByBar[barNumber];
@@ -223,9 +238,11 @@ public class QuantizedTimingInfo implements ITempoCache, IBarNumberCache
 		return tickResolution;
 	}
 
-	private void calcBarStarts()
+	private NavigableSet<Long> calcBarStarts()
 	{
-		barStartTicks = new TreeSet<Long>();
+		// Build the set locally before publishing it, so another thread never sees a partially
+		// calculated set. If two threads race here they will both calculate the same result.
+		NavigableSet<Long> barStartTicks = new TreeSet<Long>();
 		barStartTicks.add(0L);
 		TimingInfoEvent prev = null;
 		for (TimingInfoEvent event : timingInfoByTick.values())
@@ -254,7 +271,9 @@ public class QuantizedTimingInfo implements ITempoCache, IBarNumberCache
 		}
 		barStartTicks.add(barStart);
 
-		barStartTickByBar = barStartTicks.toArray(new Long[0]);
+		this.barStartTickByBar = barStartTicks.toArray(new Long[0]);
+		this.barStartTicks = barStartTicks;
+		return barStartTicks;
 	}
 
 	TimingInfoEvent getTimingEventForTick(long tick)
@@ -264,15 +283,8 @@ public class QuantizedTimingInfo implements ITempoCache, IBarNumberCache
 
 	TimingInfoEvent getTimingEventForMicros(long micros)
 	{
-		TimingInfoEvent retVal = timingInfoByTick.firstEntry().getValue();
-		for (TimingInfoEvent event : timingInfoByTick.values())
-		{
-			if (event.micros > micros)
-				break;
-
-			retVal = event;
-		}
-		return retVal;
+		int i = Util.floorIndex(timingInfoStartMicros, micros);
+		return timingInfoByMicros[Math.max(i, 0)];
 	}
 
 	TimingInfoEvent getNextTimingEvent(long tick)
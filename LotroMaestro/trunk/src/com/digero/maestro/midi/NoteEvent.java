@@ -34,8 +34,9 @@ public class NoteEvent implements Comparable<NoteEvent>
 
 	private long startTick;
 	private long endTick;
-	private long startMicrosCached;
-	private long endMicrosCached;
+	// Volatile so that concurrent readers never see a torn value
+	private volatile long startMicrosCached;
+	private volatile long endMicrosCached;
 
 	public NoteEvent tiesFrom = null;
 	public NoteEvent tiesTo = null;
@@ -88,18 +89,20 @@ public class NoteEvent implements Comparable<NoteEvent>
 
 	public long getStartMicros()
 	{
-		if (startMicrosCached == -1)
-			startMicrosCached = tempoCache.tickToMicros(startTick);
+		long micros = startMicrosCached;
+		if (micros == -1)
+			startMicrosCached = micros = tempoCache.tickToMicros(startTick);
 
-		return startMicrosCached;
+		return micros;
 	}
 
 	public long getEndMicros()
 	{
-		if (endMicrosCached == -1)
-			endMicrosCached = tempoCache.tickToMicros(endTick);
+		long micros = endMicrosCached;
+		if (micros == -1)
+			endMicrosCached = micros = tempoCache.tickToMicros(endTick);
 
-		return endMicrosCached;
+		return micros;
 	}
 
 	public long getLengthMicros()
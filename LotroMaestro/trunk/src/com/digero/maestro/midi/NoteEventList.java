@@ -0,0 +1,358 @@
+package com.digero.maestro.midi;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.digero.common.midi.ITempoCache;
+import com.digero.common.midi.Note;
+
+/**
+ * An immutable list of note events that stores each note's fields in parallel primitive
+ * arrays instead of as individual {@link NoteEvent} objects. Large MIDI files can contain hundreds
+ * of thousands of notes, so this keeps the per-note overhead down to a few bytes.
+ * <p>
+ * Code that iterates over many notes should use the indexed accessors ({@link #getStartTick(int)},
+ * {@link #getNoteId(int)}, etc.). The {@link List} methods create a new NoteEvent on each call, so
+ * they are best suited to occasional lookups.
+ * <p>
+ * To draw only the notes that are on screen, {@link #indexOfFirstEndingAfter(long)} and
+ * {@link #indexOfFirstStartingAfter(long)} find the range of indexes that can overlap a span of
+ * time, in O(log n). This relies on the notes being sorted by start tick; if they aren't, the range
+ * is the whole list.
+ */
+public class NoteEventList extends AbstractList<NoteEvent> implements RandomAccess
+{
+	public static final NoteEventList EMPTY = new NoteEventList(null, new long[0], new long[0], new byte[0],
+			new byte[0], null);
+
+	private final ITempoCache tempoCache;
+	private final long[] startTick;
+	private final long[] endTick;
+	// Stored unsigned, since note IDs go up to 131
+	private final byte[] noteId;
+	private final byte[] velocity;
+	// Index of the note that each note ties to, or -1. Null if no notes are tied.
+	private final int[] tiesTo;
+	private final boolean sortedByStart;
+	// The latest end tick of the notes up to and including each index. Built the first time that a
+	// range of notes is looked up.
+	private volatile long[] maxEndTick = null;
+
+	private NoteEventList(ITempoCache tempoCache, long[] startTick, long[] endTick, byte[] noteId, byte[] velocity,
+			int[] tiesTo)
+	{
+		this.tempoCache = tempoCache;
+		this.startTick = startTick;
+		this.endTick = endTick;
+		this.noteId = noteId;
+		this.velocity = velocity;
+		this.tiesTo = tiesTo;
+
+		boolean sorted = true;
+		for (int i = 1; i < startTick.length && sorted; i++)
+			sorted = (startTick[i - 1] <= startTick[i]);
+		this.sortedByStart = sorted;
+	}
+
+	/**
+	 * Packs a list of note events, keeping them in the same order. The events must all use the given
+	 * tempo cache. Velocities are clamped to the MIDI range of 0-127.
+	 */
+	public static NoteEventList fromEvents(List<NoteEvent> events, ITempoCache tempoCache)
+	{
+		int size = events.size();
+		if (size == 0)
+			return EMPTY;
+
+		long[] startTick = new long[size];
+		long[] endTick = new long[size];
+		byte[] noteId = new byte[size];
+		byte[] velocity = new byte[size];
+		int[] tiesTo = null;
+		Map<NoteEvent, Integer> indexes = null;
+
+		for (int i = 0; i < size; i++)
+		{
+			NoteEvent ne = events.get(i);
+			assert ne.getTempoCache() == tempoCache;
+
+			startTick[i] = ne.getStartTick();
+			endTick[i] = ne.getEndTick();
+			noteId[i] = (byte) ne.note.id;
+			velocity[i] = (byte) Math.max(0, Math.min(127, ne.velocity));
+
+			if (ne.tiesTo != null)
+			{
+				if (tiesTo == null)
+				{
+					tiesTo = new int[size];
+					indexes = new IdentityHashMap<NoteEvent, Integer>(size);
+					for (int j = 0; j < size; j++)
+					{
+						tiesTo[j] = -1;
+						indexes.put(events.get(j), j);
+					}
+				}
+				Integer tiesToIndex = indexes.get(ne.tiesTo);
+				tiesTo[i] = (tiesToIndex == null) ? -1 : tiesToIndex;
+			}
+		}
+
+		return new NoteEventList(tempoCache, startTick, endTick, noteId, velocity, tiesTo);
+	}
+
+	public ITempoCache getTempoCache()
+	{
+		return tempoCache;
+	}
+
+	@Override public int size()
+	{
+		return startTick.length;
+	}
+
+	/**
+	 * Creates a NoteEvent holding a copy of the note at the given index. Changes to the returned
+	 * event are not reflected in this list, and its tie fields are not set.
+	 */
+	@Override public NoteEvent get(int index)
+	{
+		return new NoteEvent(getNote(index), getVelocity(index), startTick[index], endTick[index], tempoCache);
+	}
+
+	public long getStartTick(int index)
+	{
+		return startTick[index];
+	}
+
+	public long getEndTick(int index)
+	{
+		return endTick[index];
+	}
+
+	public long getLengthTicks(int index)
+	{
+		return endTick[index] - startTick[index];
+	}
+
+	public long getStartMicros(int index)
+	{
+		return tempoCache.tickToMicros(startTick[index]);
+	}
+
+	public long getEndMicros(int index)
+	{
+		return tempoCache.tickToMicros(endTick[index]);
+	}
+
+	public int getNoteId(int index)
+	{
+		return noteId[index] & 0xFF;
+	}
+
+	public Note getNote(int index)
+	{
+		return Note.fromId(getNoteId(index));
+	}
+
+	public int getVelocity(int index)
+	{
+		return velocity[index];
+	}
+
+	/** Gets the index of the note that the given note is tied to, or -1 if it isn't tied. */
+	public int getTiesTo(int index)
+	{
+		return (tiesTo == null) ? -1 : tiesTo[index];
+	}
+
+	/**
+	 * Gets the index of the first note that ends at or after the given time. None of the notes
+	 * before this index overlap any time from <code>micros</code> onward, but some of the notes after
+	 * it may have ended earlier than that, so callers still need to check each note's times.
+	 */
+	public int indexOfFirstEndingAfter(long micros)
+	{
+		if (!sortedByStart || micros <= 0 || size() == 0)
+			return 0;
+
+		// Back off a tick so that rounding in the conversion can't skip a note that ends right at micros
+		long tick = tempoCache.microsToTick(micros) - 1;
+		long[] maxEnd = getMaxEndTick();
+		int lo = 0, hi = maxEnd.length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (maxEnd[mid] < tick)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Gets the index after the last note that starts at or before the given time. None of the notes
+	 * from this index onward overlap any time up to <code>micros</code>.
+	 */
+	public int indexOfFirstStartingAfter(long micros)
+	{
+		if (!sortedByStart || micros == Long.MAX_VALUE || size() == 0)
+			return size();
+
+		// Go forward a tick so that rounding in the conversion can't skip a note that starts at micros
+		long tick = tempoCache.microsToTick(micros) + 1;
+		int lo = 0, hi = startTick.length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (startTick[mid] <= tick)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private long[] getMaxEndTick()
+	{
+		long[] maxEnd = maxEndTick;
+		if (maxEnd == null)
+		{
+			maxEnd = new long[endTick.length];
+			long max = Long.MIN_VALUE;
+			for (int i = 0; i < endTick.length; i++)
+			{
+				max = Math.max(max, endTick[i]);
+				maxEnd[i] = max;
+			}
+			maxEndTick = maxEnd;
+		}
+		return maxEnd;
+	}
+
+	/**
+	 * Accumulates notes directly into primitive arrays. Notes are referred to by the index returned
+	 * from {@link #add}, which stays valid after other notes are removed; removed notes are only
+	 * dropped when the list is built. The built list is sorted by start tick.
+	 */
+	static class Builder
+	{
+		private long[] startTick = new long[64];
+		private long[] endTick = new long[64];
+		private byte[] noteId = new byte[64];
+		private byte[] velocity = new byte[64];
+		private final BitSet removed = new BitSet();
+		private int size = 0;
+		private int removedCount = 0;
+
+		/** Adds a note and returns its index. */
+		public int add(int noteId, int velocity, long startTick, long endTick)
+		{
+			if (size == this.startTick.length)
+			{
+				int capacity = size * 2;
+				this.startTick = Arrays.copyOf(this.startTick, capacity);
+				this.endTick = Arrays.copyOf(this.endTick, capacity);
+				this.noteId = Arrays.copyOf(this.noteId, capacity);
+				this.velocity = Arrays.copyOf(this.velocity, capacity);
+			}
+
+			this.startTick[size] = startTick;
+			this.endTick[size] = endTick;
+			this.noteId[size] = (byte) noteId;
+			this.velocity[size] = (byte) Math.max(0, Math.min(127, velocity));
+			return size++;
+		}
+
+		public void remove(int index)
+		{
+			if (!removed.get(index))
+			{
+				removed.set(index);
+				removedCount++;
+			}
+		}
+
+		public boolean isEmpty()
+		{
+			return size == removedCount;
+		}
+
+		public long getStartTick(int index)
+		{
+			return startTick[index];
+		}
+
+		public void setEndTick(int index, long endTick)
+		{
+			this.endTick[index] = endTick;
+		}
+
+		public int getNoteId(int index)
+		{
+			return noteId[index] & 0xFF;
+		}
+
+		public int getVelocity(int index)
+		{
+			return velocity[index];
+		}
+
+		public NoteEventList build(ITempoCache tempoCache)
+		{
+			int count = size - removedCount;
+			if (count == 0)
+				return EMPTY;
+
+			Integer[] order = new Integer[count];
+			boolean sorted = true;
+			for (int i = 0, j = 0; i < size; i++)
+			{
+				if (removed.get(i))
+					continue;
+
+				if (j > 0 && startTick[order[j - 1]] > startTick[i])
+					sorted = false;
+				order[j++] = i;
+			}
+
+			// A note that replaces a very short note at a pitch bend starts at the earlier note's start
+			// tick, after notes that started later were added. Put them back in order so that lookups
+			// by time can use a binary search. The sort is stable, so notes that start together keep
+			// the order they were added in.
+			if (!sorted)
+			{
+				Arrays.sort(order, new Comparator<Integer>()
+				{
+					@Override public int compare(Integer a, Integer b)
+					{
+						return Long.compare(startTick[a], startTick[b]);
+					}
+				});
+			}
+
+			long[] startTickOut = new long[count];
+			long[] endTickOut = new long[count];
+			byte[] noteIdOut = new byte[count];
+			byte[] velocityOut = new byte[count];
+
+			for (int j = 0; j < count; j++)
+			{
+				int i = order[j];
+				startTickOut[j] = startTick[i];
+				endTickOut[j] = endTick[i];
+				noteIdOut[j] = noteId[i];
+				velocityOut[j] = velocity[i];
+			}
+
+			return new NoteEventList(tempoCache, startTickOut, endTickOut, noteIdOut, velocityOut, null);
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package com.digero.maestro.midi;
+
+import java.util.BitSet;
+
+import com.digero.common.midi.Note;
+
+/**
+ * A summary of when each note is sounding in a list of notes, at several time resolutions. When a
+ * long song is squeezed into a narrow note graph, thousands of notes land in the same pixel column;
+ * drawing the summary instead of the notes makes the cost depend on the width of the graph rather
+ * than on the number of notes.
+ * <p>
+ * Each level divides the time from the start of the song to the end of the last note into columns,
+ * with each level having half as many columns as the one before it. For every note ID that is used,
+ * a level has a bitmap of the columns where that note is sounding, and for every column it has the
+ * average velocity of the notes sounding there.
+ */
+public class NoteSummary
+{
+	private static final int MAX_COLUMNS = 4096;
+	private static final int MIN_COLUMNS = 256;
+
+	public static final NoteSummary EMPTY = new NoteSummary(NoteEventList.EMPTY);
+
+	private final long lengthMicros;
+	private final int[] columnCount;
+	// The columns where each note ID is sounding, indexed by [level][noteId]. Null for unused notes.
+	private final BitSet[][] columns;
+	// The average velocity in each column, indexed by [level][column]
+	private final byte[][] velocity;
+
+	public NoteSummary(NoteEventList noteEvents)
+	{
+		long lengthMicros = 0;
+		for (int i = 0; i < noteEvents.size(); i++)
+			lengthMicros = Math.max(lengthMicros, noteEvents.getEndMicros(i));
+		this.lengthMicros = lengthMicros;
+
+		int levelCount = Integer.numberOfTrailingZeros(MAX_COLUMNS / MIN_COLUMNS) + 1;
+		columnCount = new int[levelCount];
+		columns = new BitSet[levelCount][];
+		velocity = new byte[levelCount][];
+
+		for (int level = 0; level < levelCount; level++)
+		{
+			columnCount[level] = MAX_COLUMNS >> level;
+			columns[level] = new BitSet[Note.MAX.id + 1];
+			velocity[level] = new byte[columnCount[level]];
+		}
+
+		if (lengthMicros <= 0)
+			return;
+
+		// Fill in the finest level from the notes. The velocities are averaged over the time that each
+		// note covers, so long notes count for more than short ones. Each note only adds its velocity
+		// where it starts and subtracts it where it ends, and the running totals are summed up after.
+		BitSet[] noteColumns = columns[0];
+		long[] velocitySum = new long[MAX_COLUMNS + 1];
+		int[] velocityCount = new int[MAX_COLUMNS + 1];
+		for (int i = 0; i < noteEvents.size(); i++)
+		{
+			int noteId = noteEvents.getNoteId(i);
+			int start = getColumn(0, noteEvents.getStartMicros(i));
+			int end = Math.max(start, getColumn(0, noteEvents.getEndMicros(i) - 1)) + 1;
+
+			if (noteColumns[noteId] == null)
+				noteColumns[noteId] = new BitSet(MAX_COLUMNS);
+			noteColumns[noteId].set(start, end);
+
+			int v = noteEvents.getVelocity(i);
+			velocitySum[start] += v;
+			velocitySum[end] -= v;
+			velocityCount[start]++;
+			velocityCount[end]--;
+		}
+
+		for (int c = 0; c < MAX_COLUMNS; c++)
+		{
+			if (c > 0)
+			{
+				velocitySum[c] += velocitySum[c - 1];
+				velocityCount[c] += velocityCount[c - 1];
+			}
+			if (velocityCount[c] > 0)
+				velocity[0][c] = (byte) (velocitySum[c] / velocityCount[c]);
+		}
+
+		// Each coarser level merges pairs of columns from the level before it
+		for (int level = 1; level < levelCount; level++)
+		{
+			BitSet[] fineColumns = columns[level - 1];
+
+			for (int noteId = 0; noteId < fineColumns.length; noteId++)
+			{
+				BitSet fine = fineColumns[noteId];
+				if (fine == null)
+					continue;
+
+				BitSet coarse = new BitSet(columnCount[level]);
+				for (int c = fine.nextSetBit(0); c >= 0; c = fine.nextSetBit(c + 1))
+					coarse.set(c / 2);
+				columns[level][noteId] = coarse;
+			}
+
+			for (int c = 0; c < columnCount[level]; c++)
+			{
+				velocitySum[c] = velocitySum[2 * c] + velocitySum[2 * c + 1];
+				velocityCount[c] = velocityCount[2 * c] + velocityCount[2 * c + 1];
+				if (velocityCount[c] > 0)
+					velocity[level][c] = (byte) (velocitySum[c] / velocityCount[c]);
+			}
+		}
+	}
+
+	/**
+	 * Gets the coarsest level whose columns are no wider than the given number of microseconds, or -1
+	 * if even the finest level's columns are wider than that.
+	 */
+	public int getLevel(double maxColumnMicros)
+	{
+		if (lengthMicros <= 0)
+			return -1;
+
+		for (int level = columnCount.length - 1; level >= 0; level--)
+		{
+			if (getColumnMicros(level) <= maxColumnMicros)
+				return level;
+		}
+		return -1;
+	}
+
+	public int getColumnCount(int level)
+	{
+		return columnCount[level];
+	}
+
+	/** The width of each column in the given level, in microseconds */
+	public double getColumnMicros(int level)
+	{
+		return lengthMicros / (double) columnCount[level];
+	}
+
+	public long getColumnStartMicros(int level, int column)
+	{
+		return column * lengthMicros / columnCount[level];
+	}
+
+	/** Gets the column that contains the given time, clamped to the columns of the level. */
+	public int getColumn(int level, long micros)
+	{
+		if (micros <= 0 || lengthMicros <= 0)
+			return 0;
+
+		return (int) Math.min(columnCount[level] - 1, micros * columnCount[level] / lengthMicros);
+	}
+
+	/** True if the note is sounding anywhere in the song. */
+	public boolean hasNote(int noteId)
+	{
+		return noteId >= 0 && noteId < columns[0].length && columns[0][noteId] != null;
+	}
+
+	/**
+	 * Gets the first column at or after <code>fromColumn</code> where the note is sounding, or -1 if
+	 * there isn't one.
+	 */
+	public int nextColumn(int level, int noteId, int fromColumn)
+	{
+		BitSet bits = columns[level][noteId];
+		if (bits == null)
+			return -1;
+
+		int column = bits.nextSetBit(fromColumn);
+		return (column < columnCount[level]) ? column : -1;
+	}
+
+	/**
+	 * Gets the first column at or after <code>fromColumn</code> where the note isn't sounding. This
+	 * is the column count if the note sounds until the end.
+	 */
+	public int nextEmptyColumn(int level, int noteId, int fromColumn)
+	{
+		BitSet bits = columns[level][noteId];
+		if (bits == null)
+			return fromColumn;
+
+		return Math.min(columnCount[level], bits.nextClearBit(fromColumn));
+	}
+
+	/** The average velocity of the notes that are sounding in the column */
+	public int getVelocity(int level, int column)
+	{
+		return velocity[level][column];
+	}
+}
@@ -17,6 +17,7 @@ import javax.sound.midi.Track;
 import com.digero.common.midi.IBarNumberCache;
 import com.digero.common.midi.IMidiConstants;
 import com.digero.common.midi.ITempoCache;
+import com.digero.common.midi.MidiPorts;
 import com.digero.common.midi.TimeSignature;
 import com.digero.common.util.Util;
 import com.digero.maestro.abc.TimingInfo;
@@ -31,6 +32,9 @@ public class SequenceDataCache implements IMidiConstants, ITempoCache, IBarNumbe
 	private final int maxTempoMPQ;
 	private final TimeSignature timeSignature;
 	private NavigableMap<Long, TempoEvent> tempo = new TreeMap<Long, TempoEvent>();
+	// The tempo events and their start times in the same order as the tempo map, for binary searching by micros
+	private final TempoEvent[] tempoByMicros;
+	private final long[] tempoStartMicros;
 
 	private final long songLengthTicks;
 
@@ -52,7 +56,7 @@ public class SequenceDataCache implements IMidiConstants, ITempoCache, IBarNumbe
 		tickResolution = song.getResolution();
 
 		// Keep track of the active registered paramater number for pitch bend range
-		int[] rpn = new int[CHANNEL_COUNT];
+		int[] rpn = new int[MAX_CHANNEL_COUNT];
 		Arrays.fill(rpn, REGISTERED_PARAM_NONE);
 
 		Track[] tracks = song.getTracks();
@@ -60,6 +64,8 @@ public class SequenceDataCache implements IMidiConstants, ITempoCache, IBarNumbe
 		for (int iTrack = 0; iTrack < tracks.length; iTrack++)
 		{
 			Track track = tracks[iTrack];
+			// The channels of each MIDI port are kept separately
+			int portOffset = 0;
 
 			for (int j = 0, sz = track.size(); j < sz; j++)
 			{
@@ -73,11 +79,11 @@ public class SequenceDataCache implements IMidiConstants, ITempoCache, IBarNumbe
 				{
 					ShortMessage m = (ShortMessage) msg;
 					int cmd = m.getCommand();
-					int ch = m.getChannel();
+					int ch = portOffset + m.getChannel();
 
 					if (cmd == ShortMessage.PROGRAM_CHANGE)
 					{
-						if (ch != DRUM_CHANNEL)
+						if (m.getChannel() != DRUM_CHANNEL)
 						{
 							instruments.put(ch, tick, m.getData1());
 						}
@@ -125,6 +131,10 @@ public class SequenceDataCache implements IMidiConstants, ITempoCache, IBarNumbe
 					{
 						timeSignature = new TimeSignature(m);
 					}
+					else if (m.getType() == META_PORT && MidiPorts.getPort(m) >= 0)
+					{
+						portOffset = MidiPorts.getPort(m) * CHANNEL_COUNT;
+					}
 				}
 			}
 		}
@@ -147,8 +157,14 @@ public class SequenceDataCache implements IMidiConstants, ITempoCache, IBarNumbe
 		this.timeSignature = (timeSignature == null) ? TimeSignature.FOUR_FOUR : timeSignature;
 
 		songLengthTicks = lastTick;
+
+		tempoByMicros = tempo.values().toArray(new TempoEvent[tempo.size()]);
+		tempoStartMicros = new long[tempoByMicros.length];
+		for (int i = 0; i < tempoByMicros.length; i++)
+			tempoStartMicros[i] = tempoByMicros[i].micros;
 	}
 
+	/** For tracks on other MIDI ports, the channel is port * CHANNEL_COUNT + channel. */
 	public int getInstrument(int channel, long tick)
 	{
 		return instruments.get(channel, tick);
@@ -283,15 +299,11 @@ public class SequenceDataCache implements IMidiConstants, ITempoCache, IBarNumbe
 
 	public TempoEvent getTempoEventForMicros(long micros)
 	{
-		TempoEvent prev = TempoEvent.DEFAULT_TEMPO;
-		for (TempoEvent event : tempo.values())
-		{
-			if (event.micros > micros)
-				break;
+		int i = Util.floorIndex(tempoStartMicros, micros);
+		if (i < 0)
+			return TempoEvent.DEFAULT_TEMPO;
 
-			prev = event;
-		}
-		return prev;
+		return tempoByMicros[i];
 	}
 
 	/**
@@ -305,7 +317,7 @@ public class SequenceDataCache implements IMidiConstants, ITempoCache, IBarNumbe
 		@SuppressWarnings("unchecked")//
 		public MapByChannel(int defaultValue)
 		{
-			map = new NavigableMap[CHANNEL_COUNT];
+			map = new NavigableMap[MAX_CHANNEL_COUNT];
 			this.defaultValue = defaultValue;
 		}
 
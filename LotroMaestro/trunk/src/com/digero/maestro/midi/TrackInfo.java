@@ -1,10 +1,9 @@
 package com.digero.maestro.midi;
 
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
@@ -21,6 +20,7 @@ import com.digero.common.abc.LotroInstrument;
 import com.digero.common.midi.IMidiConstants;
 import com.digero.common.midi.KeySignature;
 import com.digero.common.midi.MidiConstants;
+import com.digero.common.midi.MidiPorts;
 import com.digero.common.midi.Note;
 import com.digero.common.midi.TimeSignature;
 import com.digero.maestro.abc.TimingInfo;
@@ -34,13 +34,13 @@ public class TrackInfo implements IMidiConstants
 	private TimeSignature timeSignature = null;
 	private KeySignature keySignature = null;
 	private Set<Integer> instruments;
-	private List<NoteEvent> noteEvents;
+	private NoteEventList noteEvents;
+	private final NoteSummary noteSummary;
 	private SortedSet<Integer> notesInUse;
 	private boolean isDrumTrack;
 	private final int minVelocity;
 	private final int maxVelocity;
 
-	@SuppressWarnings("unchecked")//
 	TrackInfo(SequenceInfo parent, Track track, int trackNumber, SequenceDataCache sequenceCache)
 			throws InvalidMidiDataException
 	{
@@ -48,15 +48,17 @@ public class TrackInfo implements IMidiConstants
 		this.trackNumber = trackNumber;
 
 		instruments = new HashSet<Integer>();
-		noteEvents = new ArrayList<NoteEvent>();
+		NoteEventList.Builder noteEvents = new NoteEventList.Builder();
 		notesInUse = new TreeSet<Integer>();
-		List<NoteEvent>[] notesOn = new List[16];
+		NotesOn[] notesOn = new NotesOn[16];
 		int notesNotTurnedOff = 0;
 
 		int minVelocity = Integer.MAX_VALUE;
 		int maxVelocity = Integer.MIN_VALUE;
 
 		int[] pitchBend = new int[16];
+		// The sequence cache keeps the channels of each MIDI port separately
+		int portOffset = 0;
 		for (int j = 0, sz = track.size(); j < sz; j++)
 		{
 			MidiEvent evt = track.get(j);
@@ -74,37 +76,31 @@ public class TrackInfo implements IMidiConstants
 					System.err.println("Track contains both notes and drums");
 
 				if (notesOn[c] == null)
-					notesOn[c] = new ArrayList<NoteEvent>();
+					notesOn[c] = new NotesOn();
 
 				long tick = evt.getTick();
 				if (cmd == ShortMessage.NOTE_ON || cmd == ShortMessage.NOTE_OFF)
 				{
 					int noteId = m.getData1() + (isDrumTrack ? 0 : pitchBend[c]);
-					int velocity = m.getData2() * sequenceCache.getVolume(c, tick) / DEFAULT_CHANNEL_VOLUME;
+					int velocity = m.getData2() * sequenceCache.getVolume(portOffset + c, tick)
+							/ DEFAULT_CHANNEL_VOLUME;
 					if (velocity > 127)
 						velocity = 127;
 
 					if (cmd == ShortMessage.NOTE_ON && velocity > 0)
 					{
-						Note note = Note.fromId(noteId);
-						if (note == null)
+						if (Note.fromId(noteId) == null)
 						{
 							continue; // Note was probably bent out of range. Not great, but not a reason to fail.
 						}
 
-						NoteEvent ne = new NoteEvent(note, velocity, tick, tick, sequenceCache);
-
-						Iterator<NoteEvent> onIter = notesOn[c].iterator();
-						while (onIter.hasNext())
+						// If the same note is already on, drop the earlier one
+						int onPos = notesOn[c].find(noteEvents, noteId);
+						if (onPos >= 0)
 						{
-							NoteEvent on = onIter.next();
-							if (on.note.id == ne.note.id)
-							{
-								onIter.remove();
-								noteEvents.remove(on);
-								notesNotTurnedOff++;
-								break;
-							}
+							noteEvents.remove(notesOn[c].get(onPos));
+							notesOn[c].removeAt(onPos);
+							notesNotTurnedOff++;
 						}
 
 						if (velocity > maxVelocity)
@@ -114,55 +110,52 @@ public class TrackInfo implements IMidiConstants
 
 						if (!isDrumTrack)
 						{
-							instruments.add(sequenceCache.getInstrument(c, tick));
+							instruments.add(sequenceCache.getInstrument(portOffset + c, tick));
 						}
-						noteEvents.add(ne);
-						notesInUse.add(ne.note.id);
-						notesOn[c].add(ne);
+						notesInUse.add(noteId);
+						notesOn[c].add(noteEvents.add(noteId, velocity, tick, tick));
 					}
 					else
 					{
-						Iterator<NoteEvent> iter = notesOn[c].iterator();
-						while (iter.hasNext())
+						int onPos = notesOn[c].find(noteEvents, noteId);
+						if (onPos >= 0)
 						{
-							NoteEvent ne = iter.next();
-							if (ne.note.id == noteId)
-							{
-								iter.remove();
-								ne.setEndTick(tick);
-								break;
-							}
+							noteEvents.setEndTick(notesOn[c].get(onPos), tick);
+							notesOn[c].removeAt(onPos);
 						}
 					}
 				}
 				else if (cmd == ShortMessage.PITCH_BEND && !isDrumTrack)
 				{
 					double pct = 2 * (((m.getData1() | (m.getData2() << 7)) / (double) (1 << 14)) - 0.5);
-					int bend = (int) Math.round(pct * sequenceCache.getPitchBendRange(m.getChannel(), tick));
+					int bend = (int) Math.round(pct * sequenceCache.getPitchBendRange(portOffset + c, tick));
 
 					if (bend != pitchBend[c])
 					{
-						List<NoteEvent> bentNotes = new ArrayList<NoteEvent>();
-						for (NoteEvent ne : notesOn[c])
+						NotesOn bentNotes = new NotesOn();
+						for (int k = 0; k < notesOn[c].size(); k++)
 						{
-							ne.setEndTick(tick);
+							int index = notesOn[c].get(k);
+							noteEvents.setEndTick(index, tick);
 							long bendTick = tick;
-							if (ne.getLengthMicros() < TimingInfo.SHORTEST_NOTE_MICROS)
+							long startTick = noteEvents.getStartTick(index);
+							long lengthMicros = sequenceCache.tickToMicros(tick)
+									- sequenceCache.tickToMicros(startTick);
+							if (lengthMicros < TimingInfo.SHORTEST_NOTE_MICROS)
 							{
 								// If the note is too short, just skip it. The new (bent) note will 
 								// replace it, so start the bent note at the same time this one started.
-								noteEvents.remove(ne);
-								bendTick = ne.getStartTick();
+								noteEvents.remove(index);
+								bendTick = startTick;
 							}
 
-							Note bn = Note.fromId(ne.note.id + bend - pitchBend[c]);
-							// If bn is null, the note was bent out of the 0-127 range. 
-							// Not much we can do except skip it.
-							if (bn != null)
+							int bentNoteId = noteEvents.getNoteId(index) + bend - pitchBend[c];
+							// If the note was bent out of the 0-127 range, there's
+							// not much we can do except skip it.
+							if (Note.fromId(bentNoteId) != null)
 							{
-								NoteEvent bne = new NoteEvent(bn, ne.velocity, bendTick, bendTick, sequenceCache);
-								noteEvents.add(bne);
-								bentNotes.add(bne);
+								int velocity = noteEvents.getVelocity(index);
+								bentNotes.add(noteEvents.add(bentNoteId, velocity, bendTick, bendTick));
 							}
 						}
 						notesOn[c] = bentNotes;
@@ -198,12 +191,16 @@ public class TrackInfo implements IMidiConstants
 				{
 					timeSignature = new TimeSignature(m);
 				}
+				else if (type == META_PORT && MidiPorts.getPort(m) >= 0)
+				{
+					portOffset = MidiPorts.getPort(m) * CHANNEL_COUNT;
+				}
 			}
 		}
 
 		// Turn off notes that are on at the end of the song.  This shouldn't happen...
 		int ctNotesOn = 0;
-		for (List<NoteEvent> notesOnChannel : notesOn)
+		for (NotesOn notesOnChannel : notesOn)
 		{
 			if (notesOnChannel != null)
 				ctNotesOn += notesOnChannel.size();
@@ -212,10 +209,13 @@ public class TrackInfo implements IMidiConstants
 		{
 			System.err.println((ctNotesOn + notesNotTurnedOff) + " note(s) not turned off at the end of the track.");
 
-			for (List<NoteEvent> notesOnChannel : notesOn)
+			for (NotesOn notesOnChannel : notesOn)
 			{
 				if (notesOnChannel != null)
-					noteEvents.removeAll(notesOnChannel);
+				{
+					for (int k = 0; k < notesOnChannel.size(); k++)
+						noteEvents.remove(notesOnChannel.get(k));
+				}
 			}
 		}
 
@@ -227,7 +227,8 @@ public class TrackInfo implements IMidiConstants
 		this.minVelocity = minVelocity;
 		this.maxVelocity = maxVelocity;
 
-		noteEvents = Collections.unmodifiableList(noteEvents);
+		this.noteEvents = noteEvents.build(sequenceCache);
+		this.noteSummary = summarize(this.noteEvents);
 		notesInUse = Collections.unmodifiableSortedSet(notesInUse);
 		instruments = Collections.unmodifiableSet(instruments);
 	}
@@ -242,7 +243,6 @@ public class TrackInfo implements IMidiConstants
 		this.keySignature = keySignature;
 		this.instruments = new HashSet<Integer>();
 		this.instruments.add(instrument.midiProgramId);
-		this.noteEvents = noteEvents;
 		this.notesInUse = new TreeSet<Integer>();
 
 		int minVelocity = Integer.MAX_VALUE;
@@ -266,11 +266,18 @@ public class TrackInfo implements IMidiConstants
 
 		this.isDrumTrack = false;
 
-		this.noteEvents = Collections.unmodifiableList(this.noteEvents);
+		this.noteEvents = noteEvents.isEmpty() ? NoteEventList.EMPTY : NoteEventList.fromEvents(noteEvents, noteEvents
+				.get(0).getTempoCache());
+		this.noteSummary = summarize(this.noteEvents);
 		this.notesInUse = Collections.unmodifiableSortedSet(this.notesInUse);
 		this.instruments = Collections.unmodifiableSet(this.instruments);
 	}
 
+	private static NoteSummary summarize(NoteEventList noteEvents)
+	{
+		return noteEvents.isEmpty() ? NoteSummary.EMPTY : new NoteSummary(noteEvents);
+	}
+
 	public SequenceInfo getSequenceInfo()
 	{
 		return sequenceInfo;
@@ -314,11 +321,17 @@ public class TrackInfo implements IMidiConstants
 	}
 
 	/** Gets an unmodifiable list of the note events in this track. */
-	public List<NoteEvent> getEvents()
+	public NoteEventList getEvents()
 	{
 		return noteEvents;
 	}
 
+	/** Gets a summary of the notes in this track, for drawing it when it's zoomed far out. */
+	public NoteSummary getNoteSummary()
+	{
+		return noteSummary;
+	}
+
 	public boolean hasEvents()
 	{
 		return !noteEvents.isEmpty();
@@ -390,4 +403,48 @@ public class TrackInfo implements IMidiConstants
 	{
 		return maxVelocity;
 	}
+
+	/**
+	 * The indices of the notes that are currently on in a channel, in the order they were turned
+	 * on. Only a handful of notes are on at any one time, so a linear search is fine.
+	 */
+	private static class NotesOn
+	{
+		private int[] indices = new int[8];
+		private int size = 0;
+
+		public int size()
+		{
+			return size;
+		}
+
+		public int get(int pos)
+		{
+			return indices[pos];
+		}
+
+		public void add(int index)
+		{
+			if (size == indices.length)
+				indices = Arrays.copyOf(indices, size * 2);
+			indices[size++] = index;
+		}
+
+		public void removeAt(int pos)
+		{
+			System.arraycopy(indices, pos + 1, indices, pos, size - pos - 1);
+			size--;
+		}
+
+		/** Finds the position of the first note that is on with the given note ID, or -1. */
+		public int find(NoteEventList.Builder noteEvents, int noteId)
+		{
+			for (int pos = 0; pos < size; pos++)
+			{
+				if (noteEvents.getNoteId(indices[pos]) == noteId)
+					return pos;
+			}
+			return -1;
+		}
+	}
 }
\ No newline at end of file
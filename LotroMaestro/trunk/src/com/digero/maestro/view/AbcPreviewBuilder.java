@@ -0,0 +1,200 @@
+package com.digero.maestro.view;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import com.digero.common.util.IDiscardable;
+import com.digero.maestro.abc.AbcConversionException;
+import com.digero.maestro.abc.AbcExporter;
+import com.digero.maestro.abc.AbcSong;
+import com.digero.maestro.midi.SequenceInfo;
+
+/**
+ * Builds the ABC preview sequence on a background thread so that editing a part doesn't block the
+ * UI while the song is re-quantized. Bursts of requests are coalesced into a single build, and a
+ * build that is superseded by a newer request is cancelled and its result discarded.
+ * <p>
+ * All public methods must be called on the event dispatch thread. The callback is also invoked on
+ * the event dispatch thread.
+ */
+public class AbcPreviewBuilder implements IDiscardable
+{
+	public interface Callback
+	{
+		void onPreviewBuilt(AbcExporter exporter, SequenceInfo previewSequenceInfo);
+
+		void onPreviewFailed(Exception error);
+	}
+
+	private static final int COALESCE_DELAY_MILLIS = 100;
+
+	private final Callback callback;
+	private final ExecutorService executor;
+	private final Timer coalesceTimer;
+
+	private AbcSong abcSong;
+	private boolean useLotroInstruments;
+	private Future<?> pendingBuild = null;
+
+	// Only modified on the event dispatch thread; read by the worker to skip stale builds
+	private volatile int generation = 0;
+
+	public AbcPreviewBuilder(Callback callback)
+	{
+		this.callback = callback;
+
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			@Override public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "AbcPreviewBuilder");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.NORM_PRIORITY - 1);
+				return thread;
+			}
+		});
+
+		coalesceTimer = new Timer(COALESCE_DELAY_MILLIS, new ActionListener()
+		{
+			@Override public void actionPerformed(ActionEvent e)
+			{
+				startBuild();
+			}
+		});
+		coalesceTimer.setRepeats(false);
+	}
+
+	@Override public void discard()
+	{
+		cancel();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Requests that the preview be rebuilt. The build starts once no further requests have been
+	 * made for a short time. Any build that is already in progress is cancelled.
+	 */
+	public void requestBuild(AbcSong abcSong, boolean useLotroInstruments)
+	{
+		cancelPendingBuild();
+		this.abcSong = abcSong;
+		this.useLotroInstruments = useLotroInstruments;
+		coalesceTimer.restart();
+	}
+
+	/**
+	 * Cancels any requested or in-progress build. The callback will not be called for it.
+	 */
+	public void cancel()
+	{
+		coalesceTimer.stop();
+		cancelPendingBuild();
+		abcSong = null;
+	}
+
+	private void cancelPendingBuild()
+	{
+		generation++;
+		if (pendingBuild != null)
+		{
+			pendingBuild.cancel(true);
+			pendingBuild = null;
+		}
+	}
+
+	private void startBuild()
+	{
+		if (abcSong == null)
+			return;
+
+		cancelPendingBuild();
+
+		// Snapshot the parts on the event dispatch thread, since they may be
+		// modified while the worker is running. If any part changes during the
+		// build, a new request will supersede this one and its result is dropped.
+		AbcExporter exporter;
+		try
+		{
+			exporter = abcSong.createAbcExporterSnapshot();
+		}
+		catch (AbcConversionException e)
+		{
+			callback.onPreviewFailed(e);
+			return;
+		}
+
+		pendingBuild = executor.submit(new BuildTask(exporter, useLotroInstruments, generation));
+	}
+
+	private class BuildTask implements Runnable
+	{
+		private final AbcExporter exporter;
+		private final boolean useLotroInstruments;
+		private final int buildGeneration;
+
+		public BuildTask(AbcExporter exporter, boolean useLotroInstruments, int buildGeneration)
+		{
+			this.exporter = exporter;
+			this.useLotroInstruments = useLotroInstruments;
+			this.buildGeneration = buildGeneration;
+		}
+
+		@Override public void run()
+		{
+			if (buildGeneration != generation)
+				return;
+
+			SequenceInfo previewSequenceInfo = null;
+			Exception error = null;
+			try
+			{
+				previewSequenceInfo = SequenceInfo.fromAbcParts(exporter, useLotroInstruments);
+			}
+			catch (Exception e)
+			{
+				error = e;
+			}
+
+			if (buildGeneration == generation)
+				SwingUtilities.invokeLater(new BuildFinishedTask(this, previewSequenceInfo, error));
+		}
+	}
+
+	private class BuildFinishedTask implements Runnable
+	{
+		private final BuildTask task;
+		private final SequenceInfo previewSequenceInfo;
+		private final Exception error;
+
+		public BuildFinishedTask(BuildTask task, SequenceInfo previewSequenceInfo, Exception error)
+		{
+			this.task = task;
+			this.previewSequenceInfo = previewSequenceInfo;
+			this.error = error;
+		}
+
+		@Override public void run()
+		{
+			// A newer request came in while this one was finishing up
+			if (task.buildGeneration != generation)
+				return;
+
+			pendingBuild = null;
+
+			if (error instanceof RuntimeException)
+				throw (RuntimeException) error;
+
+			if (error != null)
+				callback.onPreviewFailed(error);
+			else
+				callback.onPreviewBuilt(task.exporter, previewSequenceInfo);
+		}
+	}
+}
@@ -1,14 +1,17 @@
 package com.digero.maestro.view;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.LayoutManager;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
@@ -17,16 +20,16 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Collections;
-import java.util.List;
 
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.SwingUtilities;
 
 import com.digero.common.abc.Dynamics;
+import com.digero.common.midi.Note;
 import com.digero.common.midi.SequencerEvent;
 import com.digero.common.midi.SequencerEvent.SequencerProperty;
 import com.digero.common.midi.SequencerWrapper;
@@ -34,7 +37,8 @@ import com.digero.common.util.IDiscardable;
 import com.digero.common.util.Listener;
 import com.digero.common.util.Util;
 import com.digero.common.view.ColorTable;
-import com.digero.maestro.midi.NoteEvent;
+import com.digero.maestro.midi.NoteEventList;
+import com.digero.maestro.midi.NoteSummary;
 import com.digero.maestro.midi.SequenceDataCache;
 import com.digero.maestro.midi.SequenceInfo;
 import com.digero.maestro.midi.TrackInfo;
@@ -126,6 +130,8 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 	@Override public void discard()
 	{
 		sequencer.removeChangeListener(this);
+		notesImage = null;
+		notesImageValid = false;
 	}
 
 	protected int transposeNote(int noteId)
@@ -138,7 +144,7 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 		return true;
 	}
 
-	protected boolean isNoteVisible(NoteEvent ne)
+	protected boolean isNoteVisible(int noteId)
 	{
 		return true;
 	}
@@ -148,7 +154,7 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 		if (this.octaveLinesVisible != octaveLinesVisible)
 		{
 			this.octaveLinesVisible = octaveLinesVisible;
-			repaint();
+			invalidateNotes();
 		}
 	}
 
@@ -163,7 +169,7 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 		{
 			this.noteColor = noteColor;
 			Arrays.fill(noteColorByDynamics, null);
-			repaint();
+			invalidateNotes();
 		}
 	}
 
@@ -173,7 +179,7 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 		{
 			this.badNoteColor = badNoteColor;
 			Arrays.fill(badNoteColorByDynamics, null);
-			repaint();
+			invalidateNotes();
 		}
 	}
 
@@ -191,7 +197,7 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 		if (this.deltaVolume != deltaVolume)
 		{
 			this.deltaVolume = deltaVolume;
-			repaint();
+			invalidateNotes();
 		}
 	}
 
@@ -203,8 +209,10 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 	public void setTrackInfo(TrackInfo trackInfo)
 	{
 		this.trackInfo = trackInfo;
+		if (trackInfo != null)
+			this.sequenceInfo = trackInfo.getSequenceInfo();
 		invalidateTransform();
-		repaint();
+		invalidateNotes();
 	}
 
 	public void setShowingNoteVelocity(boolean showingNoteVelocity)
@@ -212,7 +220,7 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 		if (this.showingNoteVelocity != showingNoteVelocity)
 		{
 			this.showingNoteVelocity = showingNoteVelocity;
-			repaint();
+			invalidateNotes();
 		}
 	}
 
@@ -251,14 +259,37 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 		return noteOnOutlineWidthPix;
 	}
 
-	protected List<NoteEvent> getEvents()
+	protected NoteEventList getEvents()
 	{
 		if (trackInfo == null)
-			return Collections.emptyList();
+			return NoteEventList.EMPTY;
 
 		return trackInfo.getEvents();
 	}
 
+	/**
+	 * Gets the summary of the notes from {@link #getEvents()}, or null if there isn't one.
+	 */
+	protected NoteSummary getNoteSummary()
+	{
+		if (trackInfo == null || getEvents() != trackInfo.getEvents())
+			return null;
+
+		return trackInfo.getNoteSummary();
+	}
+
+	/**
+	 * Redraws all of the notes the next time that the graph is painted. Subclasses must call this when
+	 * anything that {@link #transposeNote(int)}, {@link #isNotePlayable(int)},
+	 * {@link #isNoteVisible(int)} or {@link #getEvents()} depend on changes; repaint() alone only
+	 * updates the notes that are on.
+	 */
+	public void invalidateNotes()
+	{
+		notesImageValid = false;
+		repaint();
+	}
+
 	private AffineTransform noteToScreenXForm = null; // Always use getTransform()
 
 	protected final void invalidateTransform()
@@ -368,39 +399,52 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 			{
 				repaint();
 			}
-			else
+			else if (isShowingNotesOn())
 			{
 				AffineTransform xform = getTransform();
 				long left = leftSongPos;
 				long right = rightSongPos;
+				// The highlighted notes only change if a note started or stopped since the last paint
+				long changedSongPos = rightSongPos - SequencerWrapper.UPDATE_FREQUENCY_MICROS;
+				boolean changed = false;
 
 				// The song position changes frequently, so only repaint the rect that 
 				// contains the notes that were/are playing
-				if (isShowingNotesOn())
+				NoteEventList noteEvents = getEvents();
+				int end = noteEvents.indexOfFirstStartingAfter(rightSongPos);
+				for (int i = noteEvents.indexOfFirstEndingAfter(leftSongPos); i < end; i++)
 				{
-					for (NoteEvent ne : getEvents())
+					long startMicros = noteEvents.getStartMicros(i);
+					if (startMicros > rightSongPos)
+						continue;
+					long endMicros = noteEvents.getEndMicros(i);
+					if (endMicros < leftSongPos)
+						continue;
+
+					// This note event is or was playing
+					if (startMicros < left)
+						left = startMicros;
+					if (endMicros > right)
+						right = endMicros;
+
+					if ((startMicros >= leftSongPos && startMicros <= changedSongPos)
+							|| (endMicros >= leftSongPos && endMicros <= changedSongPos))
 					{
-						if (ne.getEndMicros() < leftSongPos)
-							continue;
-						if (ne.getStartMicros() > rightSongPos)
-							break;
-
-						// This note event is or was playing
-						if (ne.getStartMicros() < left)
-							left = ne.getStartMicros();
-						if (ne.getEndMicros() > right)
-							right = ne.getEndMicros();
+						changed = true;
 					}
 				}
 
-				// Transform to screen coordinates
-				Point2D.Double pt = new Point2D.Double(left, 0);
-				xform.transform(pt, pt);
-				int x = (int) Math.floor(pt.x - noteOnOutlineWidthPix) - 2;
-				pt.setLocation(right, 0);
-				xform.transform(pt, pt);
-				int width = (int) Math.ceil(pt.x + 2 * noteOnOutlineWidthPix) - x + 4;
-				repaint(x, 0, width, getHeight());
+				if (changed)
+				{
+					// Transform to screen coordinates
+					Point2D.Double pt = new Point2D.Double(left, 0);
+					xform.transform(pt, pt);
+					int x = (int) Math.floor(pt.x - noteOnOutlineWidthPix) - 2;
+					pt.setLocation(right, 0);
+					xform.transform(pt, pt);
+					int width = (int) Math.ceil(pt.x + 2 * noteOnOutlineWidthPix) - x + 4;
+					repaint(x, 0, width, getHeight());
+				}
 			}
 		}
 		else
@@ -413,14 +457,18 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 			case POSITION:
 				break;
 
-			// These properties don't change often; just repaint the whole thing
-			case IS_LOADED:
+			// These only change which notes are highlighted
 			case IS_RUNNING:
+			case TRACK_ACTIVE:
+				repaint();
+				break;
+
+			// These properties don't change often; just redraw the whole thing
+			case IS_LOADED:
 			case LENGTH:
 			case SEQUENCE:
-			case TRACK_ACTIVE:
 			default:
-				repaint();
+				invalidateNotes();
 				break;
 			}
 
@@ -429,41 +477,53 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 
 	private Rectangle2D.Double rectTmp = new Rectangle2D.Double();
 
-	private void fillNote(Graphics2D g2, NoteEvent ne, int noteId, double minWidth, double height)
+	private void fillNote(Graphics2D g2, NoteEventList noteEvents, int i, int noteId, double minWidth, double height)
 	{
-		fillNote(g2, ne, noteId, minWidth, height, 0, 0);
+		fillNote(g2, noteEvents, i, noteId, minWidth, height, 0, 0);
 	}
 
-	private void fillNote(Graphics2D g2, NoteEvent ne, int noteId, double minWidth, double height, double extraWidth,
-			double extraHeight)
+	private void fillNote(Graphics2D g2, NoteEventList noteEvents, int i, int noteId, double minWidth, double height,
+			double extraWidth, double extraHeight)
 	{
-		double width = Math.max(minWidth, ne.getLengthMicros());
+		long startMicros = noteEvents.getStartMicros(i);
+		double width = Math.max(minWidth, noteEvents.getEndMicros(i) - startMicros);
 		double y = Util.clamp(noteId, MIN_RENDERED, MAX_RENDERED);
-		rectTmp.setRect(ne.getStartMicros() - extraWidth, y - extraHeight, width + 2 * extraWidth, height + 2
+		rectTmp.setRect(startMicros - extraWidth, y - extraHeight, width + 2 * extraWidth, height + 2
 				* extraHeight);
 		g2.fill(rectTmp);
 	}
 
-	private void fillNoteVelocity(Graphics2D g2, NoteEvent ne, Dynamics dynamics)
+	private void fillNoteVelocity(Graphics2D g2, NoteEventList noteEvents, int i, Dynamics dynamics)
 	{
 		int velocity = dynamics.midiVol;
 
 		AffineTransform xform = getTransform();
 
 		double minWidth = NOTE_VELOCITY_MIN_WIDTH_PX / xform.getScaleX();
-		double width = Math.max(minWidth, ne.getLengthMicros());
+		long startMicros = noteEvents.getStartMicros(i);
+		double width = Math.max(minWidth, noteEvents.getEndMicros(i) - startMicros);
 
 		double minHeight = Math.abs(NOTE_VELOCITY_MIN_HEIGHT_PX / xform.getScaleY());
 		double height = ((double) (velocity - Dynamics.MINIMUM.midiVol) / Dynamics.MAXIMUM.midiVol)
 				* (MAX_RENDERED - MIN_RENDERED - minHeight) + minHeight;
 
-		rectTmp.setRect(ne.getStartMicros(), MIN_RENDERED, width, height);
+		rectTmp.setRect(startMicros, MIN_RENDERED, width, height);
 		g2.fill(rectTmp);
 	}
 
 	private BitSet notesOn = null;
 	private BitSet notesBad = null;
 
+	// Everything except the highlighted notes is drawn into this image, which is only redrawn when
+	// something that it shows changes. Painting during playback just copies the part of it that needs
+	// repainting, and draws the notes that are on over top.
+	private BufferedImage notesImage = null;
+	private boolean notesImageValid = false;
+	private AffineTransform notesImageXForm = null;
+	private NoteEventList notesImageEvents = null;
+	private double notesImageScaleX = 0;
+	private double notesImageScaleY = 0;
+
 	private static float[] hsb;
 
 	private static final int SAT = 1, BRT = 2;
@@ -484,9 +544,9 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 		return new Color(Color.HSBtoRGB(hsb[0], hsb[1], hsb[2]));
 	}
 
-	private Color getNoteColorEx(NoteEvent ne, Color baseColor, Color[] cachedColorByDynamics)
+	private Color getNoteColorEx(int velocity, Color baseColor, Color[] cachedColorByDynamics)
 	{
-		Dynamics dyn = Dynamics.fromMidiVelocity(ne.velocity + deltaVolume);
+		Dynamics dyn = Dynamics.fromMidiVelocity(velocity + deltaVolume);
 		if (cachedColorByDynamics[dyn.ordinal()] == null)
 		{
 			cachedColorByDynamics[dyn.ordinal()] = makeDynamicColor(baseColor, dyn, 0.25f);
@@ -494,51 +554,129 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 		return cachedColorByDynamics[dyn.ordinal()];
 	}
 
-	private Color getNoteColor(NoteEvent ne)
+	private Color getNoteColor(int velocity)
 	{
-		return getNoteColorEx(ne, noteColor.get(), noteColorByDynamics);
+		return getNoteColorEx(velocity, noteColor.get(), noteColorByDynamics);
 	}
 
-	private Color getBadNoteColor(NoteEvent ne)
+	private Color getBadNoteColor(int velocity)
 	{
-		return getNoteColorEx(ne, badNoteColor.get(), badNoteColorByDynamics);
+		return getNoteColorEx(velocity, badNoteColor.get(), badNoteColorByDynamics);
 	}
 
-	@Override protected void paintComponent(Graphics g)
+	private Color getNoteColor(int velocity, boolean badNote)
 	{
-		Graphics2D g2 = (Graphics2D) g;
+		return badNote ? getBadNoteColor(velocity) : getNoteColor(velocity);
+	}
 
-		Object hintAntialiasSav = g2.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
-		AffineTransform xformSav = g2.getTransform();
+	@Override protected void paintComponent(Graphics g)
+	{
+		if (getWidth() <= 0 || getHeight() <= 0)
+			return;
 
+		Graphics2D g2 = (Graphics2D) g;
 		AffineTransform xform = getTransform();
-		double minLength = NOTE_WIDTH_PX / xform.getScaleX();
-		double height = Math.abs(NOTE_HEIGHT_PX / xform.getScaleY());
+		NoteEventList noteEvents = getEvents();
 
-		long clipPosStart = Long.MIN_VALUE;
-		long clipPosEnd = Long.MAX_VALUE;
+		// Draw the cached image at the resolution of the device, so it stays sharp on scaled displays
+		AffineTransform deviceXForm = g2.getTransform();
+		double scaleX = Math.abs(deviceXForm.getScaleX());
+		double scaleY = Math.abs(deviceXForm.getScaleY());
+		if (scaleX <= 0 || scaleY <= 0)
+			scaleX = scaleY = 1;
 
-		Rectangle clipRect = g2.getClipBounds();
-		if (clipRect != null)
+		if (!notesImageValid || notesImageXForm != xform || notesImageEvents != noteEvents
+				|| notesImageScaleX != scaleX || notesImageScaleY != scaleY)
 		{
-			// Add +/- 2 to account for antialiasing (1 would probably be enough) 
-			Point2D.Double leftPoint = new Point2D.Double(clipRect.getMinX() - 2, clipRect.getMinY());
-			Point2D.Double rightPoint = new Point2D.Double(clipRect.getMaxX() + 2, clipRect.getMaxY());
-			try
-			{
-				xform.inverseTransform(leftPoint, leftPoint);
-				xform.inverseTransform(rightPoint, rightPoint);
+			renderNotesImage(xform, noteEvents, scaleX, scaleY);
+		}
+		g2.drawImage(notesImage, 0, 0, getWidth(), getHeight(), null);
 
-				clipPosStart = (long) Math.floor(Math.min(leftPoint.x, rightPoint.x));
-				clipPosEnd = (long) Math.ceil(Math.max(leftPoint.x, rightPoint.x));
-			}
-			catch (NoninvertibleTransformException e)
+		boolean showNotesOn = isShowingNotesOn() && songPos >= 0;
+		long minSongPos = songPos;
+
+		if (showNotesOn)
+		{
+			// Highlight all notes that are on, or were on since we last painted (up to 100ms ago) 
+			if (lastPaintedSongPos >= 0 && lastPaintedSongPos < songPos)
 			{
-				e.printStackTrace();
+				minSongPos = Math.max(lastPaintedSongPos, songPos - 4 * SequencerWrapper.UPDATE_FREQUENCY_MICROS);
 			}
 		}
 
-		g2.transform(xform);
+		lastPaintedMinSongPos = minSongPos;
+		lastPaintedSongPos = songPos;
+
+		if (showNotesOn)
+		{
+			Rectangle clipRect = g2.getClipBounds();
+			if (clipRect == null)
+				clipRect = new Rectangle(0, 0, getWidth(), getHeight());
+
+			// Add +/- 2 to account for antialiasing (1 would probably be enough) 
+			long clipPosStart = screenToMicros(xform, clipRect.getMinX() - 2, false);
+			long clipPosEnd = screenToMicros(xform, clipRect.getMaxX() + 2, true);
+
+			Object hintAntialiasSav = g2.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g2.transform(xform);
+
+			paintNotesOn(g2, xform, noteEvents, clipPosStart, clipPosEnd, minSongPos);
+
+			g2.setTransform(deviceXForm);
+			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, hintAntialiasSav);
+		}
+	}
+
+	/**
+	 * Redraws the cached image of everything except the notes that are on: the bar lines, octave lines
+	 * and the notes in their normal colors.
+	 */
+	private void renderNotesImage(AffineTransform xform, NoteEventList noteEvents, double scaleX, double scaleY)
+	{
+		int width = (int) Math.ceil(getWidth() * scaleX);
+		int height = (int) Math.ceil(getHeight() * scaleY);
+
+		if (notesImage == null || notesImage.getWidth() != width || notesImage.getHeight() != height)
+		{
+			GraphicsConfiguration gc = getGraphicsConfiguration();
+			if (gc != null)
+				notesImage = gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+			else
+				notesImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+		}
+
+		Graphics2D g2 = notesImage.createGraphics();
+		try
+		{
+			g2.setComposite(AlphaComposite.Clear);
+			g2.fillRect(0, 0, width, height);
+			g2.setComposite(AlphaComposite.SrcOver);
+
+			g2.scale(width / (double) getWidth(), height / (double) getHeight());
+			g2.transform(xform);
+			paintNotes(g2, xform, noteEvents);
+		}
+		finally
+		{
+			g2.dispose();
+		}
+
+		notesImageValid = true;
+		notesImageXForm = xform;
+		notesImageEvents = noteEvents;
+		notesImageScaleX = scaleX;
+		notesImageScaleY = scaleY;
+	}
+
+	private void paintNotes(Graphics2D g2, AffineTransform xform, NoteEventList noteEvents)
+	{
+		double minLength = NOTE_WIDTH_PX / xform.getScaleX();
+		double height = Math.abs(NOTE_HEIGHT_PX / xform.getScaleY());
+
+		// Add +/- 2 to account for antialiasing (1 would probably be enough) 
+		long clipPosStart = screenToMicros(xform, -2, false);
+		long clipPosEnd = screenToMicros(xform, getWidth() + 2, true);
 
 		if (sequenceInfo != null)
 		{
@@ -550,12 +688,19 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 			SequenceDataCache data = sequenceInfo.getDataCache();
 			long barLengthTicks = data.getBarLengthTicks();
 
-			long firstBarTick = (data.microsToTick(clipPosStart) / barLengthTicks) * barLengthTicks;
+			long firstBarTick = (data.microsToTick(Math.max(0, clipPosStart)) / barLengthTicks) * barLengthTicks;
 			long lastBarTick = (data.microsToTick(clipPosEnd) / barLengthTicks) * barLengthTicks;
 
+			// When the bars are narrower than a pixel, only draw one line in each pixel
+			long lastBarPixel = Long.MIN_VALUE;
 			for (long barTick = firstBarTick; barTick <= lastBarTick; barTick += barLengthTicks)
 			{
 				long barMicros = data.tickToMicros(barTick);
+				long barPixel = (long) Math.floor(barMicros * xform.getScaleX() + xform.getTranslateX());
+				if (barPixel == lastBarPixel)
+					continue;
+				lastBarPixel = barPixel;
+
 				rectTmp.setRect(barMicros, MIN_RENDERED - 1, lineWidth, MAX_RENDERED - MIN_RENDERED + 2);
 				g2.fill(rectTmp);
 			}
@@ -578,54 +723,42 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 
 		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-		boolean showNotesOn = isShowingNotesOn() && songPos >= 0;
-		long minSongPos = songPos;
+		// Only the notes in this range can be inside the clip
+		int firstVisible = noteEvents.indexOfFirstEndingAfter(clipPosStart);
+		int endVisible = noteEvents.indexOfFirstStartingAfter(clipPosEnd);
 
-		if (showNotesOn)
+		if (!isShowingNoteVelocity())
 		{
-			// Highlight all notes that are on, or were on since we last painted (up to 100ms ago) 
-			if (lastPaintedSongPos >= 0 && lastPaintedSongPos < songPos)
+			// Normal rendering
+
+			// If there are more notes than pixels, draw the summary of the notes instead
+			NoteSummary summary = getNoteSummary();
+			int level = (summary == null) ? -1 : summary.getLevel(1 / xform.getScaleX());
+			if (level >= 0 && endVisible - firstVisible > summary.getColumnCount(level))
 			{
-				minSongPos = Math.max(lastPaintedSongPos, songPos - 4 * SequencerWrapper.UPDATE_FREQUENCY_MICROS);
+				paintNoteSummary(g2, summary, level, clipPosStart, clipPosEnd, minLength, height);
+				return;
 			}
-		}
-
-		lastPaintedMinSongPos = minSongPos;
-		lastPaintedSongPos = songPos;
-
-		List<NoteEvent> noteEvents = getEvents();
-
-		if (notesOn != null)
-			notesOn.clear();
-		if (notesBad != null)
-			notesBad.clear();
 
-		if (!isShowingNoteVelocity())
-		{
-			// Normal rendering
+			// Paint the playable notes and keep track of the unplayable notes
+			if (notesBad != null)
+				notesBad.clear();
 
-			// Paint the playable notes and keep track of the currently sounding and unplayable notes
-			g2.setColor(noteColor.get());
-			for (int i = 0; i < noteEvents.size(); i++)
+			for (int i = firstVisible; i < endVisible; i++)
 			{
-				NoteEvent ne = noteEvents.get(i);
+				long startMicros = noteEvents.getStartMicros(i);
+				long endMicros = noteEvents.getEndMicros(i);
 
 				// Don't bother drawing the note if it's clipped
-				if (ne.getEndMicros() < clipPosStart || ne.getStartMicros() > clipPosEnd)
+				if (endMicros < clipPosStart || startMicros > clipPosEnd)
 					continue;
 
-				if (isNoteVisible(ne))
+				int rawNoteId = noteEvents.getNoteId(i);
+				if (isNoteVisible(rawNoteId))
 				{
-					int noteId = transposeNote(ne.note.id);
+					int noteId = transposeNote(rawNoteId);
 
-					if (showNotesOn && songPos >= ne.getStartMicros() && minSongPos <= ne.getEndMicros()
-							&& sequencer.isNoteActive(ne.note.id))
-					{
-						if (notesOn == null)
-							notesOn = new BitSet(noteEvents.size());
-						notesOn.set(i);
-					}
-					else if (!isNotePlayable(noteId))
+					if (!isNotePlayable(noteId))
 					{
 						if (notesBad == null)
 							notesBad = new BitSet(noteEvents.size());
@@ -633,8 +766,8 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 					}
 					else
 					{
-						g2.setColor(getNoteColor(ne));
-						fillNote(g2, ne, noteId, minLength, height);
+						g2.setColor(getNoteColor(noteEvents.getVelocity(i)));
+						fillNote(g2, noteEvents, i, noteId, minLength, height);
 					}
 				}
 			}
@@ -643,36 +776,9 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 			{
 				for (int i = notesBad.nextSetBit(0); i >= 0; i = notesBad.nextSetBit(i + 1))
 				{
-					NoteEvent ne = noteEvents.get(i);
-					g2.setColor(getBadNoteColor(ne));
-					int noteId = transposeNote(ne.note.id);
-					fillNote(g2, ne, noteId, minLength, height);
-				}
-			}
-
-			if (notesOn != null)
-			{
-				double noteOnOutlineWidthX = noteOnOutlineWidthPix / xform.getScaleX();
-				double noteOnOutlineWidthY = Math.abs(noteOnOutlineWidthPix / xform.getScaleY());
-				double noteOnExtraHeightY = Math.abs(noteOnExtraHeightPix / xform.getScaleY());
-
-				g2.setColor(noteOnBorder.get());
-				for (int i = notesOn.nextSetBit(0); i >= 0; i = notesOn.nextSetBit(i + 1))
-				{
-					NoteEvent ne = noteEvents.get(i);
-					int noteId = transposeNote(ne.note.id);
-
-					fillNote(g2, noteEvents.get(i), noteId, minLength, height, noteOnOutlineWidthX, noteOnExtraHeightY
-							+ noteOnOutlineWidthY);
-				}
-
-				g2.setColor(noteOnColor.get());
-				for (int i = notesOn.nextSetBit(0); i >= 0; i = notesOn.nextSetBit(i + 1))
-				{
-					NoteEvent ne = noteEvents.get(i);
-					int noteId = transposeNote(ne.note.id);
-
-					fillNote(g2, noteEvents.get(i), noteId, minLength, height, 0, noteOnExtraHeightY);
+					g2.setColor(getBadNoteColor(noteEvents.getVelocity(i)));
+					int noteId = transposeNote(noteEvents.getNoteId(i));
+					fillNote(g2, noteEvents, i, noteId, minLength, height);
 				}
 			}
 		}
@@ -685,14 +791,15 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 			// Out of range notes are rendered with (d == dynamicsValues.length) and (d == -1)
 			for (int d = dynamicsValues.length; d >= -1; --d)
 			{
-				for (int i = 0; i < noteEvents.size(); i++)
+				for (int i = firstVisible; i < endVisible; i++)
 				{
-					NoteEvent ne = noteEvents.get(i);
+					long startMicros = noteEvents.getStartMicros(i);
+					long endMicros = noteEvents.getEndMicros(i);
 
-					if (ne.getEndMicros() < clipPosStart || ne.getStartMicros() > clipPosEnd)
+					if (endMicros < clipPosStart || startMicros > clipPosEnd)
 						continue;
 
-					int velocity = ne.velocity + deltaVolume;
+					int velocity = noteEvents.getVelocity(i) + deltaVolume;
 
 					Dynamics dynamicsRenderedInThisPass = null;
 					if (d == dynamicsValues.length)
@@ -726,31 +833,164 @@ public class NoteGraph extends JPanel implements Listener<SequencerEvent>, IDisc
 						continue;
 					}
 
-					if (isNoteVisible(ne))
+					int noteId = noteEvents.getNoteId(i);
+					if (isNoteVisible(noteId))
 					{
-						if (showNotesOn && songPos >= ne.getStartMicros() && minSongPos <= ne.getEndMicros()
-								&& sequencer.isNoteActive(ne.note.id))
-						{
-							g2.setColor(noteOnColor.get());
-							fillNoteVelocity(g2, ne, dynamicsRenderedInThisPass);
-						}
-						else if (isOutOfRange)
-						{
+						if (isOutOfRange)
 							g2.setColor(badNoteColor.get());
-							fillNoteVelocity(g2, ne, dynamicsRenderedInThisPass);
-						}
 						else
-						{
-							g2.setColor(getNoteColor(ne));
-							fillNoteVelocity(g2, ne, dynamicsRenderedInThisPass);
-						}
+							g2.setColor(getNoteColor(noteEvents.getVelocity(i)));
+
+						fillNoteVelocity(g2, noteEvents, i, dynamicsRenderedInThisPass);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draws a summary of the notes in place of the notes themselves. Each run of columns where a note
+	 * is sounding is drawn as one rect, which is split where the average velocity in the columns
+	 * changes the note color.
+	 */
+	private void paintNoteSummary(Graphics2D g2, NoteSummary summary, int level, long clipPosStart, long clipPosEnd,
+			double minLength, double height)
+	{
+		int firstColumn = summary.getColumn(level, clipPosStart);
+		int lastColumn = summary.getColumn(level, clipPosEnd);
+		// Notes are drawn at least minLength wide, so stretch the end of each run to match
+		double extraLength = Math.max(0, minLength - summary.getColumnMicros(level));
+
+		// Paint the playable notes first, then the unplayable notes on top of them
+		for (int pass = 0; pass < 2; pass++)
+		{
+			boolean paintingBad = (pass == 1);
+
+			for (int rawNoteId = Note.MIN.id; rawNoteId <= Note.MAX.id; rawNoteId++)
+			{
+				if (!summary.hasNote(rawNoteId) || !isNoteVisible(rawNoteId))
+					continue;
+
+				int noteId = transposeNote(rawNoteId);
+				if (isNotePlayable(noteId) == paintingBad)
+					continue;
+
+				double y = Util.clamp(noteId, MIN_RENDERED, MAX_RENDERED);
+
+				int column = summary.nextColumn(level, rawNoteId, firstColumn);
+				while (column >= 0 && column <= lastColumn)
+				{
+					int runEnd = summary.nextEmptyColumn(level, rawNoteId, column);
+					while (column < runEnd)
+					{
+						Color color = getNoteColor(summary.getVelocity(level, column), paintingBad);
+
+						int end = column + 1;
+						while (end < runEnd && color == getNoteColor(summary.getVelocity(level, end), paintingBad))
+							end++;
+
+						long startMicros = summary.getColumnStartMicros(level, column);
+						long endMicros = summary.getColumnStartMicros(level, end);
+						double extra = (end == runEnd) ? extraLength : 0;
+
+						g2.setColor(color);
+						rectTmp.setRect(startMicros, y, endMicros - startMicros + extra, height);
+						g2.fill(rectTmp);
+
+						column = end;
 					}
+
+					column = summary.nextColumn(level, rawNoteId, runEnd);
 				}
 			}
 		}
+	}
+
+	/**
+	 * Highlights the notes that are on, or were on since the last paint, on top of the cached image.
+	 * Only the notes within the clip are considered, so this stays cheap during playback.
+	 */
+	private void paintNotesOn(Graphics2D g2, AffineTransform xform, NoteEventList noteEvents, long clipPosStart,
+			long clipPosEnd, long minSongPos)
+	{
+		double minLength = NOTE_WIDTH_PX / xform.getScaleX();
+		double height = Math.abs(NOTE_HEIGHT_PX / xform.getScaleY());
+
+		int start = noteEvents.indexOfFirstEndingAfter(Math.max(clipPosStart, minSongPos));
+		int end = noteEvents.indexOfFirstStartingAfter(Math.min(clipPosEnd, songPos));
+
+		if (notesOn != null)
+			notesOn.clear();
+
+		for (int i = start; i < end; i++)
+		{
+			long startMicros = noteEvents.getStartMicros(i);
+			long endMicros = noteEvents.getEndMicros(i);
+
+			if (endMicros < clipPosStart || startMicros > clipPosEnd)
+				continue;
+
+			int rawNoteId = noteEvents.getNoteId(i);
+			if (songPos >= startMicros && minSongPos <= endMicros && isNoteVisible(rawNoteId)
+					&& sequencer.isNoteActive(rawNoteId))
+			{
+				if (notesOn == null)
+					notesOn = new BitSet(noteEvents.size());
+				notesOn.set(i);
+			}
+		}
+
+		if (notesOn == null || notesOn.isEmpty())
+			return;
+
+		if (!isShowingNoteVelocity())
+		{
+			double noteOnOutlineWidthX = noteOnOutlineWidthPix / xform.getScaleX();
+			double noteOnOutlineWidthY = Math.abs(noteOnOutlineWidthPix / xform.getScaleY());
+			double noteOnExtraHeightY = Math.abs(noteOnExtraHeightPix / xform.getScaleY());
+
+			g2.setColor(noteOnBorder.get());
+			for (int i = notesOn.nextSetBit(0); i >= 0; i = notesOn.nextSetBit(i + 1))
+			{
+				int noteId = transposeNote(noteEvents.getNoteId(i));
+
+				fillNote(g2, noteEvents, i, noteId, minLength, height, noteOnOutlineWidthX, noteOnExtraHeightY
+						+ noteOnOutlineWidthY);
+			}
+
+			g2.setColor(noteOnColor.get());
+			for (int i = notesOn.nextSetBit(0); i >= 0; i = notesOn.nextSetBit(i + 1))
+			{
+				int noteId = transposeNote(noteEvents.getNoteId(i));
+
+				fillNote(g2, noteEvents, i, noteId, minLength, height, 0, noteOnExtraHeightY);
+			}
+		}
+		else
+		{
+			g2.setColor(noteOnColor.get());
+			for (int i = notesOn.nextSetBit(0); i >= 0; i = notesOn.nextSetBit(i + 1))
+			{
+				int velocity = noteEvents.getVelocity(i) + deltaVolume;
+
+				Dynamics dynamics;
+				if (velocity > Dynamics.MAXIMUM.midiVol)
+					dynamics = Dynamics.MAXIMUM;
+				else if (velocity < Dynamics.MINIMUM.midiVol)
+					dynamics = Dynamics.MINIMUM;
+				else
+					dynamics = Dynamics.fromMidiVelocity(velocity);
+
+				fillNoteVelocity(g2, noteEvents, i, dynamics);
+			}
+		}
+	}
 
-		g2.setTransform(xformSav);
-		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, hintAntialiasSav);
+	/** Converts a horizontal screen position to a song position */
+	private static long screenToMicros(AffineTransform xform, double x, boolean roundUp)
+	{
+		double micros = (x - xform.getTranslateX()) / xform.getScaleX();
+		return (long) (roundUp ? Math.ceil(micros) : Math.floor(micros));
 	}
 
 	private class MyMouseListener extends MouseAdapter
@@ -4,16 +4,19 @@ import info.clearthought.layout.TableLayout;
 import info.clearthought.layout.TableLayoutConstants;
 
 import java.awt.BorderLayout;
-import java.awt.Component;
+import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Insets;
+import java.awt.LayoutManager;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.BorderFactory;
 import javax.swing.DefaultComboBoxModel;
-import javax.swing.GroupLayout;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
@@ -21,6 +24,8 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSpinner;
 import javax.swing.JTextField;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
 import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingConstants;
 import javax.swing.event.ChangeEvent;
@@ -62,10 +67,7 @@ public class PartPanel extends JPanel implements ICompileConstants, TableLayoutC
 
 	private JScrollPane trackScrollPane;
 
-	private JPanel trackListPanel;
-	private GroupLayout trackListLayout;
-	private GroupLayout.Group trackListVGroup;
-	private GroupLayout.Group trackListHGroup;
+	private TrackListPanel trackListPanel;
 
 	private LotroInstrument lastSelectedInstrument = null;
 
@@ -140,7 +142,6 @@ public class PartPanel extends JPanel implements ICompileConstants, TableLayoutC
 					title = title.replace(lastSelectedInstrument.toString(), newInstrument.toString());
 					nameTextField.setText(title);
 					lastSelectedInstrument = newInstrument;
-					updateTracksVisible();
 				}
 			}
 		});
@@ -156,12 +157,7 @@ public class PartPanel extends JPanel implements ICompileConstants, TableLayoutC
 		dataPanel.add(dataPanel2, BorderLayout.WEST);
 		dataPanel.add(nameTextField, BorderLayout.CENTER);
 
-		trackListPanel = new JPanel();
-		trackListLayout = new GroupLayout(trackListPanel);
-		trackListLayout.setVerticalGroup(trackListVGroup = trackListLayout.createSequentialGroup());
-		trackListLayout.setHorizontalGroup(trackListHGroup = trackListLayout.createParallelGroup());
-		trackListLayout.setHonorsVisibility(true);
-		trackListPanel.setLayout(trackListLayout);
+		trackListPanel = new TrackListPanel();
 		trackListPanel.setBackground(ColorTable.PANEL_BACKGROUND_DISABLED.get());
 
 		trackScrollPane = new JScrollPane(trackListPanel, JScrollPane.VERTICAL_SCROLLBAR_ALWAYS,
@@ -195,6 +191,12 @@ public class PartPanel extends JPanel implements ICompileConstants, TableLayoutC
 			{
 				numberSpinner.setValue(abcPart.getPartNumber());
 			}
+			else if (e.getProperty() == AbcPartProperty.INSTRUMENT)
+			{
+				// Drum tracks show a row for each of their notes in drum parts, so changing between drum
+				// and non-drum instruments changes the height of tracks that aren't in view
+				trackListPanel.invalidateRowHeights();
+			}
 		}
 	};
 
@@ -235,7 +237,7 @@ public class PartPanel extends JPanel implements ICompileConstants, TableLayoutC
 			instrumentComboBox.setSelectedIndex(0);
 			lastSelectedInstrument = null;
 
-			clearTrackListPanel();
+			trackListPanel.clear();
 		}
 		else
 		{
@@ -249,30 +251,21 @@ public class PartPanel extends JPanel implements ICompileConstants, TableLayoutC
 			instrumentComboBox.setSelectedItem(abcPart.getInstrument());
 			lastSelectedInstrument = abcPart.getInstrument();
 
-			clearTrackListPanel();
-
 			// Add the tempo panel if this song contains tempo changes
+			TempoPanel tempoPanel = null;
 			if (abcPart.getSequenceInfo().hasTempoChanges())
 			{
-				TempoPanel tempoPanel = new TempoPanel(abcPart.getSequenceInfo(), sequencer, abcSequencer);
+				tempoPanel = new TempoPanel(abcPart.getSequenceInfo(), sequencer, abcSequencer);
 				tempoPanel.setAbcPreviewMode(isAbcPreviewMode);
-				trackScrollPane.getVerticalScrollBar().setUnitIncrement(tempoPanel.getPreferredSize().height);
-				trackListVGroup.addComponent(tempoPanel, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE,
-						GroupLayout.PREFERRED_SIZE);
-				trackListHGroup.addComponent(tempoPanel);
 			}
 
+			List<TrackInfo> tracks = new ArrayList<TrackInfo>();
 			for (TrackInfo track : abcPart.getSequenceInfo().getTrackList())
 			{
 				int trackNumber = track.getTrackNumber();
 				if (track.hasEvents())
 				{
-					TrackPanel trackPanel = new TrackPanel(track, sequencer, abcPart, abcSequencer);
-					trackPanel.setAbcPreviewMode(isAbcPreviewMode);
-					trackScrollPane.getVerticalScrollBar().setUnitIncrement(trackPanel.getPreferredSize().height);
-					trackListVGroup.addComponent(trackPanel, GroupLayout.PREFERRED_SIZE, GroupLayout.PREFERRED_SIZE,
-							GroupLayout.PREFERRED_SIZE);
-					trackListHGroup.addComponent(trackPanel);
+					tracks.add(track);
 
 					if (MUTE_DISABLED_TRACKS)
 						sequencer.setTrackMute(trackNumber, !abcPart.isTrackEnabled(trackNumber));
@@ -283,6 +276,8 @@ public class PartPanel extends JPanel implements ICompileConstants, TableLayoutC
 
 				sequencer.setTrackSolo(trackNumber, false);
 			}
+
+			trackListPanel.setTracks(abcPart, tempoPanel, tracks);
 		}
 
 		this.abcPart = abcPart;
@@ -291,7 +286,6 @@ public class PartPanel extends JPanel implements ICompileConstants, TableLayoutC
 			this.abcPart.addAbcListener(abcPartListener);
 		}
 
-		updateTracksVisible();
 		validate();
 		repaint();
 	}
@@ -306,21 +300,7 @@ public class PartPanel extends JPanel implements ICompileConstants, TableLayoutC
 		if (this.isAbcPreviewMode != isAbcPreviewMode)
 		{
 			this.isAbcPreviewMode = isAbcPreviewMode;
-			for (Component child : trackListPanel.getComponents())
-			{
-				if (child instanceof TrackPanel)
-				{
-					((TrackPanel) child).setAbcPreviewMode(isAbcPreviewMode);
-				}
-				else if (child instanceof DrumPanel)
-				{
-					((DrumPanel) child).setAbcPreviewMode(isAbcPreviewMode);
-				}
-				else if (child instanceof TempoPanel)
-				{
-					((TempoPanel) child).setAbcPreviewMode(isAbcPreviewMode);
-				}
-			}
+			trackListPanel.setAbcPreviewMode(isAbcPreviewMode);
 		}
 	}
 
@@ -337,69 +317,301 @@ public class PartPanel extends JPanel implements ICompileConstants, TableLayoutC
 		messageLabel.setVisible(true);
 	}
 
-	private void updateTracksVisible()
+	public void setSequencer(NoteFilterSequencerWrapper sequencer)
 	{
-		if (abcPart == null)
-			return;
+		AbcPart abcPartTmp = this.abcPart;
+		setAbcPart(null);
+		this.sequencer = sequencer;
+		setAbcPart(abcPartTmp);
+	}
+
+	public void commitAllFields()
+	{
+		try
+		{
+			numberSpinner.commitEdit();
+		}
+		catch (java.text.ParseException e)
+		{
+			// Ignore
+		}
+	}
 
-		boolean percussion = abcPart.getInstrument().isPercussion;
-		boolean setHeight = false;
+	/**
+	 * The list of tracks in the part. Only the tracks that are scrolled into view have a TrackPanel;
+	 * as the list scrolls, the panels of tracks that go out of view are given to the tracks that come
+	 * into view, and switching parts gives the same panels to the new part. A song with dozens of
+	 * tracks would otherwise need a panel for every track, each with its own note graph and listeners,
+	 * and switching parts would have to create all of them again.
+	 * <p>
+	 * The heights of rows that haven't been shown yet aren't known, so they're assumed to be the
+	 * height of the shortest row, and corrected once they're shown.
+	 */
+	private class TrackListPanel extends JPanel implements Scrollable
+	{
+		/** The number of panels that are kept for reuse after they're scrolled out of view */
+		private static final int MAX_SPARE_PANELS = 4;
+
+		private AbcPart tracksPart = null;
+		private JPanel header = null;
+		private List<TrackInfo> tracks = new ArrayList<TrackInfo>();
+		private TrackPanel[] rowPanels = new TrackPanel[0];
+		private int[] rowHeights = new int[0]; // 0 if the row hasn't been shown
+		private List<TrackPanel> sparePanels = new ArrayList<TrackPanel>();
+
+		private int minRowHeight = 0;
+		private int rowWidth = 0;
+		private int layoutHeight = 0;
+
+		// The part of the list that has panels for its rows
+		private int shownTop = 0;
+		private int shownBottom = 0;
 
-		for (Component child : trackListPanel.getComponents())
+		public TrackListPanel()
 		{
-			if (child instanceof TrackPanel)
+			super((LayoutManager) null);
+		}
+
+		/**
+		 * Shows the tracks of a part, below an optional header. The panels that are showing tracks are
+		 * reused for the new tracks.
+		 */
+		public void setTracks(AbcPart part, JPanel header, List<TrackInfo> tracks)
+		{
+			removeHeader();
+			for (int i = 0; i < rowPanels.length; i++)
 			{
-				TrackPanel trackPanel = (TrackPanel) child;
-				child.setEnabled(percussion || trackPanel.getTrackInfo().hasEvents());
-				if (!setHeight && !percussion)
+				if (rowPanels[i] != null)
 				{
-					trackScrollPane.getVerticalScrollBar().setUnitIncrement(child.getPreferredSize().height);
-					setHeight = true;
+					remove(rowPanels[i]);
+					sparePanels.add(rowPanels[i]);
 				}
 			}
-			else if (child instanceof DrumPanel)
+
+			this.tracksPart = part;
+			this.header = header;
+			this.tracks = tracks;
+			rowPanels = new TrackPanel[tracks.size()];
+			rowHeights = new int[tracks.size()];
+			shownTop = shownBottom = 0;
+
+			if (header != null)
+				add(header);
+
+			revalidate();
+			repaint();
+		}
+
+		/** Removes all of the tracks, and discards all of the panels. */
+		public void clear()
+		{
+			setTracks(null, null, new ArrayList<TrackInfo>());
+			for (TrackPanel panel : sparePanels)
+				panel.discard();
+			sparePanels.clear();
+		}
+
+		/** Measures the rows that aren't in view again when they're next shown. */
+		public void invalidateRowHeights()
+		{
+			for (int i = 0; i < rowHeights.length; i++)
+			{
+				if (rowPanels[i] == null)
+					rowHeights[i] = 0;
+			}
+			revalidate();
+		}
+
+		public void setAbcPreviewMode(boolean isAbcPreviewMode)
+		{
+			if (header instanceof TempoPanel)
+				((TempoPanel) header).setAbcPreviewMode(isAbcPreviewMode);
+
+			for (TrackPanel panel : rowPanels)
+			{
+				if (panel != null)
+					panel.setAbcPreviewMode(isAbcPreviewMode);
+			}
+			for (TrackPanel panel : sparePanels)
+				panel.setAbcPreviewMode(isAbcPreviewMode);
+		}
+
+		private void removeHeader()
+		{
+			if (header != null)
+			{
+				if (header instanceof IDiscardable)
+					((IDiscardable) header).discard();
+				remove(header);
+				header = null;
+			}
+		}
+
+		private int getRowHeight(int row)
+		{
+			return (rowHeights[row] > 0) ? rowHeights[row] : minRowHeight;
+		}
+
+		private int getHeaderHeight()
+		{
+			return (header == null) ? 0 : header.getPreferredSize().height;
+		}
+
+		private boolean isShown(int rowTop, int rowHeight)
+		{
+			return rowTop < shownBottom && rowTop + rowHeight >= shownTop;
+		}
+
+		/** Gets a panel for the row, reusing one that's been scrolled out of view if there is one. */
+		private TrackPanel showRow(int row)
+		{
+			if (rowPanels[row] != null)
+				return rowPanels[row];
+
+			// A panel that was showing the same track doesn't need to change, otherwise use the one that
+			// was most recently scrolled out of view
+			TrackInfo track = tracks.get(row);
+			TrackPanel panel = null;
+			for (TrackPanel sparePanel : sparePanels)
+			{
+				if (sparePanel.getTrackInfo() == track)
+					panel = sparePanel;
+			}
+			if (panel == null && !sparePanels.isEmpty())
+				panel = sparePanels.get(sparePanels.size() - 1);
+
+			if (panel == null)
+			{
+				panel = new TrackPanel(track, sequencer, tracksPart, abcSequencer);
+			}
+			else
+			{
+				sparePanels.remove(panel);
+				panel.setTrack(track, tracksPart);
+			}
+			panel.setAbcPreviewMode(isAbcPreviewMode);
+
+			rowPanels[row] = panel;
+			add(panel);
+			return panel;
+		}
+
+		private void hideRow(int row)
+		{
+			remove(rowPanels[row]);
+			sparePanels.add(rowPanels[row]);
+			rowPanels[row] = null;
+		}
+
+		@Override public void doLayout()
+		{
+			int width = getWidth();
+			int headerHeight = getHeaderHeight();
+			if (header != null)
+				header.setBounds(0, 0, width, headerHeight);
+
+			// Show the rows that are in view, and one more row above and below them
+			Rectangle visible = getVisibleRect();
+			shownTop = visible.y - minRowHeight;
+			shownBottom = visible.y + visible.height + minRowHeight;
+
+			// Hide the rows that have gone out of view first, so that their panels can be reused
+			int rowTop = headerHeight;
+			for (int i = 0; i < rowPanels.length; i++)
+			{
+				int rowHeight = getRowHeight(i);
+				if (rowPanels[i] != null && !isShown(rowTop, rowHeight))
+					hideRow(i);
+				rowTop += rowHeight;
+			}
+
+			rowTop = headerHeight;
+			for (int i = 0; i < rowPanels.length; i++)
 			{
-				child.setVisible(percussion);
-				if (!setHeight && percussion)
+				int rowHeight = getRowHeight(i);
+				if (isShown(rowTop, rowHeight))
 				{
-					trackScrollPane.getVerticalScrollBar().setUnitIncrement(child.getPreferredSize().height);
-					setHeight = true;
+					TrackPanel panel = showRow(i);
+					Dimension size = panel.getPreferredSize();
+					rowHeight = rowHeights[i] = size.height;
+					if (minRowHeight == 0 || rowHeight < minRowHeight)
+						minRowHeight = rowHeight;
+					rowWidth = Math.max(rowWidth, size.width);
+					panel.setBounds(0, rowTop, width, rowHeight);
 				}
+				rowTop += rowHeight;
+			}
+
+			while (sparePanels.size() > MAX_SPARE_PANELS)
+				sparePanels.remove(0).discard();
+
+			// Rows that were shown for the first time may have a different height than was assumed
+			if (rowTop != layoutHeight)
+			{
+				layoutHeight = rowTop;
+				revalidate();
 			}
 		}
-	}
 
-	private void clearTrackListPanel()
-	{
-		for (Component child : trackListPanel.getComponents())
+		@Override public void setBounds(int x, int y, int width, int height)
 		{
-			if (child instanceof IDiscardable)
+			super.setBounds(x, y, width, height);
+
+			// Scrolling moves the list without laying it out again, so lay it out here if rows that
+			// don't have panels have come into view
+			Rectangle visible = getVisibleRect();
+			if (isValid() && (visible.y < shownTop || visible.y + visible.height > shownBottom))
 			{
-				((IDiscardable) child).discard();
+				invalidate();
+				validate();
 			}
 		}
-		trackListPanel.removeAll();
-		trackListLayout.setVerticalGroup(trackListVGroup = trackListLayout.createSequentialGroup());
-		trackListLayout.setHorizontalGroup(trackListHGroup = trackListLayout.createParallelGroup());
-	}
 
-	public void setSequencer(NoteFilterSequencerWrapper sequencer)
-	{
-		AbcPart abcPartTmp = this.abcPart;
-		setAbcPart(null);
-		this.sequencer = sequencer;
-		setAbcPart(abcPartTmp);
-	}
+		@Override public Dimension getPreferredSize()
+		{
+			if (isPreferredSizeSet())
+				return super.getPreferredSize();
 
-	public void commitAllFields()
-	{
-		try
+			int width = rowWidth;
+			int height = 0;
+			if (header != null)
+			{
+				Dimension headerSize = header.getPreferredSize();
+				width = Math.max(width, headerSize.width);
+				height = headerSize.height;
+			}
+			for (int i = 0; i < rowHeights.length; i++)
+				height += getRowHeight(i);
+
+			return new Dimension(width, height);
+		}
+
+		@Override public Dimension getPreferredScrollableViewportSize()
 		{
-			numberSpinner.commitEdit();
+			return getPreferredSize();
 		}
-		catch (java.text.ParseException e)
+
+		@Override public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction)
 		{
-			// Ignore
+			if (orientation == SwingConstants.HORIZONTAL)
+				return 16;
+
+			return (minRowHeight > 0) ? minRowHeight : 16;
+		}
+
+		@Override public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction)
+		{
+			return (orientation == SwingConstants.HORIZONTAL) ? visibleRect.width : visibleRect.height;
+		}
+
+		@Override public boolean getScrollableTracksViewportWidth()
+		{
+			return getParent() instanceof JViewport && getParent().getWidth() > getPreferredSize().width;
+		}
+
+		@Override public boolean getScrollableTracksViewportHeight()
+		{
+			return getParent() instanceof JViewport && getParent().getHeight() > getPreferredSize().height;
 		}
 	}
 }
@@ -27,6 +27,7 @@ import java.util.prefs.Preferences;
 import javax.imageio.ImageIO;
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequence;
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
 import javax.swing.Icon;
@@ -179,6 +180,7 @@ public class ProjectFrame extends JFrame implements TableLayoutConstants, ICompi
 	private MainSequencerListener mainSequencerListener;
 	private AbcSequencerListener abcSequencerListener;
 	private boolean failedToLoadLotroInstruments = false;
+	private AbcPreviewBuilder previewBuilder;
 
 	public ProjectFrame()
 	{
@@ -219,22 +221,10 @@ public class ProjectFrame extends JFrame implements TableLayoutConstants, ICompi
 			abcSequencer = new LotroSequencerWrapper();
 			if (abcVolumeTransceiver != null)
 				abcSequencer.addTransceiver(abcVolumeTransceiver);
-
-			if (LotroSequencerWrapper.getLoadLotroSynthError() != null)
-			{
-				welcomeMessage = formatErrorMessage("Could not load LOTRO instrument sounds",
-						"ABC Preview will use standard MIDI instruments instead\n"
-								+ "(drums do not sound good in this mode).\n\n" + "Error details:\n"
-								+ LotroSequencerWrapper.getLoadLotroSynthError());
-				failedToLoadLotroInstruments = true;
-			}
 		}
 		catch (MidiUnavailableException e)
 		{
-			JOptionPane.showMessageDialog(null, "Failed to initialize MIDI sequencer.\nThe program will now exit.\n\n"
-					+ "Error details:\n" + e.getMessage(), "Failed to initialize MIDI sequencer",
-					JOptionPane.ERROR_MESSAGE);
-			System.exit(1);
+			exitWithMidiError(e);
 			return;
 		}
 
@@ -728,10 +718,86 @@ public class ProjectFrame extends JFrame implements TableLayoutConstants, ICompi
 		abcSequencerListener = new AbcSequencerListener();
 		abcSequencer.addChangeListener(abcSequencerListener);
 
+		previewBuilder = new AbcPreviewBuilder(new PreviewBuilderCallback());
+
 		initMenu();
 		onSaveAndExportSettingsChanged();
 		partPanel.showInfoMessage(welcomeMessage);
 		updateButtons(true);
+
+		waitForSequencersInBackground();
+	}
+
+	private static void exitWithMidiError(MidiUnavailableException e)
+	{
+		JOptionPane.showMessageDialog(null, "Failed to initialize MIDI sequencer.\nThe program will now exit.\n\n"
+				+ "Error details:\n" + e.getMessage(), "Failed to initialize MIDI sequencer",
+				JOptionPane.ERROR_MESSAGE);
+		System.exit(1);
+	}
+
+	/**
+	 * The sequencers' synthesizers are opened on background threads, so that the window can be shown
+	 * without waiting for the soundbank to load. This reports any errors once they're done.
+	 */
+	private void waitForSequencersInBackground()
+	{
+		Thread thread = new Thread(new Runnable()
+		{
+			@Override public void run()
+			{
+				try
+				{
+					sequencer.waitUntilReady();
+					abcSequencer.waitUntilReady();
+				}
+				catch (final MidiUnavailableException e)
+				{
+					SwingUtilities.invokeLater(new Runnable()
+					{
+						@Override public void run()
+						{
+							exitWithMidiError(e);
+						}
+					});
+					return;
+				}
+
+				Util.logStartupTime(MaestroMain.APP_NAME + " synthesizers ready");
+
+				final String lotroError = LotroSequencerWrapper.getLoadLotroSynthError();
+				if (lotroError != null)
+				{
+					SwingUtilities.invokeLater(new Runnable()
+					{
+						@Override public void run()
+						{
+							onLoadLotroSynthFailed(lotroError);
+						}
+					});
+				}
+			}
+		}, "Wait for synthesizers");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void onLoadLotroSynthFailed(String error)
+	{
+		failedToLoadLotroInstruments = true;
+		if (abcSong != null)
+		{
+			// Rebuild the preview for the standard MIDI instruments
+			refreshPreviewSequence(false);
+		}
+
+		String title = "Could not load LOTRO instrument sounds";
+		String message = "ABC Preview will use standard MIDI instruments instead\n"
+				+ "(drums do not sound good in this mode).\n\n" + "Error details:\n" + error;
+		if (sequencer.getSequence() == null)
+			partPanel.showInfoMessage(formatErrorMessage(title, message));
+		else
+			JOptionPane.showMessageDialog(this, message, title, JOptionPane.ERROR_MESSAGE);
 	}
 
 	private static void discardObject(IDiscardable object)
@@ -747,6 +813,7 @@ public class ProjectFrame extends JFrame implements TableLayoutConstants, ICompi
 			abcSong.getParts().getListModel().removeListDataListener(partsListListener);
 		}
 
+		discardObject(previewBuilder);
 		discardObject(sequencer);
 		discardObject(abcSequencer);
 		discardObject(abcSong);
@@ -1418,6 +1485,7 @@ public class ProjectFrame extends JFrame implements TableLayoutConstants, ICompi
 			}
 		}
 
+		previewBuilder.cancel();
 		if (abcSong != null)
 		{
 			abcSong.getParts().getListModel().removeListDataListener(partsListListener);
@@ -1635,36 +1703,11 @@ public class ProjectFrame extends JFrame implements TableLayoutConstants, ICompi
 		}
 	}
 
-	private boolean refreshPreviewPending = false;
-
-	private class RefreshPreviewTask implements Runnable
-	{
-		@Override public void run()
-		{
-			if (refreshPreviewPending)
-			{
-				if (!refreshPreviewSequence(true))
-					abcSequencer.stop();
-			}
-		}
-	}
-
 	private boolean refreshPreviewSequence(boolean immediate)
 	{
-		if (!immediate)
-		{
-			if (!refreshPreviewPending)
-			{
-				refreshPreviewPending = true;
-				SwingUtilities.invokeLater(new RefreshPreviewTask());
-			}
-			return true;
-		}
-
-		refreshPreviewPending = false;
-
 		if (abcSong == null)
 		{
+			previewBuilder.cancel();
 			abcPreviewStartTick = 0;
 			abcPreviewTempoFactor = 1.0f;
 			abcSequencer.clearSequence();
@@ -1675,58 +1718,108 @@ public class ProjectFrame extends JFrame implements TableLayoutConstants, ICompi
 			return false;
 		}
 
-		try
+		if (!immediate)
 		{
+			previewBuilder.requestBuild(abcSong, !failedToLoadLotroInstruments);
+			return true;
+		}
+
+		// Any build in progress is now out of date
+		previewBuilder.cancel();
 
+		try
+		{
 			AbcExporter exporter = abcSong.getAbcExporter();
 			SequenceInfo previewSequenceInfo = SequenceInfo.fromAbcParts(exporter, !failedToLoadLotroInstruments);
-
-			long tick = sequencer.getTickPosition();
-			abcPreviewStartTick = exporter.getExportStartTick();
-			abcPreviewTempoFactor = abcSequencer.getTempoFactor();
-			abcBarLabel.setBarNumberCache(exporter.getTimingInfo());
-			abcBarLabel.setInitialOffsetTick(abcPreviewStartTick);
-			abcPositionLabel.setInitialOffsetTick(abcPreviewStartTick);
-
-			boolean running = abcSequencer.isRunning();
-			abcSequencer.reset(false);
-			abcSequencer.setSequence(previewSequenceInfo.getSequence());
-
-			if (tick < abcPreviewStartTick)
-				tick = abcPreviewStartTick;
-
-			if (tick >= abcSequencer.getTickLength())
-			{
-				tick = 0;
-				running = false;
-			}
-
-			if (running && sequencer.isRunning())
-				sequencer.stop();
-
-			abcSequencer.setTickPosition(tick);
-			abcSequencer.setRunning(running);
+			applyPreviewSequence(exporter, previewSequenceInfo);
 		}
 		catch (InvalidMidiDataException e)
 		{
-			sequencer.stop();
-			abcSequencer.stop();
-			JOptionPane.showMessageDialog(ProjectFrame.this, e.getMessage(), "Error previewing ABC",
-					JOptionPane.WARNING_MESSAGE);
+			onPreviewFailed(e);
 			return false;
 		}
 		catch (AbcConversionException e)
 		{
-			sequencer.stop();
-			abcSequencer.stop();
-			JOptionPane.showMessageDialog(ProjectFrame.this, e.getMessage(), "Error previewing ABC",
-					JOptionPane.WARNING_MESSAGE);
+			onPreviewFailed(e);
 			return false;
 		}
 
 		return true;
 	}
 
+	private void applyPreviewSequence(AbcExporter exporter, SequenceInfo previewSequenceInfo)
+			throws InvalidMidiDataException
+	{
+		exporter.applyPreviewSequenceTrackNumbers();
+
+		long tick = sequencer.getTickPosition();
+		abcPreviewStartTick = exporter.getExportStartTick();
+		abcPreviewTempoFactor = abcSequencer.getTempoFactor();
+		abcBarLabel.setBarNumberCache(exporter.getTimingInfo());
+		abcBarLabel.setInitialOffsetTick(abcPreviewStartTick);
+		abcPositionLabel.setInitialOffsetTick(abcPreviewStartTick);
+
+		boolean running = abcSequencer.isRunning();
+		Sequence previewSequence = previewSequenceInfo.getSequence();
+		long abcTick = abcSequencer.getTickPosition();
+		if (running && abcTick >= abcPreviewStartTick && abcTick < previewSequence.getTickLength())
+		{
+			// Switch to the new preview without stopping, so that editing the song while it plays
+			// doesn't cut off the notes
+			abcSequencer.swapSequence(previewSequence);
+			return;
+		}
+
+		abcSequencer.reset(false);
+		abcSequencer.setSequence(previewSequence);
+
+		if (tick < abcPreviewStartTick)
+			tick = abcPreviewStartTick;
+
+		if (tick >= abcSequencer.getTickLength())
+		{
+			tick = 0;
+			running = false;
+		}
+
+		if (running && sequencer.isRunning())
+			sequencer.stop();
+
+		abcSequencer.setTickPosition(tick);
+		abcSequencer.setRunning(running);
+	}
+
+	private void onPreviewFailed(Exception e)
+	{
+		sequencer.stop();
+		abcSequencer.stop();
+		JOptionPane.showMessageDialog(ProjectFrame.this, e.getMessage(), "Error previewing ABC",
+				JOptionPane.WARNING_MESSAGE);
+	}
+
+	private class PreviewBuilderCallback implements AbcPreviewBuilder.Callback
+	{
+		@Override public void onPreviewBuilt(AbcExporter exporter, SequenceInfo previewSequenceInfo)
+		{
+			if (abcSong == null || exporter.getMetadataSource() != abcSong)
+				return;
+
+			try
+			{
+				applyPreviewSequence(exporter, previewSequenceInfo);
+			}
+			catch (InvalidMidiDataException e)
+			{
+				ProjectFrame.this.onPreviewFailed(e);
+			}
+		}
+
+		@Override public void onPreviewFailed(Exception error)
+		{
+			ProjectFrame.this.onPreviewFailed(error);
+		}
+	}
+
 	private void commitAllFields()
 	{
 		try
@@ -19,6 +19,7 @@ import com.digero.common.util.IDiscardable;
 import com.digero.common.util.Listener;
 import com.digero.common.view.ColorTable;
 import com.digero.maestro.midi.NoteEvent;
+import com.digero.maestro.midi.NoteEventList;
 import com.digero.maestro.midi.SequenceDataCache;
 import com.digero.maestro.midi.SequenceDataCache.TempoEvent;
 import com.digero.maestro.midi.SequenceInfo;
@@ -170,7 +171,7 @@ public class TempoPanel extends JPanel implements IDiscardable, TableLayoutConst
 	{
 		private final int minBPM;
 		private final int maxBPM;
-		private List<NoteEvent> events;
+		private NoteEventList events;
 
 		public TempoNoteGraph(SequenceInfo sequenceInfo, SequencerWrapper sequencer, int minBPM, int maxBPM)
 		{
@@ -190,7 +191,7 @@ public class TempoPanel extends JPanel implements IDiscardable, TableLayoutConst
 		private void recalcTempoEvents()
 		{
 			// Make fake note events for every tempo event
-			events = new ArrayList<NoteEvent>();
+			List<NoteEvent> events = new ArrayList<NoteEvent>();
 			TempoEvent prevEvent = null;
 			SequenceDataCache dataCache = sequenceInfo.getDataCache();
 			for (TempoEvent event : dataCache.getTempoEvents().values())
@@ -214,6 +215,8 @@ public class TempoPanel extends JPanel implements IDiscardable, TableLayoutConst
 				int id = tempoToNoteId(sequenceInfo.getPrimaryTempoMPQ(), minBPM, maxBPM);
 				events.add(new NoteEvent(Note.fromId(id), 127, 0, dataCache.getSongLengthTicks(), dataCache));
 			}
+
+			this.events = NoteEventList.fromEvents(events, dataCache);
 		}
 
 		@Override protected boolean isShowingNotesOn()
@@ -221,7 +224,7 @@ public class TempoPanel extends JPanel implements IDiscardable, TableLayoutConst
 			return sequencer.isRunning() || abcSequencer.isRunning();
 		}
 
-		@Override protected List<NoteEvent> getEvents()
+		@Override protected NoteEventList getEvents()
 		{
 			if (events == null)
 				recalcTempoEvents();
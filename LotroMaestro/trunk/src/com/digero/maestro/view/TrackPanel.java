@@ -18,8 +18,6 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.List;
 import java.util.prefs.Preferences;
 
 import javax.swing.BorderFactory;
@@ -51,7 +49,7 @@ import com.digero.maestro.abc.AbcPart;
 import com.digero.maestro.abc.AbcPartEvent;
 import com.digero.maestro.abc.AbcPartEvent.AbcPartProperty;
 import com.digero.maestro.abc.DrumNoteMap;
-import com.digero.maestro.midi.NoteEvent;
+import com.digero.maestro.midi.NoteEventList;
 import com.digero.maestro.midi.TrackInfo;
 
 @SuppressWarnings("serial")
@@ -79,10 +77,10 @@ public class TrackPanel extends JPanel implements IDiscardable, TableLayoutConst
 	private static final double[] LAYOUT_COLS = new double[] { GUTTER_WIDTH, TITLE_WIDTH, CONTROL_WIDTH, FILL };
 	private static final double[] LAYOUT_ROWS = new double[] { 48, PREFERRED };
 
-	private final TrackInfo trackInfo;
+	private TrackInfo trackInfo;
 	private final NoteFilterSequencerWrapper seq;
 	private final SequencerWrapper abcSequencer;
-	private final AbcPart abcPart;
+	private AbcPart abcPart;
 
 	private JPanel gutter;
 	private JCheckBox checkBox;
@@ -90,6 +88,7 @@ public class TrackPanel extends JPanel implements IDiscardable, TableLayoutConst
 	private TableLayoutConstraints checkBoxLayout_ControlsVisible;
 	private JSpinner transposeSpinner;
 	private TrackVolumeBar trackVolumeBar;
+	private ActionListener trackVolumeListener;
 	private JPanel drumSavePanel;
 	private TrackNoteGraph noteGraph;
 
@@ -119,7 +118,6 @@ public class TrackPanel extends JPanel implements IDiscardable, TableLayoutConst
 
 		checkBox = new JCheckBox();
 		checkBox.setOpaque(false);
-		checkBox.setSelected(abcPart.isTrackEnabled(trackInfo.getTrackNumber()));
 
 		checkBox.addActionListener(new ActionListener()
 		{
@@ -188,35 +186,31 @@ public class TrackPanel extends JPanel implements IDiscardable, TableLayoutConst
 			}
 		});
 
-		if (!trackInfo.isDrumTrack())
-		{
-			int currentTranspose = abcPart.getTrackTranspose(trackInfo.getTrackNumber());
-			transposeSpinner = new JSpinner(new TrackTransposeModel(currentTranspose, -48, 48, 12));
-			transposeSpinner.setToolTipText("Transpose this track by octaves (12 semitones)");
+		// Drum tracks can't be transposed; the spinner is hidden for them in updateState()
+		transposeSpinner = new JSpinner(new TrackTransposeModel(0, -48, 48, 12));
+		transposeSpinner.setToolTipText("Transpose this track by octaves (12 semitones)");
 
-			transposeSpinner.addChangeListener(new ChangeListener()
+		transposeSpinner.addChangeListener(new ChangeListener()
+		{
+			@Override public void stateChanged(ChangeEvent e)
 			{
-				@Override public void stateChanged(ChangeEvent e)
+				int track = trackInfo.getTrackNumber();
+				int value = (Integer) transposeSpinner.getValue();
+				if (value % 12 != 0)
 				{
-					int track = trackInfo.getTrackNumber();
-					int value = (Integer) transposeSpinner.getValue();
-					if (value % 12 != 0)
-					{
-						value = (abcPart.getTrackTranspose(track) / 12) * 12;
-						transposeSpinner.setValue(value);
-					}
-					else
-					{
-						abcPart.setTrackTranspose(trackInfo.getTrackNumber(), value);
-					}
+					value = (abcPart.getTrackTranspose(track) / 12) * 12;
+					transposeSpinner.setValue(value);
 				}
-			});
-		}
+				else
+				{
+					abcPart.setTrackTranspose(trackInfo.getTrackNumber(), value);
+				}
+			}
+		});
 
 		trackVolumeBar = new TrackVolumeBar(trackInfo.getMinVelocity(), trackInfo.getMaxVelocity());
 		trackVolumeBar.setToolTipText("Adjust this track's volume");
-		trackVolumeBar.setDeltaVolume(abcPart.getTrackVolumeAdjust(trackInfo.getTrackNumber()));
-		trackVolumeBar.addActionListener(new ActionListener()
+		trackVolumeBar.addActionListener(trackVolumeListener = new ActionListener()
 		{
 			@Override public void actionPerformed(ActionEvent e)
 			{
@@ -230,8 +224,7 @@ public class TrackPanel extends JPanel implements IDiscardable, TableLayoutConst
 
 		JPanel controlPanel = new JPanel(new BorderLayout(0, 4));
 		controlPanel.setOpaque(false);
-		if (transposeSpinner != null)
-			controlPanel.add(transposeSpinner, BorderLayout.CENTER);
+		controlPanel.add(transposeSpinner, BorderLayout.CENTER);
 		controlPanel.add(trackVolumeBar, BorderLayout.SOUTH);
 
 		checkBoxLayout_ControlsHidden = new TableLayoutConstraints(TITLE_COLUMN, 0, CONTROL_COLUMN, 0);
@@ -242,22 +235,20 @@ public class TrackPanel extends JPanel implements IDiscardable, TableLayoutConst
 		add(controlPanel, CONTROL_COLUMN + ", 0, f, c");
 		add(noteGraph, NOTE_COLUMN + ", 0, " + NOTE_COLUMN + ", 1");
 
-		updateTitleText();
-
-		abcPart.addAbcListener(abcListener = new Listener<AbcPartEvent>()
+		abcListener = new Listener<AbcPartEvent>()
 		{
 			@Override public void onEvent(AbcPartEvent e)
 			{
 				if (e.isNoteGraphRelated())
 				{
 					updateState();
-					noteGraph.repaint();
+					noteGraph.invalidateNotes();
 				}
 
 				if (e.getProperty() == AbcPartProperty.INSTRUMENT || e.getProperty() == AbcPartProperty.TRACK_ENABLED)
 					updateColors();
 			}
-		});
+		};
 
 		seq.addChangeListener(seqListener = new Listener<SequencerEvent>()
 		{
@@ -285,6 +276,43 @@ public class TrackPanel extends JPanel implements IDiscardable, TableLayoutConst
 			}
 		});
 
+		abcPart.addAbcListener(abcListener);
+		updateTrack();
+	}
+
+	/**
+	 * Shows a different track, or the same track in a different part, in this panel. This reuses the
+	 * panel's components, which is much faster than creating a new panel.
+	 */
+	public void setTrack(TrackInfo info, AbcPart part)
+	{
+		if (trackInfo == info && abcPart == part)
+			return;
+
+		if (abcPart != part)
+		{
+			abcPart.removeAbcListener(abcListener);
+			part.addAbcListener(abcListener);
+		}
+
+		trackInfo = info;
+		abcPart = part;
+		noteGraph.setTrackInfo(trackInfo);
+		updateTrack();
+	}
+
+	private void updateTrack()
+	{
+		int trackNumber = trackInfo.getTrackNumber();
+		checkBox.setSelected(abcPart.isTrackEnabled(trackNumber));
+		transposeSpinner.setValue(abcPart.getTrackTranspose(trackNumber));
+
+		// The new volume only needs to be shown, not saved back to the part
+		trackVolumeBar.removeActionListener(trackVolumeListener);
+		trackVolumeBar.setTrackVelocityRange(trackInfo.getMinVelocity(), trackInfo.getMaxVelocity());
+		trackVolumeBar.setDeltaVolume(abcPart.getTrackVolumeAdjust(trackNumber));
+		trackVolumeBar.addActionListener(trackVolumeListener);
+
 		updateState(true);
 	}
 
@@ -490,8 +518,7 @@ public class TrackPanel extends JPanel implements IDiscardable, TableLayoutConst
 
 		// Update the visibility of controls
 		trackVolumeBar.setVisible(trackEnabled);
-		if (transposeSpinner != null)
-			transposeSpinner.setVisible(trackEnabled && !abcPart.isDrumPart());
+		transposeSpinner.setVisible(trackEnabled && !abcPart.isDrumPart() && !trackInfo.isDrumTrack());
 
 		TableLayout layout = (TableLayout) getLayout();
 		TableLayoutConstraints newCheckBoxLayout = trackEnabled ? checkBoxLayout_ControlsVisible
@@ -519,7 +546,7 @@ public class TrackPanel extends JPanel implements IDiscardable, TableLayoutConst
 		{
 			if (showDrumPanels != showDrumPanelsNew)
 			{
-				noteGraph.repaint();
+				noteGraph.invalidateNotes();
 				showDrumPanels = showDrumPanelsNew;
 			}
 			wasDrumPart = abcPart.isDrumPart();
@@ -535,6 +562,8 @@ public class TrackPanel extends JPanel implements IDiscardable, TableLayoutConst
 			}
 			if (drumSavePanel != null)
 				remove(drumSavePanel);
+			while (layout.getNumRow() > LAYOUT_ROWS.length)
+				layout.deleteRow(LAYOUT_ROWS.length);
 
 			if (showDrumPanels)
 			{
@@ -738,10 +767,10 @@ public class TrackPanel extends JPanel implements IDiscardable, TableLayoutConst
 			return false;
 		}
 
-		@Override protected List<NoteEvent> getEvents()
+		@Override protected NoteEventList getEvents()
 		{
 			if (showDrumPanels)
-				return Collections.emptyList();
+				return NoteEventList.EMPTY;
 
 			return super.getEvents();
 		}
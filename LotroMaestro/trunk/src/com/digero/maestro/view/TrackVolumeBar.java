@@ -41,8 +41,8 @@ public class TrackVolumeBar extends JPanel implements IDiscardable
 	private static final int VALUE_GUTTER = 16;
 	private static final int STEP_SIZE = 16;
 	private static final int DEFAULT_VALUE = 0;
-	private final int MIN_VALUE;
-	private final int MAX_VALUE;
+	private int minValue;
+	private int maxValue;
 	private int value;
 
 	// Visual properties
@@ -51,8 +51,7 @@ public class TrackVolumeBar extends JPanel implements IDiscardable
 
 	public TrackVolumeBar(int trackMinVelocity, int trackMaxVelocity)
 	{
-		MIN_VALUE = Dynamics.MINIMUM.midiVol - trackMaxVelocity;
-		MAX_VALUE = Dynamics.MAXIMUM.midiVol - trackMinVelocity;
+		setTrackVelocityRange(trackMinVelocity, trackMaxVelocity);
 
 		InputHandler inputHandler = new InputHandler();
 		addMouseListener(inputHandler);
@@ -73,6 +72,15 @@ public class TrackVolumeBar extends JPanel implements IDiscardable
 		}
 	}
 
+	/** Sets the range of velocities in the track, which limits how far its volume can be adjusted. */
+	public void setTrackVelocityRange(int trackMinVelocity, int trackMaxVelocity)
+	{
+		minValue = Dynamics.MINIMUM.midiVol - trackMaxVelocity;
+		maxValue = Dynamics.MAXIMUM.midiVol - trackMinVelocity;
+		value = Util.clamp(value, minValue, maxValue);
+		repaint();
+	}
+
 	public int getDeltaVolume()
 	{
 		return value;
@@ -82,7 +90,7 @@ public class TrackVolumeBar extends JPanel implements IDiscardable
 	{
 		if (deltaVolume != value)
 		{
-			value = Util.clamp(deltaVolume, MIN_VALUE, MAX_VALUE);
+			value = Util.clamp(deltaVolume, minValue, maxValue);
 			fireActionEvent();
 		}
 	}
@@ -124,8 +132,8 @@ public class TrackVolumeBar extends JPanel implements IDiscardable
 		Graphics2D g2 = (Graphics2D) g;
 		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-		int vMin = MIN_VALUE;
-		int vMax = MAX_VALUE;
+		int vMin = minValue;
+		int vMax = maxValue;
 		int vCtr = DEFAULT_VALUE;
 
 		int ptrPos = SIDE_PAD + (getWidth() - 2 * SIDE_PAD) * (value - vMin) / (vMax - vMin);
@@ -198,11 +206,11 @@ public class TrackVolumeBar extends JPanel implements IDiscardable
 				float xMin = SIDE_PAD;
 				float xMax = getWidth() - 2 * SIDE_PAD;
 
-				float v = (MAX_VALUE - MIN_VALUE) * (x - xMin) / xMax + MIN_VALUE;
+				float v = (maxValue - minValue) * (x - xMin) / xMax + minValue;
 
-				value = Util.clamp(Math.round(v / STEP_SIZE) * STEP_SIZE, MIN_VALUE, MAX_VALUE);
+				value = Util.clamp(Math.round(v / STEP_SIZE) * STEP_SIZE, minValue, maxValue);
 
-				if (value != MIN_VALUE && value != MAX_VALUE && Math.abs(value - DEFAULT_VALUE) < VALUE_GUTTER)
+				if (value != minValue && value != maxValue && Math.abs(value - DEFAULT_VALUE) < VALUE_GUTTER)
 					value = DEFAULT_VALUE;
 			}
 